@@ -0,0 +1,390 @@
+package kwic;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Benchmark harness for the KWIC index and query paths.
+ *
+ * This lives in its own source root (bench/) so it is not part of the
+ * application.  It generates text corpora of several sizes and keyword
+ * distributions, then measures for each index mode:
+ *   - buildIndex throughput in MB/s and tokens/s
+ *   - processQueryKeyword latency for hits, misses and dead words
+ *   - bytes allocated per indexed MB and per query
+ * The results are written as JSON so runs of different versions can be
+ * compared.
+ *
+ * Usage:
+ *   java -cp [classes] kwic.KwicBenchmark [--out file.json] [--label name]
+ *        [--sizes 4,16,64] [--modes default,mmap,parallel,pipeline,arena,positions,regex]
+ *        [--iterations 5] [--warmup 2]
+ *
+ * The modes are the index builders and their options: parallel is the
+ * fork-join build into the lock-striped concurrent index, pipeline the
+ * reader, tokenizer and indexer pipeline, arena keeps the lines in a text
+ * arena instead of a context per instance, and positions also builds the
+ * positional postings for phrase and NEAR queries.
+ *
+ * Allocation is read from the benchmark thread, so in parallel and
+ * pipeline mode the allocations on the pool and stage threads are not
+ * included.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicBenchmark {
+	// Define the number of distinct words in the zipfian and uniform corpora
+	private static final int LARGE_VOCABULARY = 50000;
+	// Define the number of distinct words in the repetitive corpus
+	private static final int SMALL_VOCABULARY = 50;
+	// Define the target length of a generated line
+	private static final int LINE_LENGTH = 70;
+	// Define the number of queries per query type
+	private static final int QUERY_COUNT = 2000;
+	// Define the index modes, in the order they are run by default
+	private static final String[] MODES = {"default", "mmap", "parallel", "pipeline", "arena", "positions", "regex"};
+
+	// Benchmark settings
+	private String mOutFileName = "kwic-bench.json";
+	private String mLabel = "local";
+	private int[] mSizesMb = {4, 16, 64};
+	private String[] mModes = MODES;
+	private int mIterations = 5;
+	private int mWarmup = 2;
+
+	// Random source (fixed seed so corpora are the same between runs)
+	private Random mRandom = new Random(20240101L);
+
+	// Holder for a generated corpus
+	private static class Corpus {
+		private String distribution;
+		private File file;
+		private long tokenCount;
+		private String[] vocabulary;
+	}
+
+	// Holder for the query latencies of one query type
+	private static class LatencyStats {
+		private double meanNs, p50Ns, p99Ns;
+		private double allocBytesPerOp;
+	}
+
+	/*
+	 * Method to generate a corpus file
+	 *
+	 * Distributions:
+	 *   zipf       - word rank r is drawn with probability ~ 1/r
+	 *   uniform    - all words are equally likely
+	 *   repetitive - a tiny vocabulary, almost every word goes dead at once
+	 */
+	private Corpus generateCorpus(String distribution, int sizeMb) throws IOException {
+		Corpus corpus = new Corpus();
+		int vocabSize = distribution.equals("repetitive") ? SMALL_VOCABULARY : LARGE_VOCABULARY;
+		long targetBytes = sizeMb * 1024L * 1024L;
+		long writtenBytes = 0;
+		StringBuilder line = new StringBuilder(2*LINE_LENGTH);
+		String word;
+
+		corpus.distribution = distribution;
+		corpus.vocabulary = generateVocabulary(vocabSize);
+		corpus.file = File.createTempFile("kwic-" + distribution + "-" + sizeMb + "mb-", ".txt");
+		corpus.file.deleteOnExit();
+
+		// Cumulative weights for the zipf distribution
+		double[] zipfCdf = null;
+		if (distribution.equals("zipf")){
+			zipfCdf = new double[vocabSize];
+			double total = 0;
+			for (int rank = 0; rank < vocabSize; rank++){
+				total += 1.0 / (rank + 1);
+				zipfCdf[rank] = total;
+			}
+			for (int rank = 0; rank < vocabSize; rank++){
+				zipfCdf[rank] /= total;
+			}
+		}
+
+		Writer out = new BufferedWriter(new FileWriter(corpus.file), 1 << 16);
+		try {
+			while (writtenBytes < targetBytes){
+				line.setLength(0);
+				while (line.length() < LINE_LENGTH){
+					if (zipfCdf != null){
+						int rank = Arrays.binarySearch(zipfCdf, mRandom.nextDouble());
+						word = corpus.vocabulary[Math.min((rank < 0) ? -rank - 1 : rank, vocabSize - 1)];
+					} else {
+						word = corpus.vocabulary[mRandom.nextInt(vocabSize)];
+					}
+					if (line.length() > 0){
+						line.append(mRandom.nextInt(8) == 0 ? ", " : " ");
+					}
+					line.append(word);
+					corpus.tokenCount++;
+				}
+				line.append('\n');
+				out.write(line.toString());
+				writtenBytes += line.length();
+			}
+		} finally {
+			out.close();
+		}
+		return corpus;
+	}
+
+	// Method to generate distinct words of 2 to 10 lower case letters
+	private String[] generateVocabulary(int vocabSize){
+		Set<String> words = new LinkedHashSet<String>();
+		while (words.size() < vocabSize){
+			words.add(randomWord(2 + mRandom.nextInt(9)));
+		}
+		return words.toArray(new String[0]);
+	}
+	
+	// Method to generate a random lower case word
+	private String randomWord(int length){
+		char[] chars = new char[length];
+		for (int charInd = 0; charInd < length; charInd++){
+			chars[charInd] = (char) ('a' + mRandom.nextInt(26));
+		}
+		return new String(chars);
+	}
+
+	// Method to create a KwicSearch object for one of the benchmark modes
+	private static KwicSearch createSearch(String fileName, String mode){
+		KwicSearch kwicker = new KwicSearch(fileName);
+		kwicker.setMappedInput(mode.equals("mmap"));
+		kwicker.setParallelIndex(mode.equals("parallel"));
+		kwicker.setPipelinedIndex(mode.equals("pipeline"));
+		kwicker.setArenaContext(mode.equals("arena"));
+		kwicker.setPositionalIndex(mode.equals("positions"));
+		kwicker.setRegexTokenizer(mode.equals("regex"));
+		return kwicker;
+	}
+
+	// Method to read the bytes allocated so far by the current thread (-1 if unsupported)
+	private static long allocatedBytes(){
+		java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+		if (threadBean instanceof com.sun.management.ThreadMXBean){
+			return ((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return -1;
+	}
+
+	/*
+	 * Method to measure the query latency of a list of keywords
+	 * processQueryKeyword prints its results, so System.out is swapped for
+	 * a stream that discards everything while the queries run
+	 */
+	private static LatencyStats measureQueries(KwicSearch kwicker, String[] keywords){
+		LatencyStats stats = new LatencyStats();
+		long[] latencies = new long[keywords.length];
+		PrintStream realOut = System.out;
+		long startAlloc, startTime;
+
+		// Nothing to measure (e.g. no live words in the repetitive corpus)
+		if (keywords.length == 0){
+			return stats;
+		}
+
+		System.setOut(new PrintStream(new OutputStream(){
+			@Override
+			public void write(int b){
+			}
+			@Override
+			public void write(byte[] b, int off, int len){
+			}
+		}));
+		try {
+			// Warm up the query path
+			for (String keyword : keywords){
+				kwicker.processQueryKeyword(keyword);
+			}
+
+			startAlloc = allocatedBytes();
+			for (int queryInd = 0; queryInd < keywords.length; queryInd++){
+				startTime = System.nanoTime();
+				kwicker.processQueryKeyword(keywords[queryInd]);
+				latencies[queryInd] = System.nanoTime() - startTime;
+			}
+			stats.allocBytesPerOp = (allocatedBytes() - startAlloc) / (double) keywords.length;
+		} finally {
+			System.setOut(realOut);
+		}
+
+		Arrays.sort(latencies);
+		long total = 0;
+		for (long latency : latencies){
+			total += latency;
+		}
+		stats.meanNs = total / (double) latencies.length;
+		stats.p50Ns = latencies[latencies.length / 2];
+		stats.p99Ns = latencies[Math.min(latencies.length - 1, (int) (latencies.length * 0.99))];
+		return stats;
+	}
+
+	// Method to pick query keywords of one type ("hit", "dead" or "miss")
+	private String[] pickQueries(KwicSearch kwicker, Corpus corpus, String type){
+		List<String> queries = new ArrayList<String>();
+		KeywordContainer keyContainer;
+		int attempts = 0;
+
+		while (queries.size() < QUERY_COUNT && attempts < 100*QUERY_COUNT){
+			attempts++;
+			if (type.equals("miss")){
+				// Vocabulary words are at most 10 letters, so 12 letters always miss
+				queries.add(randomWord(12));
+				continue;
+			}
+			String word = corpus.vocabulary[mRandom.nextInt(corpus.vocabulary.length)];
+			keyContainer = kwicker.lookupKeyword(word);
+			if (keyContainer == null){
+				continue;
+			}
+			boolean isDead = keyContainer.getWordCount() >= kwicker.getMaxKeyCount();
+			if (isDead == type.equals("dead")){
+				queries.add(word);
+			}
+		}
+		return queries.toArray(new String[0]);
+	}
+
+	// Method to run all benchmarks and write the JSON report
+	private void run() throws IOException {
+		StringBuilder json = new StringBuilder();
+		boolean firstResult = true;
+
+		json.append("{\n  \"label\": \"").append(mLabel).append("\",\n");
+		json.append("  \"timestamp\": ").append(System.currentTimeMillis()).append(",\n");
+		json.append("  \"javaVersion\": \"").append(System.getProperty("java.version")).append("\",\n");
+		json.append("  \"processors\": ").append(Runtime.getRuntime().availableProcessors()).append(",\n");
+		json.append("  \"results\": [");
+
+		for (int sizeMb : mSizesMb){
+			for (String distribution : new String[] {"zipf", "uniform", "repetitive"}){
+				Corpus corpus = generateCorpus(distribution, sizeMb);
+				double fileMb = corpus.file.length() / (1024.0 * 1024.0);
+
+				for (String mode : mModes){
+					KwicSearch kwicker = null;
+					long bestNs = Long.MAX_VALUE, totalNs = 0, allocBytes = 0;
+
+					// Warm up, then measure full index builds
+					for (int iter = 0; iter < mWarmup + mIterations; iter++){
+						System.gc();
+						kwicker = createSearch(corpus.file.getPath(), mode);
+						long startAlloc = allocatedBytes();
+						long startTime = System.nanoTime();
+						kwicker.runIndexWorker();
+						long elapsed = System.nanoTime() - startTime;
+						if (iter >= mWarmup){
+							totalNs += elapsed;
+							bestNs = Math.min(bestNs, elapsed);
+							allocBytes += allocatedBytes() - startAlloc;
+						}
+					}
+					double meanSec = totalNs / (double) mIterations / 1e9;
+
+					// Measure the query path on the last index
+					LatencyStats hits = measureQueries(kwicker, pickQueries(kwicker, corpus, "hit"));
+					LatencyStats misses = measureQueries(kwicker, pickQueries(kwicker, corpus, "miss"));
+					LatencyStats dead = measureQueries(kwicker, pickQueries(kwicker, corpus, "dead"));
+
+					json.append(firstResult ? "\n" : ",\n");
+					firstResult = false;
+					json.append("    {\"mode\": \"").append(mode)
+						.append("\", \"distribution\": \"").append(distribution)
+						.append("\", \"sizeMb\": ").append(String.format("%.2f", fileMb))
+						.append(", \"tokens\": ").append(corpus.tokenCount)
+						.append(",\n     \"index\": {\"meanSec\": ").append(String.format("%.4f", meanSec))
+						.append(", \"bestSec\": ").append(String.format("%.4f", bestNs / 1e9))
+						.append(", \"mbPerSec\": ").append(String.format("%.2f", fileMb / meanSec))
+						.append(", \"tokensPerSec\": ").append(String.format("%.0f", corpus.tokenCount / meanSec))
+						.append(", \"allocBytesPerMb\": ").append(String.format("%.0f", allocBytes / (double) mIterations / fileMb))
+						.append("},\n     \"query\": {")
+						.append(latencyJson("hit", hits)).append(", ")
+						.append(latencyJson("miss", misses)).append(", ")
+						.append(latencyJson("dead", dead)).append("}}");
+
+					System.out.format("%-9s %-10s %6.1fMB  %8.2f MB/s  %12.0f tokens/s  hit p50 %6.0fns  miss p50 %6.0fns%n",
+							mode, distribution, fileMb, fileMb / meanSec, corpus.tokenCount / meanSec, hits.p50Ns, misses.p50Ns);
+				}
+
+				corpus.file.delete();
+			}
+		}
+		json.append("\n  ]\n}\n");
+
+		Writer out = new BufferedWriter(new FileWriter(mOutFileName));
+		try {
+			out.write(json.toString());
+		} finally {
+			out.close();
+		}
+		System.out.format("%nResults written to %s%n", mOutFileName);
+	}
+
+	// Method to format the latency stats of one query type as JSON
+	private static String latencyJson(String name, LatencyStats stats){
+		return String.format("\"%s\": {\"meanNs\": %.0f, \"p50Ns\": %.0f, \"p99Ns\": %.0f, \"allocBytesPerOp\": %.0f}",
+				name, stats.meanNs, stats.p50Ns, stats.p99Ns, stats.allocBytesPerOp);
+	}
+
+	// Method to parse a comma separated list of sizes
+	private static int[] parseSizes(String arg){
+		String[] parts = arg.split(",");
+		int[] sizes = new int[parts.length];
+		for (int partInd = 0; partInd < parts.length; partInd++){
+			sizes[partInd] = Integer.parseInt(parts[partInd].trim());
+		}
+		return sizes;
+	}
+
+	/**
+	 * @param args benchmark options, see the class comment
+	 */
+	public static void main(String[] args) throws IOException {
+		KwicBenchmark bench = new KwicBenchmark();
+
+		for (int argInd = 0; argInd + 1 < args.length; argInd += 2){
+			String value = args[argInd + 1];
+			if (args[argInd].equals("--out")){
+				bench.mOutFileName = value;
+			} else if (args[argInd].equals("--label")){
+				bench.mLabel = value;
+			} else if (args[argInd].equals("--sizes")){
+				bench.mSizesMb = parseSizes(value);
+			} else if (args[argInd].equals("--modes")){
+				bench.mModes = value.split(",");
+				for (String mode : bench.mModes){
+					if (!Arrays.asList(MODES).contains(mode)){
+						System.out.format("Unknown mode: %s (modes are %s)%n", mode, String.join(",", MODES));
+						return;
+					}
+				}
+			} else if (args[argInd].equals("--iterations")){
+				bench.mIterations = Integer.parseInt(value);
+			} else if (args[argInd].equals("--warmup")){
+				bench.mWarmup = Integer.parseInt(value);
+			} else {
+				System.out.format("Unknown option: %s%n", args[argInd]);
+				return;
+			}
+		}
+
+		bench.run();
+	}
+}
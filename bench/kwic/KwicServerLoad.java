@@ -0,0 +1,213 @@
+package kwic;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load generator for the HTTP query server.
+ *
+ * This lives in the bench/ source root next to KwicBenchmark.  It indexes
+ * a text file, starts a KwicHttpServer on a free localhost port, and then
+ * runs keyword queries against it from several client threads over
+ * keep-alive connections.  Keywords are taken from the file itself (hits)
+ * plus random letter strings (misses).  It reports throughput and the
+ * p50, p99 and p999 request latency, and fails if any request fails.
+ *
+ * Usage:
+ *   java -cp [classes] kwic.KwicServerLoad file.txt [--requests 20000]
+ *        [--clients 8] [--warmup 2000] [--limit 10] [--context 30]
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicServerLoad {
+	// Define the number of distinct keywords taken from the text file
+	private static final int HIT_KEYWORDS = 5000;
+	// Define the fraction of queries that are misses
+	private static final double MISS_FRACTION = 0.2;
+
+	// Load settings
+	private String mFileName;
+	private int mRequests = 20000;
+	private int mClients = 8;
+	private int mWarmup = 2000;
+	private int mLimit = KwicConstants.MAX_KEY_DISPLAY;
+	private int mContext = KwicConstants.CONTEXT_SIZE;
+
+	// Random source (fixed seed so runs use the same queries)
+	private Random mRandom = new Random(20240101L);
+
+	// Method to collect keywords from the text file
+	private String[] collectKeywords() throws IOException {
+		Set<String> hitWords = new LinkedHashSet<String>();
+		List<String> keywords = new ArrayList<String>();
+		KwicTokenizer tokenizer = new KwicTokenizer();
+		BufferedReader textIn = new BufferedReader(new FileReader(mFileName));
+		String line;
+
+		try {
+			while (hitWords.size() < HIT_KEYWORDS && (line = textIn.readLine()) != null){
+				tokenizer.reset(line);
+				while (tokenizer.next()){
+					hitWords.add(tokenizer.getTerm());
+				}
+			}
+		} finally {
+			textIn.close();
+		}
+
+		// Mix the hits with random misses
+		keywords.addAll(hitWords);
+		int missCount = (int) (keywords.size() * MISS_FRACTION / (1 - MISS_FRACTION)) + 1;
+		for (int missInd = 0; missInd < missCount; missInd++){
+			char[] word = new char[12];
+			for (int charInd = 0; charInd < word.length; charInd++){
+				word[charInd] = (char) ('a' + mRandom.nextInt(26));
+			}
+			keywords.add(new String(word));
+		}
+		return keywords.toArray(new String[0]);
+	}
+
+	// Method to run one request, returns its latency in nanoseconds
+	private static long runRequest(URL url) throws IOException {
+		byte[] discard = new byte[8192];
+		long startTime = System.nanoTime();
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+		if (connection.getResponseCode() != 200){
+			throw new IOException("Status " + connection.getResponseCode() + " for " + url);
+		}
+		// Read the whole body so the connection can be reused
+		InputStream bodyIn = connection.getInputStream();
+		try {
+			while (bodyIn.read(discard) >= 0){
+				// Discard
+			}
+		} finally {
+			bodyIn.close();
+		}
+		return System.nanoTime() - startTime;
+	}
+
+	/*
+	 * Method to run a number of requests over all client threads
+	 * Returns the sorted latencies of the requests
+	 */
+	private long[] runLoad(final int port, final String[] keywords, int requestCount) throws Exception {
+		final long[] latencies = new long[requestCount];
+		final AtomicInteger nextRequest = new AtomicInteger();
+		final List<Exception> failures = new ArrayList<Exception>();
+		Thread[] clients = new Thread[mClients];
+
+		for (int clientInd = 0; clientInd < mClients; clientInd++){
+			clients[clientInd] = new Thread(new Runnable(){
+				@Override
+				public void run(){
+					int requestInd;
+					try {
+						while ((requestInd = nextRequest.getAndIncrement()) < latencies.length){
+							String keyword = keywords[(int) ((requestInd * 2654435761L) % keywords.length)];
+							URL url = new URL("http://localhost:" + port + "/search?keyword="
+									+ URLEncoder.encode(keyword, "UTF-8") + "&limit=" + mLimit + "&context=" + mContext);
+							latencies[requestInd] = runRequest(url);
+						}
+					} catch (Exception e){
+						synchronized (failures){
+							failures.add(e);
+						}
+					}
+				}
+			});
+			clients[clientInd].start();
+		}
+		for (Thread client : clients){
+			client.join();
+		}
+
+		if (!failures.isEmpty()){
+			throw failures.get(0);
+		}
+		Arrays.sort(latencies);
+		return latencies;
+	}
+
+	// Method to get a percentile (0 to 1) of sorted latencies in microseconds
+	private static double percentileUs(long[] sortedLatencies, double percentile){
+		int index = (int) Math.ceil(percentile * sortedLatencies.length) - 1;
+		return sortedLatencies[Math.max(0, Math.min(sortedLatencies.length - 1, index))] / 1e3;
+	}
+
+	// Method to index the file, start the server and run the load
+	private void run() throws Exception {
+		KwicSearchGroup searchGroup = new KwicSearchGroup(1);
+		KwicHttpServer server = new KwicHttpServer(searchGroup);
+		String[] keywords = collectKeywords();
+		long startTime, elapsed;
+		long[] latencies;
+
+		searchGroup.addPath(mFileName);
+		searchGroup.awaitIndexDone();
+		int port = server.start(0);
+
+		try {
+			runLoad(port, keywords, mWarmup);
+
+			startTime = System.nanoTime();
+			latencies = runLoad(port, keywords, mRequests);
+			elapsed = System.nanoTime() - startTime;
+		} finally {
+			server.stop();
+			searchGroup.shutdown();
+		}
+
+		System.out.format("requests: %d  clients: %d  keywords: %d%n", mRequests, mClients, keywords.length);
+		System.out.format("throughput: %.0f requests/s%n", mRequests / (elapsed / 1e9));
+		System.out.format("latency us: p50 %.1f  p99 %.1f  p999 %.1f  max %.1f%n",
+				percentileUs(latencies, 0.50), percentileUs(latencies, 0.99),
+				percentileUs(latencies, 0.999), latencies[latencies.length - 1] / 1e3);
+	}
+
+	/**
+	 * @param args text file name, then optional settings (see class comment)
+	 */
+	public static void main(String[] args) throws Exception {
+		KwicServerLoad load = new KwicServerLoad();
+
+		for (int argInd = 0; argInd < args.length; argInd++){
+			if (args[argInd].equals("--requests")){
+				load.mRequests = Integer.parseInt(args[++argInd]);
+			} else if (args[argInd].equals("--clients")){
+				load.mClients = Integer.parseInt(args[++argInd]);
+			} else if (args[argInd].equals("--warmup")){
+				load.mWarmup = Integer.parseInt(args[++argInd]);
+			} else if (args[argInd].equals("--limit")){
+				load.mLimit = Integer.parseInt(args[++argInd]);
+			} else if (args[argInd].equals("--context")){
+				load.mContext = Integer.parseInt(args[++argInd]);
+			} else {
+				load.mFileName = args[argInd];
+			}
+		}
+
+		if (load.mFileName == null){
+			System.out.format("Usage: KwicServerLoad file.txt [--requests N] [--clients N] [--warmup N]"
+					+ " [--limit N] [--context N]%n");
+			return;
+		}
+		load.run();
+	}
+}
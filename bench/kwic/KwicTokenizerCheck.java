@@ -0,0 +1,136 @@
+package kwic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Conformance check of the hand written tokenizer scanner.
+ *
+ * This lives in the bench/ source root next to KwicBenchmark.  The scanner
+ * in KwicTokenizer.next has to find exactly the keywords that
+ * KwicTokenizer.WORD_PATTERN finds (the --regex mode), with the same start
+ * and end in the line and the same lower case keyword.  This runs both
+ * over a list of edge cases and then over random lines made from letters,
+ * apostrophes, hyphens, digits, spaces and non-ASCII letters, prints every
+ * line where they differ, and exits with status 1 if there was any.
+ *
+ * Usage:
+ *   java -cp [classes] kwic.KwicTokenizerCheck [--lines 200000] [--seed 1]
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicTokenizerCheck {
+	// Define the max number of mismatching lines printed
+	private static final int MAX_REPORTED = 20;
+	// Define the max length of a random line
+	private static final int MAX_LINE_LENGTH = 40;
+
+	// Define the edge cases checked before the random lines
+	private static final String[] EDGE_CASES = {
+		"", " ", "a", "I", "a b c", "ab", "AB", "aB Cd",
+		"'", "''", "'ab", "ab'", "'ab'", "''ab''", "'a'", "a'", "'a",
+		"a'b", "a'bc", "ab'c", "ab'cd", "ab'c'd", "a'b'c", "ab''cd", "ab' cd", "ab 'cd",
+		"don't", "rock'n'roll", "o'clock", "students'", "'tis", "x'",
+		"ab-cd", "a-b", "-ab-", "ab--cd", "e-mail", "ab-'cd",
+		"ab1cd", "a1b", "1ab", "ab1", "12'34", "a'1", "1'a", "ab'1cd", "99 bottles",
+		"caf\u00e9", "na\u00efve", "\u00e9a", "a\u00e9b", "stra\u00dfe", "\u00fcber'al", "ab'\u00e9",
+		"ab\u2019cd", "\u041f\u0440\u0438\u0432\u0435\u0442 ab", "\u6587\u5b57ab",
+		"ab\tcd", "ab\r\ncd", "ab.cd,ef;gh", "ab_cd", "ab'\n"
+	};
+
+	// Define the characters random lines are made from (letters are more likely)
+	private static final String RANDOM_CHARS = "abcdeXYZabcdeXYZ'''--  0129\u00e9\u00df\u2019\t.";
+
+	// Check settings
+	private int mLineCount = 200000;
+	private long mSeed = 1;
+
+	// Number of lines checked and of lines that did not match
+	private long mCheckedCount = 0;
+	private long mMismatchCount = 0;
+
+	// Tokenizers under test, the scanner and the regex reference
+	private final KwicTokenizer mScanner = new KwicTokenizer(false);
+	private final KwicTokenizer mReference = new KwicTokenizer(true);
+
+	// Method to list the keywords of a line as "start-end:keyword" strings
+	private static List<String> tokenize(KwicTokenizer tokenizer, String line){
+		List<String> tokens = new ArrayList<String>();
+		tokenizer.reset(line);
+		while (tokenizer.next()){
+			tokens.add(tokenizer.getTermStart() + "-" + tokenizer.getTermEnd() + ":" + tokenizer.getTerm());
+		}
+		return tokens;
+	}
+
+	// Method to check one line, printing it if the two tokenizers differ
+	private void checkLine(String line){
+		List<String> scanned = tokenize(mScanner, line);
+		List<String> expected = tokenize(mReference, line);
+
+		mCheckedCount++;
+		if (!scanned.equals(expected)){
+			mMismatchCount++;
+			if (mMismatchCount <= MAX_REPORTED){
+				System.out.format("Mismatch on \"%s\"%n  scanner: %s%n  regex:   %s%n", escape(line), scanned, expected);
+			}
+		}
+	}
+
+	// Method to show the control and non-ASCII characters of a line as escapes
+	private static String escape(String line){
+		StringBuilder escaped = new StringBuilder();
+		for (int charInd = 0; charInd < line.length(); charInd++){
+			char c = line.charAt(charInd);
+			if (c < 0x20 || c > 0x7E){
+				escaped.append(String.format("\\u%04x", (int) c));
+			} else {
+				escaped.append(c);
+			}
+		}
+		return escaped.toString();
+	}
+
+	// Method to run the edge cases and the random lines, returns true if they all matched
+	private boolean run(){
+		Random random = new Random(mSeed);
+		StringBuilder line = new StringBuilder();
+
+		for (String edgeCase : EDGE_CASES){
+			checkLine(edgeCase);
+		}
+		for (int lineInd = 0; lineInd < mLineCount; lineInd++){
+			line.setLength(0);
+			int lineLength = random.nextInt(MAX_LINE_LENGTH + 1);
+			for (int charInd = 0; charInd < lineLength; charInd++){
+				line.append(RANDOM_CHARS.charAt(random.nextInt(RANDOM_CHARS.length())));
+			}
+			checkLine(line.toString());
+		}
+
+		System.out.format("%d lines checked, %d did not match%n", mCheckedCount, mMismatchCount);
+		return mMismatchCount == 0;
+	}
+
+	public static void main(String[] args){
+		KwicTokenizerCheck check = new KwicTokenizerCheck();
+
+		for (int argInd = 0; argInd < args.length; argInd++){
+			if (args[argInd].equals("--lines")){
+				check.mLineCount = Integer.parseInt(args[++argInd]);
+			} else if (args[argInd].equals("--seed")){
+				check.mSeed = Long.parseLong(args[++argInd]);
+			} else {
+				System.out.format("Usage: KwicTokenizerCheck [--lines N] [--seed N]%n");
+				return;
+			}
+		}
+
+		if (!check.run()){
+			System.exit(1);
+		}
+	}
+}
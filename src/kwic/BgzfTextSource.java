@@ -0,0 +1,89 @@
+package kwic;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Block gzip (BGZF) text source
+ * This reads a BGZF file like MappedTextSource reads a plain file: every
+ * byte of the inflated text is one character and offsets are offsets
+ * into the inflated text.  A character is found by inflating just the
+ * block holding it (see KwicBgzfFile), so contexts are rebuilt from the
+ * compressed file without keeping the whole text in memory.
+ *
+ * The block of the last character read is kept at hand, so scanning
+ * a line or a context window rarely looks up another block.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class BgzfTextSource extends KwicTextSource {
+	// Block gzip file and the size of its text
+	private final KwicBgzfFile mBgzfFile;
+	private final long mLength;
+	// Offset of the first text byte
+	private long mDataStart = 0;
+
+	// Last block read (replaced as a whole, so readers on other threads always see a matching offset and text)
+	private volatile CurrentBlock mCurrentBlock;
+
+	// Holder for one inflated block and its offset
+	private static class CurrentBlock {
+		private final long mStart;
+		private final byte[] mText;
+
+		private CurrentBlock(long start, byte[] text){
+			this.mStart = start;
+			this.mText = text;
+		}
+	}
+
+	// Constructor that reads from an opened BGZF file
+	protected BgzfTextSource(KwicBgzfFile bgzfFile){
+		this.mBgzfFile = bgzfFile;
+		this.mLength = bgzfFile.getTextSize();
+		this.mCurrentBlock = new CurrentBlock(0, new byte[0]);
+
+		// Skip a UTF-8 Byte Order Mark, like MappedTextSource
+		if (mLength >= 3 && byteAt(0) == (byte) 0xEF && byteAt(1) == (byte) 0xBB && byteAt(2) == (byte) 0xBF){
+			mDataStart = 3;
+		}
+	}
+
+	/*
+	 * Method to get the raw byte at an absolute offset
+	 * A block that can't be inflated (a corrupt file) throws an
+	 * UncheckedIOException, since charAt can't throw an IOException.
+	 */
+	protected byte byteAt(long pos){
+		CurrentBlock block = mCurrentBlock;
+		int blockInd;
+
+		if (pos < block.mStart || pos >= block.mStart + block.mText.length){
+			blockInd = mBgzfFile.findBlock(pos);
+			try {
+				block = new CurrentBlock(mBgzfFile.getTextOffset(blockInd), mBgzfFile.getBlock(blockInd));
+			} catch (IOException e){
+				throw new UncheckedIOException(e);
+			}
+			mCurrentBlock = block;
+		}
+		return block.mText[(int) (pos - block.mStart)];
+	}
+
+	@Override
+	protected char charAt(long pos){
+		return (char) (byteAt(pos) & 0xFF);
+	}
+
+	@Override
+	protected long getDataStart(){
+		return mDataStart;
+	}
+
+	@Override
+	protected long getDataEnd(){
+		return mLength;
+	}
+}
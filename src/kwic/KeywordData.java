@@ -11,6 +11,14 @@ package kwic;
 public class KeywordData {
 	private int lineNumber;
 	private String contextStr;
+	/*
+	 *  Position of the keyword in the source text
+	 *  When the source text is kept available (e.g. memory mapped), only the
+	 *  position is stored and contextStr stays null until the context is
+	 *  actually displayed.
+	 */
+	private long keyOffset;
+	private int keyLength;
 	
 	// Basic Constructor
 	protected KeywordData(){
@@ -24,6 +32,13 @@ public class KeywordData {
 		this.contextStr = context;
 	}
 	
+	// Constructor that sets the keyword position, for lazily built context
+	protected KeywordData(int line,long offset,int length){
+		this.lineNumber = line;
+		this.keyOffset = offset;
+		this.keyLength = length;
+	}
+	
 	// getter for lineNumer
 	protected int getLineNubmer(){
 		return lineNumber;
@@ -44,6 +59,21 @@ public class KeywordData {
 		this.contextStr = context;
 	}
 	
+	// Check if the context string is stored, or has to be built from the source
+	protected boolean hasContextStr(){
+		return contextStr != null;
+	}
+	
+	// getter for keyOffset
+	protected long getKeyOffset(){
+		return keyOffset;
+	}
+	
+	// getter for keyLength
+	protected int getKeyLength(){
+		return keyLength;
+	}
+	
 	// Method to analyze and store contextStr
 	protected void storeContextStr(String rawContext){
 		// Stub for future enhancements
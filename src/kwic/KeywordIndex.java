@@ -0,0 +1,409 @@
+package kwic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/** Keyword index
+ * This is the main data structure for holding the keyword index.  It is
+ * an open addressing hash table keyed directly on the characters of a
+ * keyword, so a keyword can be looked up from the tokenizer's buffer
+ * without creating a String.  Every distinct keyword gets a term id, and
+ * all of its data is kept in flat arrays indexed by that id:
+ *   - the keyword characters (in one shared char array)
+ *   - the keyword hash
+ *   - the word count
+ *   - the number of occurrences (every one, not just the kept instances)
+ *   - MAX_KEY_COUNT fixed slots for the keyword instances
+ * A keyword is "dead" once its word count reaches the number of slots,
+ * so the dead word check is just a count comparison on the term id that
+ * the single hash probe returns.
+ * 
+ * The occurrences of every keyword are still counted after it is dead,
+ * so the index also holds the exact term frequencies of the text (see
+ * getTermStats) without a second pass over it.
+ * 
+ * This class is not thread safe.
+ * 
+ * @author Michael Chalson
+ */
+
+public class KeywordIndex {
+	// Define the initial number of terms the index can hold before growing
+	private static final int INITIAL_TERM_CAPACITY = 1024;
+	// Define the estimated heap size of a KeywordData object and of a String
+	// without its characters (64-bit JVM with compressed references)
+	private static final int KEYWORD_DATA_BYTES = 32;
+	private static final int STRING_BYTES = 40;
+	
+	// Number of instance slots per keyword
+	private final int maxKeyCount;
+	
+	// Hash table of (term id + 1), 0 marks an empty slot
+	private int[] hashTable;
+	// Number of terms in the index
+	private int termCount = 0;
+	
+	// Per term data, indexed by term id
+	private int[] termHash;
+	private int[] termCharStart;
+	private int[] termCharLength;
+	private int[] wordCount;
+	private long[] termFrequency;
+	// Instance slots, term id * maxKeyCount + instance number
+	private KeywordData[] detailSlots;
+	
+	// Characters of all keywords, back to back
+	private char[] termChars;
+	private int termCharsUsed = 0;
+	
+	// Number of keyword occurrences counted
+	private long tokenCount = 0;
+	
+	// Basic Constructor
+	protected KeywordIndex(){
+		this(KwicConstants.MAX_KEY_COUNT);
+	}
+	
+	// Constructor that sets the number of instance slots per keyword
+	protected KeywordIndex(int maxCount){
+		this.maxKeyCount = maxCount;
+		this.hashTable = new int[2*INITIAL_TERM_CAPACITY];
+		this.termHash = new int[INITIAL_TERM_CAPACITY];
+		this.termCharStart = new int[INITIAL_TERM_CAPACITY];
+		this.termCharLength = new int[INITIAL_TERM_CAPACITY];
+		this.wordCount = new int[INITIAL_TERM_CAPACITY];
+		this.termFrequency = new long[INITIAL_TERM_CAPACITY];
+		this.detailSlots = new KeywordData[INITIAL_TERM_CAPACITY*maxCount];
+		this.termChars = new char[8*INITIAL_TERM_CAPACITY];
+	}
+	
+	// Method to compute the hash of a keyword (also used to hash keywords ahead of findOrAdd)
+	protected static int hashChars(char[] chars, int offset, int length){
+		int hash = 0;
+		for (int charInd = offset; charInd < offset + length; charInd++){
+			hash = 31*hash + chars[charInd];
+		}
+		return mixHash(hash);
+	}
+	
+	// Method to compute the hash of a keyword (same value as for a char array)
+	private static int hashChars(CharSequence chars){
+		int hash = 0;
+		for (int charInd = 0; charInd < chars.length(); charInd++){
+			hash = 31*hash + chars.charAt(charInd);
+		}
+		return mixHash(hash);
+	}
+	
+	// Method to spread the hash bits so the low bits can be used as table index
+	private static int mixHash(int hash){
+		hash ^= (hash >>> 16);
+		hash *= 0x85ebca6b;
+		hash ^= (hash >>> 13);
+		return hash;
+	}
+	
+	// Method to check if a stored term equals the given characters
+	private boolean termEquals(int termId, char[] chars, int offset, int length){
+		if (termCharLength[termId] != length){
+			return false;
+		}
+		int start = termCharStart[termId];
+		for (int charInd = 0; charInd < length; charInd++){
+			if (termChars[start + charInd] != chars[offset + charInd]){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	// Method to check if a stored term equals the given characters
+	private boolean termEquals(int termId, CharSequence chars){
+		if (termCharLength[termId] != chars.length()){
+			return false;
+		}
+		int start = termCharStart[termId];
+		for (int charInd = 0; charInd < chars.length(); charInd++){
+			if (termChars[start + charInd] != chars.charAt(charInd)){
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/*
+	 * Method to find the term id of a keyword, adding the keyword if needed
+	 * The keyword has to be lower case already
+	 */
+	protected int findOrAdd(char[] chars, int offset, int length){
+		return findOrAdd(chars, offset, length, hashChars(chars, offset, length));
+	}
+	
+	/*
+	 * Method to find the term id of a keyword, adding the keyword if needed
+	 * The hash has to be hashChars of the keyword, worked out ahead (on
+	 * another thread in the indexing pipeline)
+	 */
+	protected int findOrAdd(char[] chars, int offset, int length, int hash){
+		int mask = hashTable.length - 1;
+		int slot = hash & mask;
+		int termId;
+		
+		// Probe until we find the keyword or an empty slot
+		while (hashTable[slot] != 0){
+			termId = hashTable[slot] - 1;
+			if (termHash[termId] == hash && termEquals(termId, chars, offset, length)){
+				return termId;
+			}
+			slot = (slot + 1) & mask;
+		}
+		
+		// Not found, add a new term
+		termId = addTerm(chars, offset, length, hash);
+		hashTable[slot] = termId + 1;
+		
+		// Keep the table at most half full
+		if (2*termCount > hashTable.length){
+			growHashTable();
+		}
+		return termId;
+	}
+	
+	// Method to find the term id of a keyword, returns -1 if it is not in the index
+	protected int find(char[] chars, int offset, int length){
+		int hash = hashChars(chars, offset, length);
+		int mask = hashTable.length - 1;
+		int slot = hash & mask;
+		int termId;
+		
+		while (hashTable[slot] != 0){
+			termId = hashTable[slot] - 1;
+			if (termHash[termId] == hash && termEquals(termId, chars, offset, length)){
+				return termId;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+	
+	// Method to find the term id of a keyword, returns -1 if it is not in the index
+	protected int find(CharSequence keyword){
+		int hash = hashChars(keyword);
+		int mask = hashTable.length - 1;
+		int slot = hash & mask;
+		int termId;
+		
+		while (hashTable[slot] != 0){
+			termId = hashTable[slot] - 1;
+			if (termHash[termId] == hash && termEquals(termId, keyword)){
+				return termId;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+	
+	// Method to store the data for a new term
+	private int addTerm(char[] chars, int offset, int length, int hash){
+		int termId = termCount;
+		
+		// Grow the per term arrays if they are full
+		if (termId == termHash.length){
+			int newCapacity = 2*termHash.length;
+			termHash = Arrays.copyOf(termHash, newCapacity);
+			termCharStart = Arrays.copyOf(termCharStart, newCapacity);
+			termCharLength = Arrays.copyOf(termCharLength, newCapacity);
+			wordCount = Arrays.copyOf(wordCount, newCapacity);
+			termFrequency = Arrays.copyOf(termFrequency, newCapacity);
+			detailSlots = Arrays.copyOf(detailSlots, newCapacity*maxKeyCount);
+		}
+		// Grow the character store if it is full
+		if (termCharsUsed + length > termChars.length){
+			termChars = Arrays.copyOf(termChars, Math.max(2*termChars.length, termCharsUsed + length));
+		}
+		
+		System.arraycopy(chars, offset, termChars, termCharsUsed, length);
+		termHash[termId] = hash;
+		termCharStart[termId] = termCharsUsed;
+		termCharLength[termId] = length;
+		termCharsUsed += length;
+		termCount++;
+		
+		return termId;
+	}
+	
+	// Method to double the hash table and re-insert all terms
+	private void growHashTable(){
+		int[] newTable = new int[2*hashTable.length];
+		int mask = newTable.length - 1;
+		int slot;
+		
+		for (int termId = 0; termId < termCount; termId++){
+			slot = termHash[termId] & mask;
+			while (newTable[slot] != 0){
+				slot = (slot + 1) & mask;
+			}
+			newTable[slot] = termId + 1;
+		}
+		hashTable = newTable;
+	}
+	
+	// Method to check if a keyword already has all of its instance slots filled
+	protected boolean isDead(int termId){
+		return wordCount[termId] >= maxKeyCount;
+	}
+	
+	// Method to count one occurrence of a keyword (dead or not)
+	protected void countOccurrence(int termId){
+		termFrequency[termId]++;
+		tokenCount++;
+	}
+	
+	// Method to add an instance of a keyword, ignored if the keyword is dead
+	protected void addInstance(int termId, KeywordData wordData){
+		int count = wordCount[termId];
+		if (count < maxKeyCount){
+			detailSlots[termId*maxKeyCount + count] = wordData;
+			wordCount[termId] = count + 1;
+		}
+	}
+	
+	/*
+	 * Method to set the instances and the number of occurrences of a term id
+	 * 
+	 * This replaces what the term had, and is how a KwicConcurrentIndex
+	 * publishes the keywords it changed.  The instances are copied from
+	 * instances[offset] on, count of them (at most the number of slots).
+	 */
+	protected void replaceTerm(int termId, KeywordData[] instances, int offset, int count, long frequency){
+		int slotStart = termId*maxKeyCount;
+		
+		System.arraycopy(instances, offset, detailSlots, slotStart, count);
+		if (count < wordCount[termId]){
+			Arrays.fill(detailSlots, slotStart + count, slotStart + wordCount[termId], null);
+		}
+		wordCount[termId] = count;
+		tokenCount += frequency - termFrequency[termId];
+		termFrequency[termId] = frequency;
+	}
+	
+	// getter for the number of distinct keywords
+	protected int getTermCount(){
+		return termCount;
+	}
+	
+	// getter for the keyword of a term id
+	protected String getTerm(int termId){
+		return new String(termChars, termCharStart[termId], termCharLength[termId]);
+	}
+	
+	// getter for the length of the keyword of a term id
+	protected int getTermLength(int termId){
+		return termCharLength[termId];
+	}
+	
+	// getter for one character of the keyword of a term id
+	protected char getTermChar(int termId, int charInd){
+		return termChars[termCharStart[termId] + charInd];
+	}
+	
+	// Method to compare the keywords of two term ids in character order
+	protected int compareTerms(int termIdA, int termIdB){
+		int startA = termCharStart[termIdA], startB = termCharStart[termIdB];
+		int minLen = Math.min(termCharLength[termIdA], termCharLength[termIdB]);
+		int diff;
+		for (int charInd = 0; charInd < minLen; charInd++){
+			diff = termChars[startA + charInd] - termChars[startB + charInd];
+			if (diff != 0){
+				return diff;
+			}
+		}
+		return termCharLength[termIdA] - termCharLength[termIdB];
+	}
+	
+	// getter for the word count of a term id
+	protected int getWordCount(int termId){
+		return wordCount[termId];
+	}
+	
+	// getter for the number of occurrences of a term id
+	protected long getTermFrequency(int termId){
+		return termFrequency[termId];
+	}
+	
+	// getter for the number of keyword occurrences counted
+	protected long getTokenCount(){
+		return tokenCount;
+	}
+	
+	// getter for one instance of a term id
+	protected KeywordData getInstance(int termId, int detailInd){
+		return detailSlots[termId*maxKeyCount + detailInd];
+	}
+	
+	/*
+	 * Method to estimate the heap used by the index
+	 * This counts the arrays, the instances and their context strings
+	 * (one byte per character, as compact strings store ASCII text).
+	 * It walks every instance, so it is meant for occasional use.
+	 */
+	protected long estimateHeapBytes(){
+		long heapBytes = 4L*hashTable.length + 24L*termHash.length + 4L*detailSlots.length + 2L*termChars.length;
+		KeywordData wordData;
+
+		for (int termId = 0; termId < termCount; termId++){
+			for (int detailInd = 0; detailInd < wordCount[termId]; detailInd++){
+				wordData = detailSlots[termId*maxKeyCount + detailInd];
+				heapBytes += KEYWORD_DATA_BYTES;
+				if (wordData.hasContextStr()){
+					heapBytes += STRING_BYTES + wordData.getContextStr().length();
+				}
+			}
+		}
+		return heapBytes;
+	}
+	
+	/*
+	 * Method to get the term statistics with the topCount most frequent keywords
+	 * This looks at every term once, with a bounded heap for the top ones.
+	 */
+	protected KwicTermStats getTermStats(int topCount, boolean partial){
+		KwicTopTerms topTerms = new KwicTopTerms(topCount){
+			@Override
+			protected int compareIds(int termIdA, int termIdB){
+				return compareTerms(termIdA, termIdB);
+			}
+		};
+		List<KwicTermFrequency> termList = new ArrayList<KwicTermFrequency>();
+		long singleCount = 0;
+		
+		for (int termId = 0; termId < termCount; termId++){
+			if (termFrequency[termId] == 1){
+				singleCount++;
+			}
+			topTerms.offer(termId, termFrequency[termId]);
+		}
+		for (int termId : topTerms.drainIds()){
+			termList.add(new KwicTermFrequency(getTerm(termId), termFrequency[termId], 0));
+		}
+		return new KwicTermStats(tokenCount, termCount, singleCount, termList, true, partial);
+	}
+	
+	// Method to add every keyword and its number of occurrences to a heavy hitters sketch
+	protected void addTermFrequencies(KwicHeavyHitters sketch){
+		for (int termId = 0; termId < termCount; termId++){
+			sketch.offer(getTerm(termId), termFrequency[termId]);
+		}
+	}
+	
+	// Method to copy the instances of a term id into a KeywordContainer
+	protected KeywordContainer getContainer(int termId){
+		KeywordContainer keyContainer = new KeywordContainer();
+		keyContainer.setWordCount(wordCount[termId]);
+		for (int detailInd = 0; detailInd < wordCount[termId]; detailInd++){
+			keyContainer.getDetailList().add(getInstance(termId, detailInd));
+		}
+		return keyContainer;
+	}
+}
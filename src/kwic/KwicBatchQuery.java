@@ -0,0 +1,291 @@
+package kwic;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Batch query runner
+ * This class runs a list of keywords against a group of indexed files
+ * without the interactive prompts.  Keywords are read one per line, and
+ * the results are written through a single writer in one of three formats:
+ *   text   the same layout as the interactive results
+ *   tsv    one row per instance: keyword, file, line number, context
+ *   jsonl  one JSON object per keyword with the list of instances
+ *
+ * A keyword may also be a prefix, wildcard or fuzzy pattern (see
+ * KwicTermDictionary), which gives the instances of every matching
+ * keyword in keyword order, like the interactive results.
+ *
+ * Keywords are read in batches.  With more than one thread the lookups
+ * of a batch are split over a thread pool, each part builds its output
+ * in memory, and the parts are written in keyword order.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicBatchQuery {
+	// Define the number of keywords read before the lookups are run
+	private static final int BATCH_KEYWORDS = 4096;
+
+	// Define the supported output formats
+	protected static final String FORMAT_TEXT = "text";
+	protected static final String FORMAT_TSV = "tsv";
+	protected static final String FORMAT_JSONL = "jsonl";
+
+	// Group of files to search
+	private final KwicSearchGroup mSearchGroup;
+	// Output format
+	private final String mFormat;
+	// Number of threads running the lookups
+	private final int mThreadCount;
+	// Max number of instances written per keyword (from the group's options)
+	private final int mMaxKeyDisplay;
+
+	// Constructor
+	public KwicBatchQuery(KwicSearchGroup searchGroup, String format, int threadCount){
+		this.mSearchGroup = searchGroup;
+		this.mFormat = format;
+		this.mThreadCount = Math.max(1, threadCount);
+		this.mMaxKeyDisplay = searchGroup.getOptions().getMaxKeyDisplay();
+	}
+
+	// Method to check if an output format name is supported
+	protected static boolean isFormat(String format){
+		return FORMAT_TEXT.equals(format) || FORMAT_TSV.equals(format) || FORMAT_JSONL.equals(format);
+	}
+
+	/*
+	 * Method to run every keyword of the input and write the results
+	 * Returns the number of keywords processed
+	 */
+	public long run(BufferedReader keywordIn, Writer resultOut) throws IOException {
+		List<String> keywords = new ArrayList<String>(BATCH_KEYWORDS);
+		ExecutorService queryPool = null;
+		String keyword;
+		long keywordCount = 0;
+
+		if (mThreadCount > 1){
+			queryPool = Executors.newFixedThreadPool(mThreadCount);
+		}
+
+		try {
+			while ((keyword = keywordIn.readLine()) != null){
+				keyword = keyword.trim();
+				if (keyword.isEmpty()){
+					continue;
+				}
+				keywords.add(keyword);
+
+				// Run the lookups once the batch is full
+				if (keywords.size() == BATCH_KEYWORDS){
+					runBatch(keywords, resultOut, queryPool);
+					keywordCount += keywords.size();
+					keywords.clear();
+				}
+			}
+			runBatch(keywords, resultOut, queryPool);
+			keywordCount += keywords.size();
+			resultOut.flush();
+		} finally {
+			if (queryPool != null){
+				queryPool.shutdownNow();
+			}
+		}
+		return keywordCount;
+	}
+
+	// Method to run the lookups of one batch and write them in order
+	private void runBatch(final List<String> keywords, Writer resultOut, ExecutorService queryPool) throws IOException {
+		StringBuilder results;
+
+		if (keywords.isEmpty()){
+			return;
+		}
+
+		// Without a pool, write each result as soon as it is ready
+		if (queryPool == null){
+			results = new StringBuilder(256);
+			for (String keyword : keywords){
+				appendResult(results, keyword);
+				resultOut.append(results);
+				results.setLength(0);
+			}
+			return;
+		}
+
+		// Split the batch into one part per thread
+		List<Future<StringBuilder>> parts = new ArrayList<Future<StringBuilder>>(mThreadCount);
+		int partSize = (keywords.size() + mThreadCount - 1) / mThreadCount;
+		for (int partStart = 0; partStart < keywords.size(); partStart += partSize){
+			final int start = partStart;
+			final int end = Math.min(keywords.size(), partStart + partSize);
+			parts.add(queryPool.submit(new Callable<StringBuilder>(){
+				@Override
+				public StringBuilder call(){
+					StringBuilder partResults = new StringBuilder(256 * (end - start));
+					for (int keywordInd = start; keywordInd < end; keywordInd++){
+						appendResult(partResults, keywords.get(keywordInd));
+					}
+					return partResults;
+				}
+			}));
+		}
+
+		// Write the parts in keyword order
+		try {
+			for (Future<StringBuilder> part : parts){
+				resultOut.append(part.get());
+			}
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Batch query was interrupted", e);
+		} catch (ExecutionException e){
+			throw new IOException("Batch query failed", e.getCause());
+		}
+	}
+
+	// Method to look up one keyword in every file and append its result, timed for the group query latencies
+	private void appendResult(StringBuilder results, String keyword){
+		long queryStart = System.nanoTime();
+		appendKeywordResult(results, keyword);
+		mSearchGroup.getQueryLatency().record(System.nanoTime() - queryStart);
+	}
+
+	// Method to look up one keyword (or pattern) in every file and append its result
+	private void appendKeywordResult(StringBuilder results, String keyword){
+		boolean isTagged = mSearchGroup.getKwickers().size() > 1;
+		boolean isPattern = KwicTermDictionary.isPatternQuery(keyword);
+		boolean isFound = false;
+		int shownCount = 0;
+		KeywordContainer keyContainer;
+		KeywordData wordData;
+
+		if (FORMAT_JSONL.equals(mFormat)){
+			results.append("{\"keyword\":");
+			appendJsonString(results, keyword);
+			results.append(",\"hits\":[");
+		}
+
+		for (KwicSearch kwicker : mSearchGroup.getKwickers()){
+			for (String term : kwicker.getQueryTerms(keyword)){
+				keyContainer = lookupFullKeyword(kwicker, term);
+				if (keyContainer == null){
+					continue;
+				}
+
+				for (int keywordInd = 0; keywordInd < keyContainer.getWordCount() && shownCount < mMaxKeyDisplay; keywordInd++){
+					wordData = keyContainer.getDetailList().get(keywordInd);
+
+					if (FORMAT_TSV.equals(mFormat)){
+						appendTsvField(results, keyword).append('\t');
+						appendTsvField(results, kwicker.getFileName()).append('\t');
+						results.append(wordData.getLineNubmer()).append('\t');
+						appendTsvField(results, kwicker.resolveContextStr(wordData)).append('\n');
+					} else if (FORMAT_JSONL.equals(mFormat)){
+						if (shownCount > 0){
+							results.append(',');
+						}
+						results.append("{\"file\":");
+						appendJsonString(results, kwicker.getFileName());
+						results.append(",\"line\":").append(wordData.getLineNubmer()).append(",\"context\":");
+						appendJsonString(results, kwicker.resolveContextStr(wordData));
+						results.append('}');
+					} else {
+						if (!isFound){
+							results.append(isPattern ? "The pattern \"" : "The keyword \"").append(keyword)
+									.append("\" was found in the following contexts:\n");
+						}
+						if (isTagged){
+							results.append(kwicker.getFileName()).append(": ");
+						}
+						kwicker.appendInstance(results, wordData).append('\n');
+					}
+					isFound = true;
+					shownCount++;
+				}
+			}
+		}
+
+		if (FORMAT_JSONL.equals(mFormat)){
+			results.append("],\"found\":").append(isFound).append("}\n");
+		} else if (FORMAT_TEXT.equals(mFormat)){
+			if (!isFound){
+				results.append(isPattern ? "Sorry, the pattern \"" : "Sorry, the keyword \"").append(keyword)
+						.append("\" was not found in the index\n");
+			}
+			results.append('\n');
+		}
+	}
+
+	/*
+	 * Method to look up a keyword in one file on the full index
+	 * The index is complete when a batch starts, but a lookup that finds a
+	 * damaged saved index file starts building it again in the background
+	 * (see KwicSearch.rebuildDamagedIndex), so wait for that and look again.
+	 */
+	private KeywordContainer lookupFullKeyword(KwicSearch kwicker, String keyword){
+		KeywordContainer keyContainer = kwicker.lookupKeyword(keyword);
+		if (!kwicker.isIndexDone()){
+			try {
+				mSearchGroup.awaitIndexDone();
+			} catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+				return keyContainer;
+			}
+			keyContainer = kwicker.lookupKeyword(keyword);
+		}
+		return keyContainer;
+	}
+
+	// Method to append a TSV field, tabs and line breaks become spaces
+	private static StringBuilder appendTsvField(StringBuilder results, String field){
+		char fieldChar;
+		for (int charInd = 0; charInd < field.length(); charInd++){
+			fieldChar = field.charAt(charInd);
+			results.append((fieldChar == '\t' || fieldChar == '\n' || fieldChar == '\r') ? ' ' : fieldChar);
+		}
+		return results;
+	}
+
+	// Method to append a quoted and escaped JSON string
+	protected static StringBuilder appendJsonString(StringBuilder results, String value){
+		char valueChar;
+		results.append('"');
+		for (int charInd = 0; charInd < value.length(); charInd++){
+			valueChar = value.charAt(charInd);
+			switch (valueChar){
+			case '"':
+				results.append("\\\"");
+				break;
+			case '\\':
+				results.append("\\\\");
+				break;
+			case '\n':
+				results.append("\\n");
+				break;
+			case '\r':
+				results.append("\\r");
+				break;
+			case '\t':
+				results.append("\\t");
+				break;
+			default:
+				if (valueChar < 0x20){
+					results.append(String.format("\\u%04x", (int) valueChar));
+				} else {
+					results.append(valueChar);
+				}
+			}
+		}
+		return results.append('"');
+	}
+}
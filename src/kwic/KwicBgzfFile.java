@@ -0,0 +1,331 @@
+package kwic;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Block gzip (BGZF) file
+ * A BGZF file, as written by bgzip, is a series of gzip members of at most
+ * 64KB of text each.  Every member header records its compressed size, so
+ * the block index (compressed and uncompressed offset of every block) is
+ * found by stepping from header to header, without inflating anything.
+ *
+ * With the block index the blocks can be inflated independently: reading
+ * the file in order inflates the next READ_AHEAD_BLOCKS blocks on the
+ * common fork-join pool while the current one is tokenized, and any byte
+ * of the text can be found by inflating just its block (see
+ * BgzfTextSource), so contexts are rebuilt without inflating the whole
+ * file.  The last few blocks used are kept inflated.
+ *
+ * The block index is only kept in memory, stepping through the headers
+ * is cheap next to inflating.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicBgzfFile {
+	// Define the number of blocks inflated ahead of the one being read
+	private static final int READ_AHEAD_BLOCKS = 2 * Runtime.getRuntime().availableProcessors() + 2;
+	// Define the number of inflated blocks kept (including the ones read ahead)
+	private static final int CACHED_BLOCKS = 2 * READ_AHEAD_BLOCKS + 8;
+	// Define the size of the fixed part of a member header and of the member trailer
+	private static final int HEADER_BYTES = 12;
+	private static final int TRAILER_BYTES = 8;
+
+	// File being read
+	private final FileChannel mChannel;
+	// Number of blocks, and their offsets in the file and in the text (one more entry than blocks)
+	private int mBlockCount;
+	private long[] mCompressedOffsets;
+	private long[] mTextOffsets;
+	// Offset of the deflate data within each block
+	private int[] mDataStarts;
+
+	// Inflated (or inflating) blocks, least recently used first
+	private final Map<Integer, Future<byte[]>> mBlocks = new LinkedHashMap<Integer, Future<byte[]>>(16, 0.75f, true){
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Future<byte[]>> eldest){
+			return size() > CACHED_BLOCKS;
+		}
+	};
+
+	// Constructor is private, use open to read the block index
+	private KwicBgzfFile(FileChannel channel){
+		this.mChannel = channel;
+	}
+
+	/*
+	 * Method to open a BGZF file and read its block index
+	 * Throws an IOException if a member is not a BGZF block.
+	 */
+	protected static KwicBgzfFile open(String fileName) throws IOException {
+		KwicBgzfFile bgzfFile = new KwicBgzfFile(FileChannel.open(Paths.get(fileName), StandardOpenOption.READ));
+		try {
+			bgzfFile.readBlockIndex();
+		} catch (IOException e){
+			bgzfFile.close();
+			throw e;
+		}
+		return bgzfFile;
+	}
+
+	// Method to check if a gzip member header (at least HEADER_BYTES + its extra field) is a BGZF block header
+	protected static boolean isBgzfHeader(ByteBuffer header){
+		return findBlockSize(header) >= 0;
+	}
+
+	/*
+	 * Method to find the compressed block size in a member header
+	 * Returns -1 if the header has no BGZF ("BC") extra subfield.
+	 */
+	private static int findBlockSize(ByteBuffer header){
+		ByteBuffer le = header.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+		int start = le.position();
+		int extraLength, fieldPos, fieldEnd, fieldLength;
+
+		if (le.remaining() < HEADER_BYTES || (le.get(start) & 0xFF) != 0x1F || (le.get(start + 1) & 0xFF) != 0x8B
+				|| le.get(start + 2) != 8 || (le.get(start + 3) & 0x04) == 0){
+			return -1;
+		}
+		extraLength = le.getShort(start + 10) & 0xFFFF;
+		fieldEnd = Math.min(start + HEADER_BYTES + extraLength, le.limit());
+		for (fieldPos = start + HEADER_BYTES; fieldPos + 4 <= fieldEnd; fieldPos += 4 + fieldLength){
+			fieldLength = le.getShort(fieldPos + 2) & 0xFFFF;
+			if (le.get(fieldPos) == 'B' && le.get(fieldPos + 1) == 'C' && fieldLength == 2 && fieldPos + 6 <= fieldEnd){
+				return (le.getShort(fieldPos + 4) & 0xFFFF) + 1;
+			}
+		}
+		return -1;
+	}
+
+	// Method to step through the member headers and record the offsets of every block
+	private void readBlockIndex() throws IOException {
+		long fileSize = mChannel.size();
+		long compressedOffset = 0, textOffset = 0;
+		int capacity = 1024, blockSize, textSize;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES + 256);
+		ByteBuffer trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+
+		mCompressedOffsets = new long[capacity + 1];
+		mTextOffsets = new long[capacity + 1];
+		mDataStarts = new int[capacity];
+		mBlockCount = 0;
+
+		while (compressedOffset < fileSize){
+			header.clear();
+			readFully(header, compressedOffset);
+			header.flip();
+			blockSize = findBlockSize(header);
+			if (blockSize < HEADER_BYTES + TRAILER_BYTES || compressedOffset + blockSize > fileSize){
+				throw new IOException("Not a block gzip (BGZF) member at offset " + compressedOffset);
+			}
+
+			// The uncompressed size is the last field of the member
+			trailer.clear();
+			readFully(trailer, compressedOffset + blockSize - 4);
+			textSize = trailer.getInt(0);
+
+			if (mBlockCount == capacity){
+				capacity *= 2;
+				mCompressedOffsets = Arrays.copyOf(mCompressedOffsets, capacity + 1);
+				mTextOffsets = Arrays.copyOf(mTextOffsets, capacity + 1);
+				mDataStarts = Arrays.copyOf(mDataStarts, capacity);
+			}
+			mCompressedOffsets[mBlockCount] = compressedOffset;
+			mTextOffsets[mBlockCount] = textOffset;
+			mDataStarts[mBlockCount] = HEADER_BYTES + ((header.get(10) & 0xFF) | (header.get(11) & 0xFF) << 8);
+			mBlockCount++;
+
+			compressedOffset += blockSize;
+			textOffset += textSize;
+		}
+		mCompressedOffsets[mBlockCount] = compressedOffset;
+		mTextOffsets[mBlockCount] = textOffset;
+	}
+
+	// Method to fill a buffer from a file offset (it may stop short at the end of the file)
+	private void readFully(ByteBuffer buffer, long offset) throws IOException {
+		int readCount;
+		while (buffer.hasRemaining() && (readCount = mChannel.read(buffer, offset)) > 0){
+			offset += readCount;
+		}
+	}
+
+	// Method to inflate one block (run on the pool)
+	private byte[] inflateBlock(int blockInd) throws IOException {
+		int blockSize = (int) (mCompressedOffsets[blockInd + 1] - mCompressedOffsets[blockInd]);
+		int textSize = (int) (mTextOffsets[blockInd + 1] - mTextOffsets[blockInd]);
+		ByteBuffer compressed = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+		byte[] text = new byte[textSize];
+		Inflater inflater = new Inflater(true);
+		CRC32 checksum = new CRC32();
+
+		readFully(compressed, mCompressedOffsets[blockInd]);
+		try {
+			inflater.setInput(compressed.array(), mDataStarts[blockInd], blockSize - mDataStarts[blockInd] - TRAILER_BYTES);
+			if (inflater.inflate(text) != textSize){
+				throw new IOException("Block gzip (BGZF) block " + blockInd + " is shorter than its recorded size");
+			}
+		} catch (DataFormatException e){
+			throw new IOException("Block gzip (BGZF) block " + blockInd + " is corrupt", e);
+		} finally {
+			inflater.end();
+		}
+
+		checksum.update(text);
+		if ((int) checksum.getValue() != compressed.getInt(blockSize - TRAILER_BYTES)){
+			throw new IOException("Block gzip (BGZF) block " + blockInd + " fails its CRC check");
+		}
+		return text;
+	}
+
+	/*
+	 * Method to get the text of one block
+	 * The blocks after it are started on the pool too, so reading the
+	 * blocks in order finds them inflated already.
+	 */
+	protected byte[] getBlock(int blockInd) throws IOException {
+		Future<byte[]> block;
+
+		synchronized (mBlocks){
+			block = startBlock(blockInd);
+			for (int aheadInd = blockInd + 1; aheadInd <= blockInd + READ_AHEAD_BLOCKS && aheadInd < mBlockCount; aheadInd++){
+				startBlock(aheadInd);
+			}
+		}
+
+		try {
+			return block.get();
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while inflating a block", e);
+		} catch (ExecutionException e){
+			synchronized (mBlocks){
+				mBlocks.remove(blockInd);
+			}
+			// The pool wraps the IOException of inflateBlock in a RuntimeException
+			Throwable cause = e.getCause();
+			while (!(cause instanceof IOException) && cause.getCause() != null){
+				cause = cause.getCause();
+			}
+			throw (cause instanceof IOException) ? (IOException) cause : new IOException(cause);
+		}
+	}
+
+	// Method to start inflating a block unless it is inflated (or inflating) already, the caller holds the lock
+	private Future<byte[]> startBlock(final int blockInd){
+		Future<byte[]> block = mBlocks.get(blockInd);
+		if (block == null){
+			block = ForkJoinPool.commonPool().submit(new Callable<byte[]>(){
+				@Override
+				public byte[] call() throws IOException {
+					return inflateBlock(blockInd);
+				}
+			});
+			mBlocks.put(blockInd, block);
+		}
+		return block;
+	}
+
+	// Method to find the block holding a text offset
+	protected int findBlock(long textOffset){
+		int blockInd = Arrays.binarySearch(mTextOffsets, 0, mBlockCount + 1, textOffset);
+		if (blockInd < 0){
+			blockInd = -blockInd - 2;
+		}
+		// Skip empty blocks (such as the end of file block)
+		while (blockInd < mBlockCount - 1 && mTextOffsets[blockInd + 1] == textOffset){
+			blockInd++;
+		}
+		return Math.min(Math.max(0, blockInd), Math.max(0, mBlockCount - 1));
+	}
+
+	// Getter for the number of blocks
+	protected int getBlockCount(){
+		return mBlockCount;
+	}
+
+	// Getter for the text offset of a block (the text size for blockInd == getBlockCount())
+	protected long getTextOffset(int blockInd){
+		return mTextOffsets[blockInd];
+	}
+
+	// Getter for the size of the whole text
+	protected long getTextSize(){
+		return mTextOffsets[mBlockCount];
+	}
+
+	// Method to read the text in order, the blocks are inflated ahead in parallel
+	protected InputStream newInputStream(){
+		return new BlockInputStream();
+	}
+
+	// Method to close the file
+	protected void close() throws IOException {
+		mChannel.close();
+	}
+
+	// Input stream over the blocks in order
+	private class BlockInputStream extends InputStream {
+		// Current block, its number and the read position in it
+		private byte[] mBlock = new byte[0];
+		private int mBlockInd = -1;
+		private int mPos = 0;
+
+		// Method to move to the next block with text, returns false at the end
+		private boolean nextBlock() throws IOException {
+			while (mPos >= mBlock.length){
+				if (mBlockInd + 1 >= mBlockCount){
+					return false;
+				}
+				mBlock = getBlock(++mBlockInd);
+				mPos = 0;
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return nextBlock() ? mBlock[mPos++] & 0xFF : -1;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int copyLength;
+
+			if (length == 0){
+				return 0;
+			}
+			if (!nextBlock()){
+				return -1;
+			}
+			copyLength = Math.min(length, mBlock.length - mPos);
+			System.arraycopy(mBlock, mPos, buffer, offset, copyLength);
+			mPos += copyLength;
+			return copyLength;
+		}
+
+		@Override
+		public void close() throws IOException {
+			KwicBgzfFile.this.close();
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package kwic;
+
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Bloom filter over the keywords of a finished index
+ * Most queries are for keywords that are not in the file.  The filter
+ * answers "not there" for almost all of them (about 99%) from a few bits,
+ * before the keyword is looked up in the hash table, or searched for in
+ * the dictionary of a saved index file.  It never answers "not there" for
+ * a keyword that is in the index.
+ *
+ * It is a blocked filter: each keyword sets HASH_COUNT bits in one block
+ * of 512 bits (one cache line), so a check reads one cache line.  It
+ * takes about BITS_PER_KEY bits per keyword, small enough to stay in the
+ * cache, and is saved in the index file so it is not built again.
+ *
+ * The filter is only built once the index is finished, it is not updated.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicBloomFilter {
+	// Define the number of filter bits per keyword and of bits set per keyword
+	private static final int BITS_PER_KEY = 10;
+	private static final int HASH_COUNT = 7;
+	// Define the size of a block in longs (512 bits)
+	private static final int BLOCK_LONGS = 8;
+
+	// Filter bits, on the heap or in a mapped index file
+	private final LongBuffer mBits;
+	// Number of blocks
+	private final int mBlockCount;
+
+	// Constructor over filter bits
+	private KwicBloomFilter(LongBuffer bits, int blockCount){
+		this.mBits = bits;
+		this.mBlockCount = blockCount;
+	}
+
+	// Method to build the filter of every keyword of an index
+	protected static KwicBloomFilter build(KeywordIndex keywordIndex){
+		int termCount = keywordIndex.getTermCount();
+		int blockCount = (int) Math.max(1, ((long) termCount*BITS_PER_KEY + 511) / 512);
+		KwicBloomFilter filter = new KwicBloomFilter(LongBuffer.wrap(new long[blockCount*BLOCK_LONGS]), blockCount);
+
+		for (int termId = 0; termId < termCount; termId++){
+			filter.add(hashTerm(keywordIndex, termId));
+		}
+		return filter;
+	}
+
+	// Method to use filter bits written by write, the buffer starts at the first block
+	protected static KwicBloomFilter wrap(ByteBuffer buffer, int blockCount){
+		return new KwicBloomFilter(buffer.slice().asLongBuffer(), blockCount);
+	}
+
+	// Method to hash a keyword of an index (same value as hashKeyword)
+	private static long hashTerm(KeywordIndex keywordIndex, int termId){
+		long hash = 0xcbf29ce484222325L;
+		for (int charInd = 0; charInd < keywordIndex.getTermLength(termId); charInd++){
+			hash = (hash ^ keywordIndex.getTermChar(termId, charInd)) * 0x100000001b3L;
+		}
+		return mixHash(hash);
+	}
+
+	// Method to hash a keyword
+	private static long hashKeyword(CharSequence keyword){
+		long hash = 0xcbf29ce484222325L;
+		for (int charInd = 0; charInd < keyword.length(); charInd++){
+			hash = (hash ^ keyword.charAt(charInd)) * 0x100000001b3L;
+		}
+		return mixHash(hash);
+	}
+
+	// Method to spread the hash bits, the high half picks the block and the low half the bits
+	private static long mixHash(long hash){
+		hash ^= (hash >>> 33);
+		hash *= 0xff51afd7ed558ccdL;
+		hash ^= (hash >>> 33);
+		hash *= 0xc4ceb9fe1a85ec53L;
+		hash ^= (hash >>> 33);
+		return hash;
+	}
+
+	// Method to find the first long of the block of a hash
+	private int blockStart(long hash){
+		return (int) (((hash >>> 32) * mBlockCount) >>> 32) * BLOCK_LONGS;
+	}
+
+	// Method to set the bits of a keyword hash
+	private void add(long hash){
+		int blockStart = blockStart(hash);
+		int bitHash = (int) hash, bitStep = ((int) (hash >>> 17)) | 1;
+		int bitInd, wordInd;
+
+		for (int hashInd = 0; hashInd < HASH_COUNT; hashInd++){
+			// The top 9 bits give the bit in the block
+			bitInd = (bitHash + hashInd*bitStep) >>> 23;
+			wordInd = blockStart + (bitInd >>> 6);
+			// The shift only uses the low 6 bits of bitInd
+			mBits.put(wordInd, mBits.get(wordInd) | (1L << bitInd));
+		}
+	}
+
+	/*
+	 * Method to check if a lower case keyword may be in the index
+	 * Returns false only for keywords that are certainly not in it.
+	 */
+	protected boolean mayContain(CharSequence keyword){
+		long hash = hashKeyword(keyword);
+		int blockStart = blockStart(hash);
+		int bitHash = (int) hash, bitStep = ((int) (hash >>> 17)) | 1;
+		int bitInd;
+
+		for (int hashInd = 0; hashInd < HASH_COUNT; hashInd++){
+			bitInd = (bitHash + hashInd*bitStep) >>> 23;
+			if ((mBits.get(blockStart + (bitInd >>> 6)) & (1L << bitInd)) == 0){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Getter for the number of blocks
+	protected int getBlockCount(){
+		return mBlockCount;
+	}
+
+	// Getter for one long of the filter bits (for writing them out)
+	protected long getBits(int longInd){
+		return mBits.get(longInd);
+	}
+
+	// Getter for the number of longs of filter bits
+	protected int getLongCount(){
+		return mBlockCount*BLOCK_LONGS;
+	}
+
+	// Getter for the heap used by a filter that is not in a mapped file
+	protected long getAllocatedBytes(){
+		return mBits.isDirect() ? 0 : 8L*mBits.capacity();
+	}
+}
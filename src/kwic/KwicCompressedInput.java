@@ -0,0 +1,170 @@
+package kwic;
+
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compressed input files
+ * The format of a file is found from its first bytes (the magic number),
+ * not from its name, so a ".gz" file that is really plain text is still
+ * read as plain text and a gzip file without the extension is inflated.
+ *
+ * Plain gzip files (including several gzip members one after another, as
+ * made by concatenating .gz files) are inflated in order on the reading
+ * thread.  Block gzip (BGZF) files, as made by bgzip, are inflated block
+ * by block on the common pool ahead of the reader, and the text can be
+ * read at any offset by inflating just the block holding it, so they can
+ * also be kept as a text source (see KwicBgzfFile).
+ *
+ * Zstandard files are recognized, but the JDK has no decoder for them, so
+ * they are reported instead of being indexed as binary text.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicCompressedInput {
+	// Define the input formats
+	protected static final int FORMAT_PLAIN = 0;
+	protected static final int FORMAT_GZIP = 1;
+	protected static final int FORMAT_BGZF = 2;
+	protected static final int FORMAT_ZSTD = 3;
+	// Define the size of the input buffer of a plain gzip file
+	private static final int GZIP_BUFFER_SIZE = 1 << 16;
+	// Define the number of bytes read to find the format (a gzip header with a BGZF extra field)
+	private static final int MAGIC_PEEK_BYTES = 18;
+
+	// Constructor is private, this class only has static methods
+	private KwicCompressedInput(){
+	}
+
+	// Method to find the format of a file from its first bytes
+	protected static int detectFormat(String fileName) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(MAGIC_PEEK_BYTES);
+		FileChannel channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		try {
+			while (header.hasRemaining() && channel.read(header) > 0){
+				// Keep reading until the header is full or the file ends
+			}
+		} finally {
+			channel.close();
+		}
+		header.flip();
+
+		if (header.remaining() >= 2 && (header.get(0) & 0xFF) == 0x1F && (header.get(1) & 0xFF) == 0x8B){
+			return KwicBgzfFile.isBgzfHeader(header) ? FORMAT_BGZF : FORMAT_GZIP;
+		}
+		if (header.remaining() >= 4 && header.order(ByteOrder.LITTLE_ENDIAN).getInt(0) == 0xFD2FB528){
+			return FORMAT_ZSTD;
+		}
+		return FORMAT_PLAIN;
+	}
+
+	// Method to check if a file is compressed
+	protected static boolean isCompressed(String fileName) throws IOException {
+		return detectFormat(fileName) != FORMAT_PLAIN;
+	}
+
+	// Method to get the name of a format for messages
+	protected static String getFormatName(int format){
+		switch (format){
+		case FORMAT_GZIP:
+			return "gzip";
+		case FORMAT_BGZF:
+			return "block gzip (BGZF)";
+		case FORMAT_ZSTD:
+			return "Zstandard";
+		default:
+			return "plain text";
+		}
+	}
+
+	/*
+	 * Method to open the text of a file for reading in order
+	 * Throws an IOException for a format that can't be read.
+	 */
+	protected static ReadableByteChannel openChannel(String fileName) throws IOException {
+		switch (detectFormat(fileName)){
+		case FORMAT_GZIP:
+			InputStream fileStream = new FileInputStream(fileName);
+			try {
+				return Channels.newChannel(new GZIPInputStream(new BufferedInputStream(fileStream, GZIP_BUFFER_SIZE), GZIP_BUFFER_SIZE));
+			} catch (IOException e){
+				fileStream.close();
+				throw e;
+			}
+		case FORMAT_BGZF:
+			return Channels.newChannel(KwicBgzfFile.open(fileName).newInputStream());
+		case FORMAT_ZSTD:
+			throw new IOException("\"" + fileName + "\" is Zstandard compressed, which can't be read, decompress it first");
+		default:
+			return FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		}
+	}
+
+	/*
+	 * Method to open a file as a random access text source
+	 * Returns null for a plain gzip file, which can only be read in order.
+	 */
+	protected static KwicTextSource openTextSource(String fileName) throws IOException {
+		switch (detectFormat(fileName)){
+		case FORMAT_GZIP:
+			return null;
+		case FORMAT_BGZF:
+			return new BgzfTextSource(KwicBgzfFile.open(fileName));
+		case FORMAT_ZSTD:
+			throw new IOException("\"" + fileName + "\" is Zstandard compressed, which can't be read, decompress it first");
+		default:
+			return new MappedTextSource(fileName);
+		}
+	}
+
+	/*
+	 * Method to get the size of the text of a file (for progress)
+	 * This is exact for plain and BGZF files.  For plain gzip it is the
+	 * size recorded at the end of the file, which only covers the last
+	 * member (and wraps at 4GB), so when that is less than the compressed
+	 * size a typical text compression ratio is assumed instead.
+	 */
+	protected static long estimateSize(String fileName) throws IOException {
+		int format = detectFormat(fileName);
+		FileChannel channel;
+		ByteBuffer trailer;
+		long fileSize, textSize;
+
+		if (format == FORMAT_BGZF){
+			KwicBgzfFile bgzfFile = KwicBgzfFile.open(fileName);
+			try {
+				return bgzfFile.getTextSize();
+			} finally {
+				bgzfFile.close();
+			}
+		}
+
+		channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+		try {
+			fileSize = channel.size();
+			if (format != FORMAT_GZIP || fileSize < 4){
+				return fileSize;
+			}
+			trailer = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			while (trailer.hasRemaining() && channel.read(trailer, fileSize - 4 + trailer.position()) > 0){
+				// Keep reading until the trailer is full
+			}
+			textSize = trailer.getInt(0) & 0xFFFFFFFFL;
+			return (textSize >= fileSize) ? textSize : 4 * fileSize;
+		} finally {
+			channel.close();
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package kwic;
+
+import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keyword index that many threads can add to at once
+ * The keywords are split over STRIPE_COUNT stripes by their hash (see
+ * KeywordIndex.hashChars), and every stripe has its own lock, term table
+ * and instance store.  Threads adding different keywords mostly take
+ * different locks, so there is no lock over the whole index.
+ *
+ * Writers may add the lines of a file in any order.  Every instance comes
+ * with a sequence key (see sequenceKey) that gives its place in the file,
+ * and every keyword keeps its instances sorted on that key.  Once all of
+ * its slots are filled, an instance is only kept if it comes before the
+ * last one kept, which it then replaces.  So when all lines are added the
+ * index holds the first mMaxKeyCount instances of every keyword in file
+ * order, just like a KeywordIndex built from the lines in order, however
+ * the writers raced each other.
+ *
+ * The index is not queried directly.  The keywords changed since the last
+ * call are copied into a KeywordIndex with publishTo, which may be called
+ * while the writers are still adding.  It is given the sequence key up to
+ * which every line has been added, and only copies the instances before
+ * it, so a keyword shown with all of its slots filled is final.
+ *
+ * The occurrence counts are not kept by position, so they are copied as
+ * they are.  Until every line is added they may include occurrences after
+ * the sequence key given to publishTo, and run ahead of the instances
+ * copied (and so do the term statistics of the index, which are partial
+ * until then).
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicConcurrentIndex {
+	// Define the number of stripes (a power of two)
+	private static final int STRIPE_COUNT = 64;
+
+	// Number of instance slots per keyword
+	private final int mMaxKeyCount;
+	// Stripes of the index
+	private final Stripe[] mStripes;
+
+	// Constructor that sets the number of instance slots per keyword
+	protected KwicConcurrentIndex(int maxCount){
+		this.mMaxKeyCount = maxCount;
+		this.mStripes = new Stripe[STRIPE_COUNT];
+		for (int stripeInd = 0; stripeInd < STRIPE_COUNT; stripeInd++){
+			mStripes[stripeInd] = new Stripe(maxCount);
+		}
+	}
+
+	// Method to make the sequence key of an instance, from its line number and its start in the line
+	protected static long sequenceKey(int lineNum, int keyStart){
+		return ((long) lineNum << 32) | keyStart;
+	}
+
+	// Method to find the stripe of a keyword hash (the high bits, the low bits pick the table slot)
+	private Stripe getStripe(int hash){
+		return mStripes[(hash >>> 26) & (STRIPE_COUNT - 1)];
+	}
+
+	/*
+	 * Method to count one occurrence of a lower case keyword
+	 * The hash has to be KeywordIndex.hashChars of the keyword.  Returns
+	 * true if an instance at seqKey would be kept right now, so the caller
+	 * only builds the instance for those (addInstance checks again).
+	 */
+	protected boolean countOccurrence(char[] chars, int length, int hash, long seqKey){
+		Stripe stripe = getStripe(hash);
+		int termId;
+
+		stripe.mLock.lock();
+		try {
+			termId = stripe.mTerms.findOrAdd(chars, 0, length, hash);
+			stripe.mTerms.countOccurrence(termId);
+			stripe.markChanged(termId);
+			return stripe.isKept(termId, seqKey);
+		} finally {
+			stripe.mLock.unlock();
+		}
+	}
+
+	/*
+	 * Method to add an instance of a keyword counted with countOccurrence
+	 * It is dropped if the keyword has mMaxKeyCount instances from before
+	 * seqKey by now.
+	 */
+	protected void addInstance(char[] chars, int length, int hash, long seqKey, KeywordData wordData){
+		Stripe stripe = getStripe(hash);
+
+		stripe.mLock.lock();
+		try {
+			stripe.addInstance(stripe.mTerms.findOrAdd(chars, 0, length, hash), seqKey, wordData);
+		} finally {
+			stripe.mLock.unlock();
+		}
+	}
+
+	/*
+	 * Method to copy the keywords changed since the last call into an index
+	 * Every line before seqLimit has to be added by now.  The index gets the
+	 * instances before seqLimit and the occurrence count of each keyword so
+	 * far (which may include later lines), in place of what it had.  A keyword that also has later instances is
+	 * copied again by the next call.  The caller has to hold the lock of the
+	 * index, the stripes are locked one at a time.
+	 */
+	protected void publishTo(KeywordIndex keywordIndex, long seqLimit){
+		for (Stripe stripe : mStripes){
+			stripe.mLock.lock();
+			try {
+				stripe.publishTo(keywordIndex, seqLimit);
+			} finally {
+				stripe.mLock.unlock();
+			}
+		}
+	}
+
+	/*
+	 * One stripe of the index
+	 * The term table is a KeywordIndex without instance slots, which holds
+	 * the keywords and their occurrence counts.  The instances and their
+	 * sequence keys are kept here, mMaxKeyCount slots per term id.
+	 */
+	private static class Stripe {
+		// Lock over everything in the stripe
+		private final ReentrantLock mLock = new ReentrantLock();
+		// Keywords and occurrence counts
+		private final KeywordIndex mTerms = new KeywordIndex(0);
+		// Number of instance slots per keyword
+		private final int mMaxKeyCount;
+
+		// Instance slots and their sequence keys, term id * mMaxKeyCount + instance number
+		private KeywordData[] mSlots;
+		private long[] mSeqKeys;
+		// Number of instances of every term id
+		private int[] mSlotCounts;
+
+		// Term ids changed since the last publish, and a flag per term id
+		private int[] mChangedIds;
+		private int mChangedCount = 0;
+		private boolean[] mIsChanged;
+
+		// Reusable buffer for the keyword characters when publishing
+		private char[] mTermBuffer = new char[64];
+
+		// Constructor
+		private Stripe(int maxCount){
+			this.mMaxKeyCount = maxCount;
+			this.mSlots = new KeywordData[16*maxCount];
+			this.mSeqKeys = new long[16*maxCount];
+			this.mSlotCounts = new int[16];
+			this.mChangedIds = new int[16];
+			this.mIsChanged = new boolean[16];
+		}
+
+		// Method to grow the per term arrays to hold a term id
+		private void ensureCapacity(int termId){
+			if (termId < mSlotCounts.length){
+				return;
+			}
+			int newCapacity = Math.max(2*mSlotCounts.length, termId + 1);
+			mSlots = Arrays.copyOf(mSlots, newCapacity*mMaxKeyCount);
+			mSeqKeys = Arrays.copyOf(mSeqKeys, newCapacity*mMaxKeyCount);
+			mSlotCounts = Arrays.copyOf(mSlotCounts, newCapacity);
+			mChangedIds = Arrays.copyOf(mChangedIds, newCapacity);
+			mIsChanged = Arrays.copyOf(mIsChanged, newCapacity);
+		}
+
+		// Method to note that a term id has to be published again
+		private void markChanged(int termId){
+			ensureCapacity(termId);
+			if (!mIsChanged[termId]){
+				mIsChanged[termId] = true;
+				mChangedIds[mChangedCount++] = termId;
+			}
+		}
+
+		// Check if an instance of a term id at seqKey would be kept
+		private boolean isKept(int termId, long seqKey){
+			int count = mSlotCounts[termId];
+			return count < mMaxKeyCount || (count > 0 && seqKey < mSeqKeys[termId*mMaxKeyCount + count - 1]);
+		}
+
+		// Method to add an instance in sequence key order, dropping the last one if the slots are full
+		private void addInstance(int termId, long seqKey, KeywordData wordData){
+			int baseInd = termId*mMaxKeyCount;
+			int count = mSlotCounts[termId];
+			int slotInd;
+
+			if (!isKept(termId, seqKey)){
+				return;
+			}
+			if (count == mMaxKeyCount){
+				count--;
+			}
+			// Shift the later instances up by one
+			for (slotInd = baseInd + count; slotInd > baseInd && mSeqKeys[slotInd - 1] > seqKey; slotInd--){
+				mSeqKeys[slotInd] = mSeqKeys[slotInd - 1];
+				mSlots[slotInd] = mSlots[slotInd - 1];
+			}
+			mSeqKeys[slotInd] = seqKey;
+			mSlots[slotInd] = wordData;
+			mSlotCounts[termId] = count + 1;
+			markChanged(termId);
+		}
+
+		// Method to copy the changed term ids into an index, with their instances before seqLimit
+		private void publishTo(KeywordIndex keywordIndex, long seqLimit){
+			int termId, termLength, targetId, baseInd, count, pendingCount = 0;
+			boolean isPending;
+
+			for (int changedInd = 0; changedInd < mChangedCount; changedInd++){
+				termId = mChangedIds[changedInd];
+				baseInd = termId*mMaxKeyCount;
+				count = 0;
+				while (count < mSlotCounts[termId] && mSeqKeys[baseInd + count] < seqLimit){
+					count++;
+				}
+
+				// Keep the term ids with later instances for the next call
+				isPending = count < mSlotCounts[termId];
+				if (isPending){
+					mChangedIds[pendingCount++] = termId;
+				} else {
+					mIsChanged[termId] = false;
+				}
+				// A keyword only seen after seqLimit so far isn't copied yet
+				if (isPending && count == 0){
+					continue;
+				}
+
+				termLength = mTerms.getTermLength(termId);
+				if (termLength > mTermBuffer.length){
+					mTermBuffer = new char[Math.max(2*mTermBuffer.length, termLength)];
+				}
+				for (int charInd = 0; charInd < termLength; charInd++){
+					mTermBuffer[charInd] = mTerms.getTermChar(termId, charInd);
+				}
+				targetId = keywordIndex.findOrAdd(mTermBuffer, 0, termLength);
+				keywordIndex.replaceTerm(targetId, mSlots, baseInd, count, mTerms.getTermFrequency(termId));
+			}
+			mChangedCount = pendingCount;
+		}
+	}
+}
@@ -2,19 +2,41 @@ package kwic;
 
 /**
  * This class holds the program constants
+ * The first few are only defaults, they can be changed at runtime
+ * (see KwicOptions).
  * 
  * @author Michael Chalson
  *
  */
 public final class KwicConstants {
-	// Define the max number of keyword instances we will hold onto
+	// Define the default max number of keyword instances we will hold onto
 	protected static final int MAX_KEY_COUNT = 10;
-	// Define the max number of keyword instances we will display
+	// Define the default max number of keyword instances we will display
 	protected static final int MAX_KEY_DISPLAY = 10;
-	// Define the number of leading and trailing characters that 
+	// Define the max number of keywords a pattern (prefix, wildcard or fuzzy) query matches
+	protected static final int MAX_PATTERN_TERMS = 100;
+	// Define the default number of leading and trailing characters that 
 	// make up the "context" of the keyword
 	protected static final int CONTEXT_SIZE = 30;
-	// Define the max number of lines to search, just to be safe
-	protected static final long MAX_TEXT_LINES = 10000000;
+	// Define the default max number of lines to search (0 for no limit)
+	protected static final long MAX_TEXT_LINES = 0;
+	// Define the number of lines handed off at once when indexing in parallel
+	protected static final int PARALLEL_CHUNK_LINES = 65536;
+	// Define the number of lines below which a parallel chunk is not split further
+	protected static final int PARALLEL_SPLIT_LINES = 4096;
+	// Define how often (in milliseconds) a followed file is checked for new data
+	protected static final long TAIL_POLL_MILLIS = 500;
+	// Define the size of the read buffer used when following a file
+	protected static final int TAIL_READ_BYTES = 1 << 20;
+	// Define the number of lines indexed between releases of the index lock
+	protected static final int INDEX_PUBLISH_LINES = 4096;
+	// Define the number of lines in a batch of the indexing pipeline (--pipeline option)
+	protected static final int PIPELINE_BATCH_LINES = 4096;
+	// Define the share of the max heap the kept instances may use (--all option)
+	protected static final double RETAIN_MEMORY_FRACTION = 0.5;
+	// Define the number of most frequent keywords shown from the menu
+	protected static final int TOP_TERM_COUNT = 20;
+	// Define the number of counters used to combine the keyword counts of several files
+	protected static final int TOP_TERMS_SKETCH_SIZE = 1 << 14;
 
 }
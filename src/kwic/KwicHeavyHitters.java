@@ -0,0 +1,187 @@
+package kwic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Heavy hitters sketch (Space-Saving)
+ * This finds the most frequent keywords of a stream with a fixed number
+ * of counters, for when there are too many distinct keywords to count
+ * them all (such as the keywords of many files together).  A keyword
+ * with a counter has it increased.  Otherwise, while there are free
+ * counters it gets one, and when they are all used it takes over the
+ * counter with the smallest count, keeping that count as its possible
+ * error.
+ *
+ * So a count is never too low, and is at most the smallest count too
+ * high, which is at most (total count / counters).  Every keyword that
+ * occurs more often than that has a counter.  While no counter has been
+ * taken over, every count is exact.  Weighted occurrences (a keyword and
+ * its count in one file) are added the same way.
+ *
+ * The counters are kept in a min-heap on their counts, so finding the
+ * smallest is O(1) and an update is O(log counters).
+ *
+ * This class is not thread safe.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicHeavyHitters {
+	// Number of counters
+	private final int mCapacity;
+	// Keyword, count and possible error of every counter
+	private final String[] mTerms;
+	private final long[] mCounts;
+	private final long[] mErrors;
+	// Min-heap of counters on their counts, and the heap index of every counter
+	private final int[] mHeap;
+	private final int[] mHeapPos;
+	// Number of counters used
+	private int mSize = 0;
+	// Counter of every keyword that has one
+	private final Map<String, Integer> mSlots;
+
+	// Total count of the stream
+	private long mTotalCount = 0;
+	// Flag for a counter taken over by another keyword (the counts are no longer exact)
+	private boolean mEvicted = false;
+
+	// Constructor that sets the number of counters
+	protected KwicHeavyHitters(int capacity){
+		this.mCapacity = Math.max(1, capacity);
+		this.mTerms = new String[mCapacity];
+		this.mCounts = new long[mCapacity];
+		this.mErrors = new long[mCapacity];
+		this.mHeap = new int[mCapacity];
+		this.mHeapPos = new int[mCapacity];
+		this.mSlots = new HashMap<String, Integer>(2*mCapacity);
+	}
+
+	// Method to add one occurrence of a keyword
+	protected void offer(String term){
+		offer(term, 1);
+	}
+
+	// Method to add a number of occurrences of a keyword
+	protected void offer(String term, long weight){
+		Integer slot;
+
+		if (weight <= 0){
+			return;
+		}
+		mTotalCount += weight;
+
+		slot = mSlots.get(term);
+		if (slot != null){
+			mCounts[slot] += weight;
+			siftDown(mHeapPos[slot]);
+		} else if (mSize < mCapacity){
+			// Use a free counter
+			slot = mSize;
+			mTerms[slot] = term;
+			mCounts[slot] = weight;
+			mErrors[slot] = 0;
+			mHeap[mSize] = slot;
+			mHeapPos[slot] = mSize;
+			mSize++;
+			mSlots.put(term, slot);
+			siftUp(mHeapPos[slot]);
+		} else {
+			// Take over the counter with the smallest count
+			slot = mHeap[0];
+			mSlots.remove(mTerms[slot]);
+			mTerms[slot] = term;
+			mErrors[slot] = mCounts[slot];
+			mCounts[slot] += weight;
+			mSlots.put(term, slot);
+			mEvicted = true;
+			siftDown(0);
+		}
+	}
+
+	// Method to move a heap entry up to its place
+	private void siftUp(int heapInd){
+		int parentInd;
+		while (heapInd > 0){
+			parentInd = (heapInd - 1) >>> 1;
+			if (mCounts[mHeap[heapInd]] >= mCounts[mHeap[parentInd]]){
+				break;
+			}
+			swap(heapInd, parentInd);
+			heapInd = parentInd;
+		}
+	}
+
+	// Method to move a heap entry down to its place
+	private void siftDown(int heapInd){
+		int childInd;
+		while ((childInd = 2*heapInd + 1) < mSize){
+			if (childInd + 1 < mSize && mCounts[mHeap[childInd + 1]] < mCounts[mHeap[childInd]]){
+				childInd++;
+			}
+			if (mCounts[mHeap[childInd]] >= mCounts[mHeap[heapInd]]){
+				break;
+			}
+			swap(heapInd, childInd);
+			heapInd = childInd;
+		}
+	}
+
+	// Method to swap two heap entries
+	private void swap(int heapIndA, int heapIndB){
+		int slot = mHeap[heapIndA];
+		mHeap[heapIndA] = mHeap[heapIndB];
+		mHeap[heapIndB] = slot;
+		mHeapPos[mHeap[heapIndA]] = heapIndA;
+		mHeapPos[mHeap[heapIndB]] = heapIndB;
+	}
+
+	// Method to get the most frequent keywords, most frequent first
+	protected List<KwicTermFrequency> getTopTerms(int topCount){
+		KwicTopTerms topTerms = new KwicTopTerms(topCount){
+			@Override
+			protected int compareIds(int slotA, int slotB){
+				return mTerms[slotA].compareTo(mTerms[slotB]);
+			}
+		};
+		List<KwicTermFrequency> termList = new ArrayList<KwicTermFrequency>();
+
+		for (int slot = 0; slot < mSize; slot++){
+			topTerms.offer(slot, mCounts[slot]);
+		}
+		for (int slot : topTerms.drainIds()){
+			termList.add(new KwicTermFrequency(mTerms[slot], mCounts[slot], mErrors[slot]));
+		}
+		return termList;
+	}
+
+	// Getter for the total count of the stream
+	protected long getTotalCount(){
+		return mTotalCount;
+	}
+
+	// Getter for the number of keywords with a counter (all distinct keywords while the counts are exact)
+	protected int getTermCount(){
+		return mSize;
+	}
+
+	// Method to count the keywords that occur once (only meaningful while the counts are exact)
+	protected long getSingleCount(){
+		long singleCount = 0;
+		for (int slot = 0; slot < mSize; slot++){
+			if (mCounts[slot] == 1){
+				singleCount++;
+			}
+		}
+		return singleCount;
+	}
+
+	// Check if every count is exact (no counter has been taken over)
+	protected boolean isExact(){
+		return !mEvicted;
+	}
+}
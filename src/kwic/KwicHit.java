@@ -0,0 +1,63 @@
+package kwic;
+
+/**
+ * One keyword instance found by a query (see KwicSearch.query)
+ * This is an immutable copy of the instance, so it can be kept and
+ * handed between threads after the query.  The context holds the
+ * keyword with the leading and trailing context characters the query
+ * asked for, with line breaks shown as single spaces.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public final class KwicHit {
+	// Line number of the instance (the first line is 1)
+	private final int mLineNumber;
+	// Offset of the keyword in the text source, -1 if only its context string is kept
+	private final long mTextOffset;
+	// Start and length of the keyword within the context
+	private final int mKeyStart;
+	private final int mKeyLength;
+	// Context string
+	private final String mContext;
+
+	// Constructor
+	protected KwicHit(int lineNumber, long textOffset, int keyStart, int keyLength, String context){
+		this.mLineNumber = lineNumber;
+		this.mTextOffset = textOffset;
+		this.mKeyStart = keyStart;
+		this.mKeyLength = keyLength;
+		this.mContext = context;
+	}
+
+	// Getter for the line number
+	public int getLineNumber(){
+		return mLineNumber;
+	}
+
+	// Getter for the offset of the keyword in the text (-1 if the index only keeps context strings)
+	public long getTextOffset(){
+		return mTextOffset;
+	}
+
+	// Getter for the start of the keyword within the context
+	public int getKeyStart(){
+		return mKeyStart;
+	}
+
+	// Getter for the length of the keyword (or phrase)
+	public int getKeyLength(){
+		return mKeyLength;
+	}
+
+	// Getter for the context string
+	public String getContext(){
+		return mContext;
+	}
+
+	@Override
+	public String toString(){
+		return mLineNumber + ":" + mContext;
+	}
+}
@@ -0,0 +1,15 @@
+package kwic;
+
+/**
+ * Callback for the instances of a query (see KwicSearch.forEachHit)
+ * The context is a view that is reused for the next instance, so it is
+ * only valid during the call.  Copy it (toString) to keep it.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public interface KwicHitVisitor {
+	// Called for each instance in order, returns false to stop the query
+	public boolean visitHit(int lineNumber, long textOffset, CharSequence context, int keyStart, int keyLength);
+}
@@ -0,0 +1,293 @@
+package kwic;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Local HTTP query server
+ * This class serves keyword queries on a group of indexed files over HTTP,
+ * so one warm index can be shared by other processes.  It uses the JDK's
+ * built-in server and only listens on the loopback address.
+ *
+ * Routes (all answers are JSON):
+ *   /search?keyword=K&limit=N&context=M&offset=O
+ *       instances of keyword K, at most N of them (default the maxKeyDisplay option),
+ *       with M leading and trailing characters (default the contextSize option),
+ *       skipping the first O instances (default 0) over all files.
+ *       K may be a prefix, wildcard or fuzzy pattern (see
+ *       KwicTermDictionary), then the instances of all matching keywords
+ *       are given in keyword order.  "total" is the number of instances
+ *       kept for K (all of them with the --all option)
+ *   /status   indexing progress of every file
+ *   /health   always {"status":"ok"} while the server is up
+ *
+ * Requests run on a virtual thread each when the JDK has them, otherwise
+ * on a fixed pool of platform threads.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicHttpServer {
+	// Define the largest number of instances a query may ask for
+	private static final int MAX_QUERY_LIMIT = 1000;
+	// Define the largest context size a query may ask for
+	private static final int MAX_QUERY_CONTEXT_SIZE = 1000;
+	// Define the number of request threads when there are no virtual threads
+	private static final int REQUEST_THREADS = 4 * Runtime.getRuntime().availableProcessors();
+	// Define the number of connections allowed to wait for the server
+	private static final int SERVER_BACKLOG = 256;
+	// Define the JDK server setting that turns off Nagle's algorithm
+	private static final String NODELAY_PROPERTY = "sun.net.httpserver.nodelay";
+
+	// Group of files to search
+	private final KwicSearchGroup mSearchGroup;
+	// JDK HTTP server and the executor running its requests
+	private HttpServer mServer;
+	private ExecutorService mRequestExecutor;
+	// Released when the server is stopped
+	private final CountDownLatch mStopLatch = new CountDownLatch(1);
+
+	// Constructor
+	public KwicHttpServer(KwicSearchGroup searchGroup){
+		this.mSearchGroup = searchGroup;
+	}
+
+	/*
+	 * Method to start serving on a local port
+	 * Port 0 picks a free port.  Returns the port the server listens on.
+	 */
+	public int start(int port) throws IOException {
+		/*
+		 * The JDK server writes the headers and the body separately, and with
+		 * Nagle's algorithm on every answer waits for a delayed ACK (~40ms).
+		 * The setting is read once, when the first server is created.
+		 */
+		if (System.getProperty(NODELAY_PROPERTY) == null){
+			System.setProperty(NODELAY_PROPERTY, "true");
+		}
+
+		mServer = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), SERVER_BACKLOG);
+		mServer.createContext("/search", new SearchHandler());
+		mServer.createContext("/status", new StatusHandler());
+		mServer.createContext("/health", new HealthHandler());
+
+		mRequestExecutor = createRequestExecutor();
+		mServer.setExecutor(mRequestExecutor);
+		mServer.start();
+		return mServer.getAddress().getPort();
+	}
+
+	// Method to stop the server
+	public void stop(){
+		if (mServer != null){
+			mServer.stop(0);
+			mRequestExecutor.shutdownNow();
+		}
+		mStopLatch.countDown();
+	}
+
+	// Method to block until the server is stopped
+	public void awaitStop() throws InterruptedException {
+		mStopLatch.await();
+	}
+
+	/*
+	 * Method to create the executor for the requests
+	 * Virtual threads are looked up by reflection so the program still
+	 * builds and runs on JDKs without them.
+	 */
+	private static ExecutorService createRequestExecutor(){
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e){
+			// No virtual threads, fall back to a fixed pool
+		}
+		return Executors.newFixedThreadPool(REQUEST_THREADS, new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable task){
+				Thread thread = new Thread(task, "kwic-http");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	// Handler for keyword queries
+	private class SearchHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			Map<String,String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+			String keyword = params.get("keyword");
+			int limit, contextSize, offset;
+
+			if (keyword == null || keyword.isEmpty()){
+				sendJson(exchange, 400, new StringBuilder("{\"error\":\"missing keyword parameter\"}"));
+				return;
+			}
+			try {
+				limit = parseBounded(params.get("limit"), mSearchGroup.getOptions().getMaxKeyDisplay(), 0, MAX_QUERY_LIMIT);
+				contextSize = parseBounded(params.get("context"), mSearchGroup.getOptions().getContextSize(), 0, MAX_QUERY_CONTEXT_SIZE);
+				offset = parseBounded(params.get("offset"), 0, 0, Integer.MAX_VALUE);
+			} catch (NumberFormatException e){
+				sendJson(exchange, 400, new StringBuilder("{\"error\":\"limit, context and offset must be numbers\"}"));
+				return;
+			}
+
+			// Time the lookup for the group query latencies (sending the response is not counted)
+			long queryStart = System.nanoTime();
+			StringBuilder result = appendSearchResult(new StringBuilder(256), keyword, offset, limit, contextSize);
+			mSearchGroup.getQueryLatency().record(System.nanoTime() - queryStart);
+			sendJson(exchange, 200, result);
+		}
+	}
+
+	// Handler for the indexing progress
+	private class StatusHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			StringBuilder status = new StringBuilder(256);
+			int doneCount = 0, fileCount = 0;
+
+			status.append("{\"files\":[");
+			for (KwicSearch kwicker : mSearchGroup.getKwickers()){
+				if (fileCount++ > 0){
+					status.append(',');
+				}
+				status.append("{\"file\":");
+				KwicBatchQuery.appendJsonString(status, kwicker.getFileName());
+				status.append(",\"done\":").append(kwicker.isIndexDone());
+				status.append(",\"progress\":").append(kwicker.getIndexProgress()).append('}');
+				if (kwicker.isIndexDone()){
+					doneCount++;
+				}
+			}
+			status.append("],\"fileCount\":").append(fileCount);
+			status.append(",\"doneCount\":").append(doneCount);
+			status.append(",\"done\":").append(doneCount == fileCount).append('}');
+
+			sendJson(exchange, 200, status);
+		}
+	}
+
+	// Handler for the health check
+	private class HealthHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			sendJson(exchange, 200, new StringBuilder("{\"status\":\"ok\"}"));
+		}
+	}
+
+	// Method to look up a page of a keyword's (or pattern's) instances in every file and append the JSON result
+	private StringBuilder appendSearchResult(StringBuilder result, String keyword, int offset, int limit, int contextSize){
+		boolean isPartial = false, isFound = false;
+		int shownCount = 0, skipCount = offset;
+		long totalCount = 0;
+		KeywordContainer keyContainer;
+		KeywordData wordData;
+
+		result.append("{\"keyword\":");
+		KwicBatchQuery.appendJsonString(result, keyword);
+		result.append(",\"hits\":[");
+
+		for (KwicSearch kwicker : mSearchGroup.getKwickers()){
+			// Check the status before the lookup, the index may finish in between
+			if (!kwicker.isIndexDone()){
+				isPartial = true;
+			}
+			for (String term : kwicker.getQueryTerms(keyword)){
+				keyContainer = kwicker.lookupKeywordPage(term, skipCount, limit - shownCount);
+				if (keyContainer == null){
+					continue;
+				}
+				isFound = true;
+				totalCount += keyContainer.getWordCount();
+				skipCount = Math.max(0, skipCount - keyContainer.getWordCount());
+
+				for (int keywordInd = 0; keywordInd < keyContainer.getDetailList().size(); keywordInd++){
+					wordData = keyContainer.getDetailList().get(keywordInd);
+					if (shownCount++ > 0){
+						result.append(',');
+					}
+					result.append("{\"file\":");
+					KwicBatchQuery.appendJsonString(result, kwicker.getFileName());
+					result.append(",\"line\":").append(wordData.getLineNubmer()).append(",\"context\":");
+					KwicBatchQuery.appendJsonString(result, kwicker.resolveContextStr(wordData, contextSize));
+					result.append('}');
+				}
+			}
+			// and after it, a lookup can find a damaged saved index and start building it again
+			if (!kwicker.isIndexDone()){
+				isPartial = true;
+			}
+		}
+
+		result.append("],\"found\":").append(isFound);
+		result.append(",\"total\":").append(totalCount);
+		return result.append(",\"partial\":").append(isPartial).append('}');
+	}
+
+	// Method to split a raw query string into decoded parameters
+	private static Map<String,String> parseQuery(String rawQuery) throws UnsupportedEncodingException {
+		Map<String,String> params = new HashMap<String,String>();
+		int split;
+
+		if (rawQuery == null){
+			return params;
+		}
+		for (String pair : rawQuery.split("&")){
+			split = pair.indexOf('=');
+			if (split > 0){
+				params.put(URLDecoder.decode(pair.substring(0, split), "UTF-8"),
+						URLDecoder.decode(pair.substring(split + 1), "UTF-8"));
+			}
+		}
+		return params;
+	}
+
+	// Method to parse a number parameter and keep it in range
+	private static int parseBounded(String value, int defaultValue, int min, int max){
+		if (value == null || value.isEmpty()){
+			return defaultValue;
+		}
+		return Math.max(min, Math.min(max, Integer.parseInt(value)));
+	}
+
+	// Method to send a JSON answer and close the exchange
+	private static void sendJson(HttpExchange exchange, int statusCode, StringBuilder json) throws IOException {
+		byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+		OutputStream bodyOut = null;
+
+		try {
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			exchange.sendResponseHeaders(statusCode, body.length);
+			bodyOut = exchange.getResponseBody();
+			bodyOut.write(body);
+		} finally {
+			if (bodyOut != null){
+				bodyOut.close();
+			}
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,499 @@
+package kwic;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Saved index file
+ * This class writes a finished keyword index to a compact binary file and
+ * reads it back through a memory map, so a later run on the same text file
+ * can answer queries without parsing the text file again.
+ *
+ * File layout (all numbers big-endian):
+ *   Header (HEADER_SIZE bytes)
+ *     magic, version, source file size and modified time, MAX_KEY_COUNT,
+ *     CONTEXT_SIZE, term count, text key (charset and word mode, 0 for the
+ *     defaults), section offsets, a CRC32 of everything after the instance
+ *     records, the number of keyword occurrences, the size of the Bloom
+ *     filter in blocks, a CRC32 of the header itself (taken with this field
+ *     0) and the line limit the index was built with (0 for none)
+ *   Instance records, grouped by keyword in dictionary order
+ *     line number (int), context length (int), context (UTF-8 bytes)
+ *   Dictionary entries, sorted by keyword (TERM_ENTRY_SIZE bytes each)
+ *     keyword offset (int), keyword length (int), word count (int),
+ *     offset of first instance record (long), occurrences (long),
+ *     CRC32 of the keyword's instance records (int)
+ *   Keyword bytes (UTF-8), back to back
+ *   Bloom filter of the keywords (see KwicBloomFilter), 8-byte aligned
+ *
+ * The file is only used when the source file still has the same size and
+ * modified time and the index constants, text key and line limit have not
+ * changed.  Otherwise the index is built from the text file again and the
+ * saved file is replaced.
+ * Saved files larger than 2GB are not supported.
+ *
+ * Opening a file only checks the header, the dictionary, the keyword bytes
+ * and the Bloom filter, which are small next to the instance records.  The
+ * records of a keyword are checked against their CRC32 each time they are
+ * read, so a damaged file is still never answered from.
+ *
+ * A keyword the Bloom filter rejects is not searched for in the
+ * dictionary, so most misses don't touch the mapped dictionary pages.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicIndexFile {
+	// Define the file name extension of saved index files
+	protected static final String FILE_EXTENSION = ".kwix";
+
+	// Define the file format markers
+	private static final int MAGIC = 0x4B574958; // "KWIX"
+	private static final int VERSION = 5;
+
+	// Define the sizes of the fixed parts of the file
+	private static final int HEADER_SIZE = 104;
+	private static final int TERM_ENTRY_SIZE = 32;
+
+	// Mapped index file
+	private MappedByteBuffer mBuffer;
+	// Number of keywords in the dictionary
+	private int mTermCount;
+	// Offsets of the dictionary entries and the keyword bytes
+	private int mTermEntriesOffset, mTermBytesOffset;
+	// Bloom filter of the keywords
+	private KwicBloomFilter mTermFilter;
+
+	// Constructor is private, use open to load a saved index file
+	private KwicIndexFile(MappedByteBuffer buffer){
+		this.mBuffer = buffer;
+	}
+
+	// Method to get the name of the saved index file for a text file
+	protected static String getIndexFileName(String sourceFileName){
+		return sourceFileName + FILE_EXTENSION;
+	}
+
+	/*
+	 * Method to write a finished keyword index to a file
+	 *
+	 * The file is written to a temporary file of its own next to its final
+	 * name first and then moved into place, so a reader never sees a partly
+	 * written file and two runs saving at once don't mix their writes.  The
+	 * temporary file is deleted if the save fails.
+	 */
+	protected static void write(KwicSearch kwicker, KeywordIndex keywordIndex, KwicBloomFilter termFilter,
+			String sourceFileName, int maxKeyCount, int contextSize, int textKey, long maxTextLines) throws IOException {
+		Path sourcePath = Paths.get(sourceFileName);
+		Path indexPath = Paths.get(getIndexFileName(sourceFileName));
+
+		int termCount = keywordIndex.getTermCount();
+
+		// Sort the term ids by the UTF-8 bytes of their keywords
+		final byte[][] termBytes = new byte[termCount][];
+		Integer[] sortedIds = new Integer[termCount];
+		for (int termId = 0; termId < termCount; termId++){
+			termBytes[termId] = keywordIndex.getTerm(termId).getBytes(StandardCharsets.UTF_8);
+			sortedIds[termId] = termId;
+		}
+		Arrays.sort(sortedIds, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b){
+				return compareBytes(termBytes[a], termBytes[b]);
+			}
+		});
+
+		long[] recordOffsets = new long[termCount];
+		int[] recordChecksums = new int[termCount];
+		long position = HEADER_SIZE;
+		long termEntriesOffset, termBytesOffset, termFilterOffset;
+		CRC32 recordChecksum = new CRC32();
+		CRC32 checksum = new CRC32();
+		boolean isMoved = false;
+
+		Path tempPath = Files.createTempFile(indexPath.toAbsolutePath().getParent(), indexPath.getFileName() + ".", ".tmp");
+		try {
+			FileOutputStream fileOut = new FileOutputStream(tempPath.toFile());
+			try {
+				// Reserve room for the header, it is written last
+				fileOut.write(new byte[HEADER_SIZE]);
+				BufferedOutputStream bufferedOut = new BufferedOutputStream(fileOut, 1 << 16);
+				DataOutputStream recordOut = new DataOutputStream(new CheckedOutputStream(bufferedOut, recordChecksum));
+				DataOutputStream bodyOut = new DataOutputStream(new CheckedOutputStream(bufferedOut, checksum));
+
+				// Write the instance records of every keyword
+				for (int sortInd = 0; sortInd < termCount; sortInd++){
+					int termId = sortedIds[sortInd];
+					recordOffsets[sortInd] = position;
+					recordChecksum.reset();
+					for (int detailInd = 0; detailInd < keywordIndex.getWordCount(termId); detailInd++){
+						KeywordData wordData = keywordIndex.getInstance(termId, detailInd);
+						byte[] context = kwicker.resolveContextStr(wordData).getBytes(StandardCharsets.UTF_8);
+						recordOut.writeInt(wordData.getLineNubmer());
+						recordOut.writeInt(context.length);
+						recordOut.write(context);
+						position += 8 + context.length;
+					}
+					recordChecksums[sortInd] = (int) recordChecksum.getValue();
+				}
+
+				// Write the dictionary entries
+				termEntriesOffset = position;
+				int keywordOffset = 0;
+				for (int sortInd = 0; sortInd < termCount; sortInd++){
+					int termId = sortedIds[sortInd];
+					bodyOut.writeInt(keywordOffset);
+					bodyOut.writeInt(termBytes[termId].length);
+					bodyOut.writeInt(keywordIndex.getWordCount(termId));
+					bodyOut.writeLong(recordOffsets[sortInd]);
+					bodyOut.writeLong(keywordIndex.getTermFrequency(termId));
+					bodyOut.writeInt(recordChecksums[sortInd]);
+					keywordOffset += termBytes[termId].length;
+				}
+				position += (long) termCount * TERM_ENTRY_SIZE;
+
+				// Write the keyword bytes
+				termBytesOffset = position;
+				for (int sortInd = 0; sortInd < termCount; sortInd++){
+					bodyOut.write(termBytes[sortedIds[sortInd]]);
+				}
+				position += keywordOffset;
+
+				// Write the Bloom filter, aligned to its longs
+				while (position % 8 != 0){
+					bodyOut.write(0);
+					position++;
+				}
+				termFilterOffset = position;
+				for (int longInd = 0; longInd < termFilter.getLongCount(); longInd++){
+					bodyOut.writeLong(termFilter.getBits(longInd));
+				}
+				position += 8L*termFilter.getLongCount();
+				bodyOut.flush();
+
+				if (position > Integer.MAX_VALUE){
+					throw new IOException("Index file would be larger than 2GB");
+				}
+
+				// Go back and fill in the header
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC);
+				header.putInt(VERSION);
+				header.putLong(Files.size(sourcePath));
+				header.putLong(Files.getLastModifiedTime(sourcePath).toMillis());
+				header.putInt(maxKeyCount);
+				header.putInt(contextSize);
+				header.putInt(termCount);
+				header.putInt(textKey);
+				header.putLong(termEntriesOffset);
+				header.putLong(termBytesOffset);
+				header.putLong(position);
+				header.putLong(checksum.getValue());
+				header.putLong(keywordIndex.getTokenCount());
+				header.putLong(termFilterOffset);
+				header.putInt(termFilter.getBlockCount());
+				header.putInt(0);
+				header.putLong(maxTextLines);
+				header.putInt(92, getHeaderChecksum(header));
+				header.position(HEADER_SIZE);
+				header.flip();
+				FileChannel channel = fileOut.getChannel();
+				while (header.hasRemaining()){
+					channel.write(header, header.position());
+				}
+			} finally {
+				fileOut.close();
+			}
+
+			// A temporary file is only readable by its owner, give it the permissions of the text file
+			if (tempPath.getFileSystem().supportedFileAttributeViews().contains("posix")){
+				Files.setPosixFilePermissions(tempPath, Files.getPosixFilePermissions(sourcePath));
+			}
+
+			// Move the finished file into place
+			Files.move(tempPath, indexPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			isMoved = true;
+		} finally {
+			if (!isMoved){
+				Files.deleteIfExists(tempPath);
+			}
+		}
+	}
+
+	/*
+	 * Method to open the saved index file of a text file
+	 * Returns null if there is no saved index file, or if it does not match
+	 * the current text file, index constants, text key and line limit
+	 */
+	protected static KwicIndexFile open(String sourceFileName, int maxKeyCount, int contextSize, int textKey,
+			long maxTextLines) throws IOException {
+		Path sourcePath = Paths.get(sourceFileName);
+		File indexFile = new File(getIndexFileName(sourceFileName));
+		MappedByteBuffer buffer;
+
+		if (!indexFile.isFile() || !indexFile.canRead() || indexFile.length() < HEADER_SIZE || indexFile.length() > Integer.MAX_VALUE){
+			return null;
+		}
+
+		// Map the whole file
+		FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ);
+		try {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			channel.close();
+		}
+
+		// Check the header against the text file and the index constants
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION
+				|| buffer.getLong(8) != Files.size(sourcePath)
+				|| buffer.getLong(16) != Files.getLastModifiedTime(sourcePath).toMillis()
+				|| buffer.getInt(24) != maxKeyCount || buffer.getInt(28) != contextSize
+				|| buffer.getInt(36) != textKey
+				|| buffer.getLong(96) != maxTextLines
+				|| buffer.getLong(56) != buffer.capacity()){
+			return null;
+		}
+
+		// Check the header and the sections after the instance records against their checksums
+		if (buffer.getInt(92) != getHeaderChecksum(buffer) || buffer.getLong(40) < HEADER_SIZE
+				|| buffer.getLong(40) > buffer.capacity()){
+			return null;
+		}
+		CRC32 checksum = new CRC32();
+		ByteBuffer body = buffer.duplicate();
+		body.position((int) buffer.getLong(40));
+		checksum.update(body);
+		if (checksum.getValue() != buffer.getLong(64)){
+			return null;
+		}
+
+		KwicIndexFile savedIndex = new KwicIndexFile(buffer);
+		savedIndex.mTermCount = buffer.getInt(32);
+		savedIndex.mTermEntriesOffset = (int) buffer.getLong(40);
+		savedIndex.mTermBytesOffset = (int) buffer.getLong(48);
+		ByteBuffer filterBits = buffer.duplicate();
+		filterBits.position((int) buffer.getLong(80));
+		savedIndex.mTermFilter = KwicBloomFilter.wrap(filterBits, buffer.getInt(88));
+		return savedIndex;
+	}
+
+	// Method to compare two byte arrays as unsigned bytes
+	private static int compareBytes(byte[] a, byte[] b){
+		int minLen = Math.min(a.length, b.length);
+		int diff;
+		for (int byteInd = 0; byteInd < minLen; byteInd++){
+			diff = (a[byteInd] & 0xFF) - (b[byteInd] & 0xFF);
+			if (diff != 0){
+				return diff;
+			}
+		}
+		return a.length - b.length;
+	}
+
+	// Method to compare a dictionary keyword with a keyword as unsigned bytes
+	private int compareTerm(int sortInd, byte[] keyword){
+		int entry = mTermEntriesOffset + sortInd*TERM_ENTRY_SIZE;
+		int start = mTermBytesOffset + mBuffer.getInt(entry);
+		int length = mBuffer.getInt(entry + 4);
+		int minLen = Math.min(length, keyword.length);
+		int diff;
+		for (int byteInd = 0; byteInd < minLen; byteInd++){
+			diff = (mBuffer.get(start + byteInd) & 0xFF) - (keyword[byteInd] & 0xFF);
+			if (diff != 0){
+				return diff;
+			}
+		}
+		return length - keyword.length;
+	}
+
+	/*
+	 * Method to find the first dictionary entry that is not before a keyword
+	 * Returns mTermCount if every entry is before it
+	 */
+	private int lowerBound(byte[] keyBytes){
+		int low = 0, high = mTermCount, mid;
+
+		// Binary search over the sorted dictionary
+		while (low < high){
+			mid = (low + high) >>> 1;
+			if (compareTerm(mid, keyBytes) < 0){
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	// Method to find the dictionary entry of a lower case keyword, returns -1 if it is not there
+	private int findTerm(String keyword){
+		if (!mTermFilter.mayContain(keyword)){
+			return -1;
+		}
+		byte[] keyBytes = keyword.getBytes(StandardCharsets.UTF_8);
+		int sortInd = lowerBound(keyBytes);
+		return (sortInd < mTermCount && compareTerm(sortInd, keyBytes) == 0) ? sortInd : -1;
+	}
+
+	/*
+	 * Method to find the instances of a lower case keyword
+	 * Returns null if the keyword is not in the dictionary
+	 */
+	protected KeywordContainer lookup(String keyword){
+		int sortInd = findTerm(keyword);
+		return (sortInd < 0) ? null : readInstances(sortInd);
+	}
+
+	// Method to check if a lower case keyword is in the dictionary
+	protected boolean contains(String keyword){
+		return findTerm(keyword) >= 0;
+	}
+
+	// Method to read the keyword of a dictionary entry
+	private String getTerm(int sortInd){
+		int entry = mTermEntriesOffset + sortInd*TERM_ENTRY_SIZE;
+		byte[] termBytes = new byte[mBuffer.getInt(entry + 4)];
+		ByteBuffer term = mBuffer.duplicate();
+		term.position(mTermBytesOffset + mBuffer.getInt(entry));
+		term.get(termBytes);
+		return new String(termBytes, StandardCharsets.UTF_8);
+	}
+
+	/*
+	 * Method to find the keywords matching a prefix or wildcard pattern
+	 * (see KwicTermDictionary), the dictionary here is already sorted
+	 * The matches are added to terms in sorted order, up to maxTerms of them.
+	 */
+	protected void matchPattern(String pattern, int maxTerms, List<String> terms){
+		String prefix = KwicTermDictionary.getLiteralPrefix(pattern);
+		String term;
+
+		for (int sortInd = lowerBound(prefix.getBytes(StandardCharsets.UTF_8)); sortInd < mTermCount && terms.size() < maxTerms; sortInd++){
+			term = getTerm(sortInd);
+			if (!term.startsWith(prefix)){
+				break;
+			}
+			if (KwicTermDictionary.matchesPattern(term, pattern)){
+				terms.add(term);
+			}
+		}
+	}
+
+	// Method to get the CRC32 of a header, taken with its own checksum field as 0
+	private static int getHeaderChecksum(ByteBuffer header){
+		CRC32 checksum = new CRC32();
+		ByteBuffer fields = header.duplicate();
+		fields.position(0).limit(92);
+		checksum.update(fields);
+		checksum.update(new byte[4]);
+		fields.limit(HEADER_SIZE).position(96);
+		checksum.update(fields);
+		return (int) checksum.getValue();
+	}
+
+	/*
+	 * Method to read the instance records of one dictionary entry
+	 * The records are checked against the CRC32 in the entry first.  A
+	 * mismatch throws an UncheckedIOException, since the lookups can't throw
+	 * an IOException.
+	 */
+	private KeywordContainer readInstances(int sortInd){
+		int entry = mTermEntriesOffset + sortInd*TERM_ENTRY_SIZE;
+		int wordCount = mBuffer.getInt(entry + 8);
+		int position = (int) mBuffer.getLong(entry + 12);
+		int lineNum, contextLen;
+		byte[] context;
+		KeywordContainer keyContainer = new KeywordContainer();
+		ByteBuffer records = mBuffer.duplicate();
+		CRC32 checksum = new CRC32();
+
+		keyContainer.setWordCount(wordCount);
+		try {
+			for (int detailInd = 0; detailInd < wordCount; detailInd++){
+				lineNum = mBuffer.getInt(position);
+				contextLen = mBuffer.getInt(position + 4);
+				context = new byte[contextLen];
+				records.limit(position + 8 + contextLen).position(position);
+				checksum.update(records.slice());
+				records.position(position + 8);
+				records.get(context);
+				keyContainer.getDetailList().add(new KeywordData(lineNum, new String(context, StandardCharsets.UTF_8)));
+				position += 8 + contextLen;
+			}
+		} catch (RuntimeException e) {
+			// A damaged length can point outside the file, or be negative
+			throw newDamagedError(sortInd);
+		}
+		if ((int) checksum.getValue() != mBuffer.getInt(entry + 28)){
+			throw newDamagedError(sortInd);
+		}
+		return keyContainer;
+	}
+
+	// Method to make the error for a dictionary entry whose records are damaged
+	private UncheckedIOException newDamagedError(int sortInd){
+		return new UncheckedIOException(new IOException("Saved index file is damaged at keyword \"" + getTerm(sortInd) + "\""));
+	}
+
+	// Method to read the number of occurrences of a dictionary entry
+	private long getTermFrequency(int sortInd){
+		return mBuffer.getLong(mTermEntriesOffset + sortInd*TERM_ENTRY_SIZE + 20);
+	}
+
+	// Method to get the term statistics with the topCount most frequent keywords (see KeywordIndex)
+	protected KwicTermStats getTermStats(int topCount){
+		KwicTopTerms topTerms = new KwicTopTerms(topCount){
+			@Override
+			protected int compareIds(int sortIndA, int sortIndB){
+				// The dictionary is sorted by keyword already
+				return sortIndA - sortIndB;
+			}
+		};
+		List<KwicTermFrequency> termList = new ArrayList<KwicTermFrequency>();
+		long singleCount = 0, frequency;
+
+		for (int sortInd = 0; sortInd < mTermCount; sortInd++){
+			frequency = getTermFrequency(sortInd);
+			if (frequency == 1){
+				singleCount++;
+			}
+			topTerms.offer(sortInd, frequency);
+		}
+		for (int sortInd : topTerms.drainIds()){
+			termList.add(new KwicTermFrequency(getTerm(sortInd), getTermFrequency(sortInd), 0));
+		}
+		return new KwicTermStats(mBuffer.getLong(72), mTermCount, singleCount, termList, true, false);
+	}
+
+	// Method to add every keyword and its number of occurrences to a heavy hitters sketch
+	protected void addTermFrequencies(KwicHeavyHitters sketch){
+		for (int sortInd = 0; sortInd < mTermCount; sortInd++){
+			sketch.offer(getTerm(sortInd), getTermFrequency(sortInd));
+		}
+	}
+
+	// getter for the number of keywords in the dictionary
+	protected int getTermCount(){
+		return mTermCount;
+	}
+}
@@ -0,0 +1,132 @@
+package kwic;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram
+ * This class counts latencies in buckets whose width grows with the
+ * latency: every power of two of nanoseconds is split into 2^SUB_BUCKET_BITS
+ * buckets, so a reported percentile is at most about 25% above the real
+ * value.  Recording is lock free and can be done from any thread.
+ *
+ * It is registered with JMX (see KwicLatencyHistogramMBean) by the search
+ * group for the queries that run over several files.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicLatencyHistogram implements KwicLatencyHistogramMBean {
+	// Define the number of buckets per power of two, as bits
+	private static final int SUB_BUCKET_BITS = 2;
+	// Define the largest power of two of nanoseconds with its own buckets (about 18 minutes)
+	private static final int MAX_EXPONENT = 40;
+	// Define the number of buckets
+	private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) << SUB_BUCKET_BITS;
+
+	// Number of latencies in each bucket
+	private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+	// Number and sum of all latencies, and the largest one
+	private final LongAdder mCount = new LongAdder();
+	private final LongAdder mTotalNanos = new LongAdder();
+	private final AtomicLong mMaxNanos = new AtomicLong();
+
+	// Basic Constructor
+	public KwicLatencyHistogram(){
+
+	}
+
+	// Method to get the bucket of a latency
+	private static int bucketOf(long nanos){
+		if (nanos < (1L << SUB_BUCKET_BITS)){
+			return (int) Math.max(0, nanos);
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+		int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+		return Math.min(BUCKET_COUNT - 1, ((exponent - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket);
+	}
+
+	// Method to get the largest latency that falls in a bucket
+	private static long bucketTop(int bucket){
+		if (bucket < (1 << SUB_BUCKET_BITS)){
+			return bucket;
+		}
+		int exponent = (bucket >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+		int subBucket = bucket & ((1 << SUB_BUCKET_BITS) - 1);
+		long width = 1L << (exponent - SUB_BUCKET_BITS);
+		return (((1L << SUB_BUCKET_BITS) + subBucket) * width) + width - 1;
+	}
+
+	// Method to record one latency in nanoseconds
+	protected void record(long nanos){
+		long maxNanos;
+
+		mBuckets.incrementAndGet(bucketOf(nanos));
+		mCount.increment();
+		mTotalNanos.add(nanos);
+		while (nanos > (maxNanos = mMaxNanos.get()) && !mMaxNanos.compareAndSet(maxNanos, nanos)){
+			// Another thread raised the max, check again
+		}
+	}
+
+	/*
+	 * Method to get a percentile (0 to 1) of the latencies in microseconds
+	 * The value is the top of the bucket holding the percentile, but never
+	 * more than the largest latency.
+	 */
+	public double getPercentileMicros(double percentile){
+		long count = mCount.sum();
+		long target = Math.max(1, (long) Math.ceil(percentile * count));
+		long seen = 0;
+
+		if (count == 0){
+			return 0;
+		}
+		for (int bucket = 0; bucket < BUCKET_COUNT; bucket++){
+			seen += mBuckets.get(bucket);
+			if (seen >= target){
+				return Math.min(bucketTop(bucket), mMaxNanos.get()) / 1e3;
+			}
+		}
+		return mMaxNanos.get() / 1e3;
+	}
+
+	@Override
+	public long getQueryCount(){
+		return mCount.sum();
+	}
+
+	@Override
+	public double getQueryMeanMicros(){
+		long count = mCount.sum();
+		return (count == 0) ? 0 : mTotalNanos.sum() / 1e3 / count;
+	}
+
+	@Override
+	public double getQueryP50Micros(){
+		return getPercentileMicros(0.50);
+	}
+
+	@Override
+	public double getQueryP99Micros(){
+		return getPercentileMicros(0.99);
+	}
+
+	@Override
+	public double getQueryP999Micros(){
+		return getPercentileMicros(0.999);
+	}
+
+	@Override
+	public double getQueryMaxMicros(){
+		return mMaxNanos.get() / 1e3;
+	}
+
+	// Method to format the query latencies for the metrics log line
+	protected String formatSummary(){
+		return String.format("queries=%d p50=%.0fus p99=%.0fus max=%.0fus",
+				getQueryCount(), getQueryP50Micros(), getQueryP99Micros(), getQueryMaxMicros());
+	}
+}
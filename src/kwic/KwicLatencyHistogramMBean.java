@@ -0,0 +1,29 @@
+package kwic;
+
+/**
+ * JMX view of a query latency histogram (see KwicLatencyHistogram)
+ * All latencies are in microseconds.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public interface KwicLatencyHistogramMBean {
+	// Number of queries recorded
+	public long getQueryCount();
+
+	// Mean query latency
+	public double getQueryMeanMicros();
+
+	// Median query latency
+	public double getQueryP50Micros();
+
+	// 99th percentile query latency
+	public double getQueryP99Micros();
+
+	// 99.9th percentile query latency
+	public double getQueryP999Micros();
+
+	// Largest query latency
+	public double getQueryMaxMicros();
+}
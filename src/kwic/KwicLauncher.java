@@ -1,9 +1,20 @@
 package kwic;
 
 import java.util.List;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Locale;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
 
@@ -19,16 +30,30 @@ import java.util.Scanner;
  * and the leading and trailing M (30 by default) characters around the 
  * original keyword location.
  * 
- *  For now, this is implemented to only allow one file to be indexed
- *  and searched.  The implementation is easily extensible to allow
- *  the handling of multiple files.  The necessary changes are as follows:
- *  1) The control logic needs to allow the user to navigate back to 
- *  State 1 more than once
- *  2) The "chrome" method for state 2 has to display the available file
- *  indices and allow the user to choose which file to search
- *  3) Each new file should automatically spawn it's own worker thread to
- *  perform the indexing process, but Thread safety should definitely be
- *  checked before attempting to use this program on multiple files
+ *  Several files, or whole directory trees, can be given as arguments.
+ *  They are indexed together on a shared pool of worker threads (the
+ *  pool size is set with the "--threads" option) and every query runs
+ *  against all of them, with each instance tagged by its file name.
+ *  The control logic still only allows State 1 to be visited once, so
+ *  files can't be added after the first query.
+ *  
+ *  With the "--all" option every instance of every keyword is kept (up to
+ *  a memory budget) and the next page of the last query can be shown.
+ *  
+ *  The numbers N and M, the number of instances kept per keyword and the
+ *  line limit are runtime options (see KwicOptions), set by flags or a
+ *  properties file.  The context width can also be changed between queries.
+ *  
+ *  Files in other charsets are read with the "--charset" option (or by
+ *  their Byte Order Mark), and "--unicode" finds keywords in any script.
+ *  Gzip and block gzip (bgzip) files are read without decompressing them
+ *  to disk first.
+ *  
+ *  The most frequent keywords are counted while indexing, and can be
+ *  shown from the menu or printed without prompts with "--top N".
+ *  
+ *  With the "--metrics" option the indexing and query metrics of each file
+ *  are registered with JMX, and can be printed every few seconds.
  *  
  * @author Michael Chalson
  *
@@ -46,15 +71,80 @@ public class KwicLauncher {
 	// Flag to show input argument was given
 	private boolean mGivenInput = false;
 	
+	// Flag to build the index on a fork-join pool (--parallel option)
+	private boolean mParallelIndex = false;
+	
+	// Flag to build the index with a reader, tokenizer and indexer pipeline (--pipeline option)
+	private boolean mPipelinedIndex = false;
+	
+	// Flag to read the file through a memory map (--mmap option)
+	private boolean mMappedInput = false;
+	
+	// Flag to keep the lines in a shared text arena instead of a context per instance (--arena option)
+	private boolean mArenaContext = false;
+	
+	// Flag to tokenize with the original regex (--regex option)
+	private boolean mRegexTokenizer = false;
+	
+	// Charset of the files, null to detect it from the BOM (--charset option)
+	private String mCharsetName = null;
+	
+	// Locale of Unicode word mode, null for ASCII words (--unicode and --locale options)
+	private Locale mWordLocale = null;
+	
+	// Flag to save the index and reuse it on later runs (--cache option)
+	private boolean mPersistIndex = false;
+	
+	// Flag to keep indexing lines appended to the file (--tail option)
+	private boolean mTailMode = false;
+	
+	// Flag to keep keyword positions for phrase and NEAR queries (--positions option)
+	private boolean mPositionalIndex = false;
+	
+	// Flag to keep every keyword instance instead of the first few (--all option)
+	private boolean mRetainAll = false;
+	// Memory budget (in bytes) for the kept instances of each file, 0 for the default (--budget option)
+	private long mRetainBudgetBytes = 0;
+	
+	// Runtime limits and context size (--config, --max-count, --display, --context and --max-lines options)
+	private KwicOptions mOptions = new KwicOptions();
+	// Context width of the queries, starts at the context size option
+	private int mQueryContextSize = -1;
+	
+	// Last keyword queried and the number of its instances shown so far (for the next page)
+	private String mLastKeyword = null;
+	private int mLastOffset = 0;
+	
+	// Number of index worker threads shared by all files (--threads option)
+	private int mPoolSize = Runtime.getRuntime().availableProcessors();
+	
+	// Names of any further files or directories given as arguments
+	private List<String> mMoreFileNames = new ArrayList<String>();
+	
+	// Name of the keyword file to run without prompts, "-" for stdin (--batch option)
+	private String mBatchFileName = null;
+	// Output format of batch mode (--format option)
+	private String mBatchFormat = KwicBatchQuery.FORMAT_TEXT;
+	// Name of the batch result file, stdout if not set (--output option)
+	private String mBatchOutputName = null;
+	
+	// Local port of the HTTP query server, -1 for no server (--serve option)
+	private int mServerPort = -1;
+	
+	// Number of most frequent keywords to print without prompts, 0 for none (--top option)
+	private int mTopCount = 0;
+	
+	// Seconds between metrics log lines, 0 for JMX only and -1 for no metrics (--metrics option)
+	private int mMetricsSeconds = -1;
+	
 	// Create command line input scanner
 	Scanner mCmndIn = new Scanner(System.in);
 	
 	/*
 	 *  Define main search object holder
-	 *  Do this as a list because in the future we 
-	 *  may want to allow multiple files to be indexed at once
+	 *  The group holds a search object per indexed file
 	 */
-	List<KwicSearch> mKwickers = new ArrayList<KwicSearch>();
+	KwicSearchGroup mSearchGroup;
 
 	// Basic Constructor
 	public KwicLauncher(){
@@ -106,7 +196,7 @@ public class KwicLauncher {
 			}
 			else {
 				// Main file load prompt
-				System.out.format("%nUser Options:%n  0: Exit Program%n  [filename]: Create searchable index of specified file%n");
+				System.out.format("%nUser Options:%n  0: Exit Program%n  [filename]: Create searchable index of specified file (or directory)%n");
 				inputStr = mCmndIn.nextLine();
 				
 				// Cleanup File Name Input
@@ -179,20 +269,16 @@ public class KwicLauncher {
 	
 	// Implement the bells and whistles for UI in State 2: Keyword search
 	private int uiQueryStateChrome(int stateFlag){
-		/*
-		 * Define local KWIC search object
-		 * For now we will always assume we want the first
-		 * kwicker, even if several are available 
-		 */
-		KwicSearch localKwicker;
-		
 		// Define holder for user inputs
 		String inputStr;
 			
 		// Try catch for Scanner actions (mCmndIn)
 		try {
 			// Main keyword search prompt
-			System.out.format("%nUser Options:%n  0: Exit Program%n  [keyword]: Search for keyword in file index%n");
+			System.out.format("%nUser Options:%n  0: Exit Program%n  1: Show indexing progress%n"+
+								"  2: Show more instances of the last keyword%n  3: Change the context width (now %d)%n"+
+								"  4: Show the most frequent keywords%n"+
+								"  [keyword]: Search for keyword in file index%n", mQueryContextSize);
 			inputStr = mCmndIn.nextLine();
 			
 			// Check for exit
@@ -208,26 +294,26 @@ public class KwicLauncher {
 				} else {
 					System.out.format("%nGreat!  Glad you are sticking around%n");
 				}
-			} else {
-				/*
-				 * Grab the desired KWIC search object
-				 * For now we will always assume we want the first
-				 * kwicker, even if several are available 
-				 */
-				localKwicker = mKwickers.get(0);
-				
-				if (localKwicker != null){
-					// Check if index is complete yet
-					if (!localKwicker.isIndexDone()){ // Index not yet complete
-						System.out.format("%nOh, the file is still being indexed.  Please try again in a bit%n");
-					} else { // Index is complete, check for results
-						// TODO: Consider doing cleanup on input string
-						localKwicker.processQueryKeyword(inputStr);
-					}
+			} else if (inputStr.equals("1")){
+				mSearchGroup.printIndexProgress();
+			} else if (inputStr.equals("2")){
+				// Show the next page of the last keyword
+				if (mLastKeyword == null){
+					System.out.format("%nThere is no keyword to show more of yet%n");
 				} else {
-					System.out.format("%nHmm, that's weird. Couldn't find that search object%n");
+					mLastOffset += mOptions.getMaxKeyDisplay();
+					mSearchGroup.processQueryKeyword(mLastKeyword, mLastOffset, mOptions.getMaxKeyDisplay(), mQueryContextSize);
 				}
-				
+			} else if (inputStr.equals("3")){
+				uiContextSizeChrome();
+			} else if (inputStr.equals("4")){
+				mSearchGroup.printTopTerms(KwicConstants.TOP_TERM_COUNT);
+			} else {
+				// Check for results in all files, the index answers (partial results) while it is still being built
+				// TODO: Consider doing cleanup on input string
+				mSearchGroup.processQueryKeyword(inputStr, 0, mOptions.getMaxKeyDisplay(), mQueryContextSize);
+				mLastKeyword = inputStr;
+				mLastOffset = 0;
 			}
 			
 		} catch (NoSuchElementException e) {
@@ -244,6 +330,165 @@ public class KwicLauncher {
 	}
 	
 	
+	// Prompt for the context width of the following queries
+	private void uiContextSizeChrome(){
+		int contextSize;
+		
+		System.out.format("%nEnter the number of leading and trailing context characters:%n");
+		try {
+			contextSize = Integer.parseInt(mCmndIn.nextLine().trim());
+		} catch (NumberFormatException e){
+			System.out.format("%nThat is not a number, the context width stays at %d%n", mQueryContextSize);
+			return;
+		}
+		
+		mQueryContextSize = Math.max(0, contextSize);
+		System.out.format("%nThe context width is now %d%n", mQueryContextSize);
+		// Stored context strings can't grow, only offsets into a mapped file can
+		if (mQueryContextSize > mOptions.getContextSize() && !mSearchGroup.isContextResizable()){
+			System.out.format("Some files were indexed with stored contexts, they show at most %d characters"+
+								"%n(use the --mmap or --arena option, or a bigger --context, for wider contexts)%n", mOptions.getContextSize());
+		}
+	}
+	
+	// Method to create the search group and queue the files for indexing, returns the number of files
+	private int startSearchGroup(){
+		mQueryContextSize = mOptions.getContextSize();
+		mSearchGroup = new KwicSearchGroup(mPoolSize, mOptions);
+		mSearchGroup.setParallelIndex(mParallelIndex);
+		mSearchGroup.setPipelinedIndex(mPipelinedIndex);
+		mSearchGroup.setMappedInput(mMappedInput);
+		mSearchGroup.setArenaContext(mArenaContext);
+		mSearchGroup.setRegexTokenizer(mRegexTokenizer);
+		mSearchGroup.setCharset(mCharsetName);
+		mSearchGroup.setWordLocale(mWordLocale);
+		mSearchGroup.setPersistIndex(mPersistIndex);
+		mSearchGroup.setTailMode(mTailMode);
+		mSearchGroup.setPositionalIndex(mPositionalIndex);
+		mSearchGroup.setRetainAll(mRetainAll);
+		mSearchGroup.setRetainBudget(mRetainBudgetBytes);
+		if (mMetricsSeconds >= 0){
+			mSearchGroup.registerMetrics();
+			mSearchGroup.startMetricsLog(mMetricsSeconds);
+		}
+		
+		// Adding a file queues it for the index worker pool
+		int fileCount = mSearchGroup.addPath(mFileName);
+		for (String fileName : mMoreFileNames){
+			fileCount += mSearchGroup.addPath(fileName);
+		}
+		return fileCount;
+	}
+	
+	/*
+	 * Method to run a file of keywords without any prompts (batch mode)
+	 * The files are indexed first, then every keyword is looked up and the
+	 * results are written to the output file (or stdout) through one
+	 * buffered writer.  Status messages go to stderr so they don't mix
+	 * with the results.
+	 */
+	private void launchBatchControl(){
+		BufferedReader keywordIn = null;
+		Writer resultOut = null;
+		long startTime, keywordCount;
+		
+		if (mFileName == null || startSearchGroup() == 0){
+			System.err.format("%nThere were no files to index%n");
+			return;
+		}
+		
+		try {
+			mSearchGroup.awaitIndexDone();
+			
+			// Open the keyword input and the result output, both UTF-8 whatever the platform default
+			if (mBatchFileName.equals("-")){
+				keywordIn = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8), 1 << 16);
+			} else {
+				keywordIn = new BufferedReader(new InputStreamReader(new FileInputStream(mBatchFileName), StandardCharsets.UTF_8), 1 << 16);
+			}
+			if (mBatchOutputName == null){
+				resultOut = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16);
+			} else {
+				resultOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mBatchOutputName), StandardCharsets.UTF_8), 1 << 16);
+			}
+			
+			// Run the queries
+			startTime = System.nanoTime();
+			keywordCount = new KwicBatchQuery(mSearchGroup, mBatchFormat, mPoolSize).run(keywordIn, resultOut);
+			System.err.format("%d keywords in %.3f seconds%n", keywordCount, (System.nanoTime() - startTime) / 1e9);
+		} catch (IOException e){
+			e.printStackTrace();
+		} catch (InterruptedException e){
+			e.printStackTrace();
+		} finally {
+			try {
+				if (keywordIn != null){
+					keywordIn.close();
+				}
+				if (resultOut != null){
+					resultOut.close();
+				}
+			} catch (IOException e){
+				e.printStackTrace();
+			}
+			// Print the final metrics, the batch may end before the first log line
+			if (mMetricsSeconds > 0){
+				mSearchGroup.printMetrics();
+			}
+			mSearchGroup.shutdown();
+		}
+	}
+	
+	/*
+	 * Method to serve queries over HTTP without any prompts (server mode)
+	 * The server starts right away and answers from the partial index
+	 * while the files are being indexed.  It runs until the program is killed.
+	 */
+	private void launchServerControl(){
+		KwicHttpServer server;
+		int port;
+		
+		if (mFileName == null || startSearchGroup() == 0){
+			System.out.format("%nThere were no files to index%n");
+			return;
+		}
+		
+		try {
+			server = new KwicHttpServer(mSearchGroup);
+			port = server.start(mServerPort);
+			System.out.format("%nServing queries on http://localhost:%d/search?keyword=...%n", port);
+			server.awaitStop();
+		} catch (IOException e){
+			e.printStackTrace();
+		} catch (InterruptedException e){
+			e.printStackTrace();
+		}
+	}
+	
+	/*
+	 * Method to print the most frequent keywords without any prompts
+	 * The files are indexed first, the counts come from the index so the
+	 * files are only read once.
+	 */
+	private void launchTopTermsControl(){
+		if (mFileName == null || startSearchGroup() == 0){
+			System.out.format("%nThere were no files to index%n");
+			return;
+		}
+		
+		try {
+			mSearchGroup.awaitIndexDone();
+			mSearchGroup.printTopTerms(mTopCount);
+		} catch (InterruptedException e){
+			e.printStackTrace();
+		} finally {
+			if (mMetricsSeconds > 0){
+				mSearchGroup.printMetrics();
+			}
+			mSearchGroup.shutdown();
+		}
+	}
+	
 	// Method to Execute Main User Interface State Machine
 	private void launchMainControl(){
 		// Define state flag (Default to file input state)
@@ -270,10 +515,13 @@ public class KwicLauncher {
 		// -------- END STATE 1 --------  
 		
 		
-		// ----- Create new KWIC search object and start indexing a file ----
-		mKwickers.add(new KwicSearch(mFileName));
-		// Start Indexing process on newest search object
-		mKwickers.get(mKwickers.size()-1).startIndexWorker();
+		// ----- Create KWIC search objects and start indexing the files ----
+		int fileCount = startSearchGroup();
+		if (fileCount == 0){
+			System.out.format("%nThere were no files to index%n");
+		} else if (fileCount > 1){
+			System.out.format("%nIndexing %d files on %d threads%n", fileCount, mPoolSize);
+		}
 		
 		
 		// ---------- STATE 2 ----------
@@ -295,21 +543,206 @@ public class KwicLauncher {
 		mCmndIn.close();
 	}
 	
+	// Method to check if a charset name is known (a malformed name is not)
+	private static boolean isCharsetSupported(String charsetName){
+		try {
+			return Charset.isSupported(charsetName);
+		} catch (IllegalCharsetNameException e){
+			return false;
+		}
+	}
+	
 	/**
-	 * @param args
+	 * @param args file names or directory names (optional), and options:
+	 * 
+	 *  Indexing
+	 *   --parallel          build the index on all available processors
+	 *   --pipeline          read, tokenize and index on separate threads (wins over --parallel)
+	 *   --mmap              read an ASCII file through a memory map
+	 *   --arena             keep the lines once in a shared text arena
+	 *   --regex             find keywords with the original regex instead of the scanner
+	 *   --cache             save the index next to the file and reuse it on later runs
+	 *   --tail              keep indexing lines as they are appended to the file
+	 *   --threads N         number of index (and batch query) worker threads
+	 *   --positions         keep keyword positions, for phrase and NEAR queries
+	 *   --all               keep every instance of every keyword, so results can be paged
+	 *   --budget MB         memory budget of each file for --all
+	 * 
+	 *  Runtime options (later arguments win)
+	 *   --config FILE       read the options from a properties file
+	 *   --max-count N       instances kept per keyword
+	 *   --display N         instances shown per query
+	 *   --context N         characters of context on each side
+	 *   --max-lines N       lines indexed per file (0 for no limit)
+	 * 
+	 *  Text
+	 *   --charset NAME      charset of the files ("auto" uses the Byte Order Mark,
+	 *                       or else the platform default)
+	 *   --unicode           find keywords in any script
+	 *   --locale TAG        lower case keywords for this locale (implies --unicode)
+	 * 
+	 *  Running without prompts
+	 *   --batch FILE        run the keywords of FILE (UTF-8, "-" for stdin)
+	 *   --format FORMAT     batch result format, text, tsv or jsonl
+	 *   --output FILE       batch result file, written in UTF-8 (stdout if not given)
+	 *   --serve PORT        serve queries over HTTP on a local port
+	 *   --top N             print the N most frequent keywords once the files are indexed
+	 *   --metrics SECONDS   register metrics with JMX and print them to stderr
+	 *                       every SECONDS seconds (0 for JMX only)
+	 * 
+	 *  Gzip and block gzip files are inflated as they are read, whatever their name.
 	 */
 	public static void main(String[] args) {
 		KwicLauncher kwicker;
+		// Holder for the file name argument
+		String fileName = null;
+		List<String> moreFileNames = new ArrayList<String>();
+		int poolSize = 0, serverPort = -1, metricsSeconds = -1, topCount = 0;
+		long retainBudgetBytes = 0;
+		// Holder for the runtime options
+		KwicOptions options = new KwicOptions();
+		// Holders for the batch mode options
+		String batchFileName = null, batchFormat = KwicBatchQuery.FORMAT_TEXT, batchOutputName = null;
+		// Holders for the indexing options
+		boolean parallelIndex = false, pipelinedIndex = false, mappedInput = false, regexTokenizer = false, persistIndex = false;
+		boolean tailMode = false, positionalIndex = false, retainAll = false, arenaContext = false;
+		String charsetName = null;
+		Locale wordLocale = null;
+		
+		// Separate the options from the file name argument
+		for (int argInd = 0; argInd < args.length; argInd++){
+			String arg = args[argInd];
+			if (arg.equalsIgnoreCase("--threads") && argInd + 1 < args.length){
+				try {
+					poolSize = Integer.parseInt(args[++argInd]);
+				} catch (NumberFormatException e){
+					System.out.format("%nIgnoring bad thread count \"%s\"%n", args[argInd]);
+				}
+			} else if (arg.equalsIgnoreCase("--serve") && argInd + 1 < args.length){
+				try {
+					serverPort = Integer.parseInt(args[++argInd]);
+				} catch (NumberFormatException e){
+					System.out.format("%nIgnoring bad port \"%s\"%n", args[argInd]);
+				}
+			} else if (arg.equalsIgnoreCase("--metrics") && argInd + 1 < args.length){
+				try {
+					metricsSeconds = Math.max(0, Integer.parseInt(args[++argInd]));
+				} catch (NumberFormatException e){
+					System.out.format("%nIgnoring bad metrics period \"%s\"%n", args[argInd]);
+				}
+			} else if (arg.equalsIgnoreCase("--top") && argInd + 1 < args.length){
+				try {
+					topCount = Math.max(0, Integer.parseInt(args[++argInd]));
+				} catch (NumberFormatException e){
+					System.out.format("%nIgnoring bad keyword count \"%s\"%n", args[argInd]);
+				}
+			} else if (arg.equalsIgnoreCase("--charset") && argInd + 1 < args.length){
+				charsetName = args[++argInd];
+				if (!charsetName.equalsIgnoreCase(KwicLineReader.AUTO_CHARSET) && !isCharsetSupported(charsetName)){
+					System.out.format("%nIgnoring unknown charset \"%s\"%n", charsetName);
+					charsetName = null;
+				}
+			} else if (arg.equalsIgnoreCase("--locale") && argInd + 1 < args.length){
+				wordLocale = Locale.forLanguageTag(args[++argInd]);
+			} else if (arg.equalsIgnoreCase("--unicode")){
+				if (wordLocale == null){
+					wordLocale = Locale.ROOT;
+				}
+			} else if (arg.equalsIgnoreCase("--budget") && argInd + 1 < args.length){
+				try {
+					retainBudgetBytes = Long.parseLong(args[++argInd]) << 20;
+				} catch (NumberFormatException e){
+					System.out.format("%nIgnoring bad memory budget \"%s\"%n", args[argInd]);
+				}
+			} else if (arg.equalsIgnoreCase("--config") && argInd + 1 < args.length){
+				try {
+					options.load(args[++argInd]);
+				} catch (IOException e){
+					System.out.format("%nCould not read the options file \"%s\": %s%n", args[argInd], e.getMessage());
+				}
+			} else if (arg.equalsIgnoreCase("--max-count") && argInd + 1 < args.length){
+				options.set(KwicOptions.MAX_KEY_COUNT_PROPERTY, args[++argInd]);
+			} else if (arg.equalsIgnoreCase("--display") && argInd + 1 < args.length){
+				options.set(KwicOptions.MAX_KEY_DISPLAY_PROPERTY, args[++argInd]);
+			} else if (arg.equalsIgnoreCase("--context") && argInd + 1 < args.length){
+				options.set(KwicOptions.CONTEXT_SIZE_PROPERTY, args[++argInd]);
+			} else if (arg.equalsIgnoreCase("--max-lines") && argInd + 1 < args.length){
+				options.set(KwicOptions.MAX_TEXT_LINES_PROPERTY, args[++argInd]);
+			} else if (arg.equalsIgnoreCase("--batch") && argInd + 1 < args.length){
+				batchFileName = args[++argInd];
+			} else if (arg.equalsIgnoreCase("--format") && argInd + 1 < args.length){
+				batchFormat = args[++argInd].toLowerCase();
+				if (!KwicBatchQuery.isFormat(batchFormat)){
+					System.out.format("%nIgnoring unknown format \"%s\"%n", batchFormat);
+					batchFormat = KwicBatchQuery.FORMAT_TEXT;
+				}
+			} else if (arg.equalsIgnoreCase("--output") && argInd + 1 < args.length){
+				batchOutputName = args[++argInd];
+			} else if (arg.equalsIgnoreCase("--parallel")){
+				parallelIndex = true;
+			} else if (arg.equalsIgnoreCase("--pipeline")){
+				pipelinedIndex = true;
+			} else if (arg.equalsIgnoreCase("--mmap")){
+				mappedInput = true;
+			} else if (arg.equalsIgnoreCase("--arena")){
+				arenaContext = true;
+			} else if (arg.equalsIgnoreCase("--regex")){
+				regexTokenizer = true;
+			} else if (arg.equalsIgnoreCase("--cache")){
+				persistIndex = true;
+			} else if (arg.equalsIgnoreCase("--tail")){
+				tailMode = true;
+			} else if (arg.equalsIgnoreCase("--positions")){
+				positionalIndex = true;
+			} else if (arg.equalsIgnoreCase("--all")){
+				retainAll = true;
+			} else if (fileName == null){
+				fileName = arg;
+			} else {
+				moreFileNames.add(arg);
+			}
+		}
 		
 		// Create KWIC Object (with or without input argument)
-		if (args.length > 0){
-			kwicker = new KwicLauncher(args[0]);
+		if (fileName != null){
+			kwicker = new KwicLauncher(fileName);
 		} else {
 			kwicker = new KwicLauncher();
 		}
-					
-		// Launch User Interface
-		kwicker.launchMainControl();
+		kwicker.mParallelIndex = parallelIndex;
+		kwicker.mPipelinedIndex = pipelinedIndex;
+		kwicker.mMappedInput = mappedInput;
+		kwicker.mArenaContext = arenaContext;
+		kwicker.mRegexTokenizer = regexTokenizer;
+		kwicker.mCharsetName = charsetName;
+		kwicker.mWordLocale = wordLocale;
+		kwicker.mPersistIndex = persistIndex;
+		kwicker.mTailMode = tailMode;
+		kwicker.mPositionalIndex = positionalIndex;
+		kwicker.mRetainAll = retainAll;
+		kwicker.mRetainBudgetBytes = Math.max(0, retainBudgetBytes);
+		kwicker.mOptions = options;
+		kwicker.mMoreFileNames = moreFileNames;
+		if (poolSize > 0){
+			kwicker.mPoolSize = poolSize;
+		}
+		kwicker.mBatchFileName = batchFileName;
+		kwicker.mBatchFormat = batchFormat;
+		kwicker.mBatchOutputName = batchOutputName;
+		kwicker.mServerPort = serverPort;
+		kwicker.mMetricsSeconds = metricsSeconds;
+		kwicker.mTopCount = topCount;
+		
+		// Run the keyword file, the query server or the keyword counts without prompts, or launch User Interface
+		if (batchFileName != null){
+			kwicker.launchBatchControl();
+		} else if (serverPort >= 0){
+			kwicker.launchServerControl();
+		} else if (topCount > 0){
+			kwicker.launchTopTermsControl();
+		} else {
+			kwicker.launchMainControl();
+		}
 	}
 
 }
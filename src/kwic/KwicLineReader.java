@@ -0,0 +1,290 @@
+package kwic;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming line reader with an explicit charset
+ * This replaces BufferedReader(FileReader) for the line reader paths.
+ * FileReader always decodes with the platform default charset, so text
+ * saved in another charset was mangled.  Here the charset is found from
+ * the Byte Order Mark (BOM) at the start of the file if there is one
+ * (UTF-8, UTF-16 or UTF-32), otherwise the named charset is used, and the
+ * platform default when no charset is named ("auto").  The BOM itself is
+ * skipped.
+ *
+ * The file is read through one reused byte buffer and decoded in bulk by
+ * a CharsetDecoder into one reused char buffer, which is then split into
+ * lines like BufferedReader.readLine ("\n", "\r" or "\r\n").  Malformed
+ * input is replaced like FileReader does.  Only the line Strings are
+ * allocated, so pure ASCII input reads as fast as before.
+ *
+ * Compressed files (gzip or block gzip) are inflated as they are read,
+ * see KwicCompressedInput.
+ *
+ * One reader must only be used by one thread at a time.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicLineReader implements Closeable {
+	// Define the charset name that selects detection from the BOM
+	protected static final String AUTO_CHARSET = "auto";
+	// Define the size of the byte and char buffers
+	private static final int BUFFER_SIZE = 1 << 16;
+	// Define the number of bytes checked for a BOM
+	private static final int BOM_PEEK_BYTES = 4;
+
+	// File (or inflated text) being read
+	private final ReadableByteChannel mChannel;
+	// Charset of the file and its decoder
+	private final Charset mCharset;
+	private final CharsetDecoder mDecoder;
+
+	// Reused buffers of undecoded bytes and of decoded characters
+	private final ByteBuffer mBytes = ByteBuffer.allocate(BUFFER_SIZE);
+	private final CharBuffer mChars = CharBuffer.allocate(BUFFER_SIZE);
+	private final char[] mCharArray = mChars.array();
+
+	// Start of a line that runs past the end of the char buffer
+	private final StringBuilder mPartialLine = new StringBuilder();
+	// Flag for a "\r" at the end of the char buffer, a "\n" after it is part of the same line break
+	private boolean mSkipLineFeed = false;
+
+	// Number of bytes read from the file, and end of file flags for the file and the decoder
+	private long mBytesRead = 0;
+	private boolean mEndOfInput = false;
+	private boolean mDecoderDone = false;
+
+	// Constructor that opens the named file with a named charset (null or "auto" for the platform default)
+	protected KwicLineReader(String fileName, String charsetName) throws IOException {
+		this(KwicCompressedInput.openChannel(fileName), charsetName);
+	}
+
+	// Constructor that reads an opened channel (closed with the reader) with a named charset
+	protected KwicLineReader(ReadableByteChannel channel, String charsetName) throws IOException {
+		int bomLength;
+
+		mChannel = channel;
+		try {
+			// Fill the (empty) byte buffer once so the BOM can be checked
+			mBytes.flip();
+			fillBytes();
+			Charset bomCharset = charsetFromBom(mBytes);
+			bomLength = (bomCharset == null) ? 0 : bomLength(bomCharset);
+			mCharset = (bomCharset != null) ? bomCharset : resolveCharset(charsetName);
+		} catch (IOException e){
+			mChannel.close();
+			throw e;
+		} catch (RuntimeException e){
+			mChannel.close();
+			throw e;
+		}
+		mBytes.position(mBytes.position() + bomLength);
+
+		mDecoder = mCharset.newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		mChars.flip();
+	}
+
+	/*
+	 * Method to get the charset of a named charset option
+	 * Null or "auto" is the platform default.  Throws an
+	 * IllegalArgumentException for an unknown name.
+	 */
+	protected static Charset resolveCharset(String charsetName){
+		if (charsetName == null || charsetName.equalsIgnoreCase(AUTO_CHARSET)){
+			return Charset.defaultCharset();
+		}
+		return Charset.forName(charsetName);
+	}
+
+	/*
+	 * Method to find the charset of a file without reading it all
+	 * This is the charset the line reader would use: the one of the BOM if
+	 * there is one, otherwise the named one.
+	 */
+	protected static Charset detectCharset(String fileName, String charsetName) throws IOException {
+		KwicLineReader reader = new KwicLineReader(fileName, charsetName);
+		try {
+			return reader.getCharset();
+		} finally {
+			reader.close();
+		}
+	}
+
+	// Method to get the charset of a BOM at the start of a buffer, null if there is none
+	private static Charset charsetFromBom(ByteBuffer buffer){
+		int start = buffer.position();
+		int length = buffer.remaining();
+		int b0 = (length > 0) ? buffer.get(start) & 0xFF : -1;
+		int b1 = (length > 1) ? buffer.get(start + 1) & 0xFF : -1;
+		int b2 = (length > 2) ? buffer.get(start + 2) & 0xFF : -1;
+		int b3 = (length > 3) ? buffer.get(start + 3) & 0xFF : -1;
+
+		if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF){
+			return StandardCharsets.UTF_8;
+		}
+		// Check UTF-32 first, its little endian BOM starts like the UTF-16 one
+		if (b0 == 0x00 && b1 == 0x00 && b2 == 0xFE && b3 == 0xFF && Charset.isSupported("UTF-32BE")){
+			return Charset.forName("UTF-32BE");
+		}
+		if (b0 == 0xFF && b1 == 0xFE && b2 == 0x00 && b3 == 0x00 && Charset.isSupported("UTF-32LE")){
+			return Charset.forName("UTF-32LE");
+		}
+		if (b0 == 0xFE && b1 == 0xFF){
+			return StandardCharsets.UTF_16BE;
+		}
+		if (b0 == 0xFF && b1 == 0xFE){
+			return StandardCharsets.UTF_16LE;
+		}
+		return null;
+	}
+
+	// Method to get the length of the BOM of a charset found by charsetFromBom
+	private static int bomLength(Charset bomCharset){
+		if (bomCharset.equals(StandardCharsets.UTF_8)){
+			return 3;
+		}
+		return bomCharset.name().startsWith("UTF-32") ? BOM_PEEK_BYTES : 2;
+	}
+
+	// Method to check if every character of a charset is a single byte (so byte offsets are character offsets)
+	protected static boolean isSingleByte(Charset charset){
+		return charset.canEncode() && charset.newEncoder().maxBytesPerChar() == 1.0f;
+	}
+
+	// Method to read more bytes into the byte buffer, which is left ready to be decoded
+	private void fillBytes() throws IOException {
+		int readCount;
+
+		mBytes.compact();
+		readCount = mChannel.read(mBytes);
+		if (readCount < 0){
+			mEndOfInput = true;
+		} else {
+			mBytesRead += readCount;
+		}
+		mBytes.flip();
+	}
+
+	/*
+	 * Method to decode the next characters into the char buffer
+	 * Returns false once the file is used up.
+	 */
+	private boolean fillChars() throws IOException {
+		CoderResult result;
+
+		mChars.clear();
+		while (mChars.position() == 0 && !mDecoderDone){
+			result = mDecoder.decode(mBytes, mChars, mEndOfInput);
+			if (result.isUnderflow()){
+				if (mEndOfInput){
+					mDecoder.flush(mChars);
+					mDecoderDone = true;
+				} else {
+					fillBytes();
+				}
+			}
+		}
+		mChars.flip();
+		return mChars.hasRemaining();
+	}
+
+	/*
+	 * Method to read the next line, without its line break
+	 * Returns null at the end of the file.
+	 */
+	protected String readLine() throws IOException {
+		char[] chars = mCharArray;
+		int pos, limit, lineStart;
+		char c;
+		String line;
+
+		while (true){
+			if (!mChars.hasRemaining() && !fillChars()){
+				// End of file, the last line may have no line break
+				if (mPartialLine.length() == 0){
+					return null;
+				}
+				line = mPartialLine.toString();
+				mPartialLine.setLength(0);
+				return line;
+			}
+
+			pos = mChars.position();
+			limit = mChars.limit();
+
+			// Skip the "\n" of a "\r\n" split over two reads
+			if (mSkipLineFeed){
+				mSkipLineFeed = false;
+				if (chars[pos] == '\n'){
+					pos++;
+				}
+			}
+
+			// Look for the end of the line
+			lineStart = pos;
+			c = 0;
+			while (pos < limit && (c = chars[pos]) != '\n' && c != '\r'){
+				pos++;
+			}
+
+			if (pos == limit){
+				// The line goes on in the next read
+				mPartialLine.append(chars, lineStart, pos - lineStart);
+				mChars.position(pos);
+				continue;
+			}
+
+			if (mPartialLine.length() == 0){
+				line = new String(chars, lineStart, pos - lineStart);
+			} else {
+				line = mPartialLine.append(chars, lineStart, pos - lineStart).toString();
+				mPartialLine.setLength(0);
+			}
+
+			// Step over the line break, "\r\n" counts as one
+			pos++;
+			if (c == '\r'){
+				if (pos < limit){
+					if (chars[pos] == '\n'){
+						pos++;
+					}
+				} else {
+					mSkipLineFeed = true;
+				}
+			}
+			mChars.position(pos);
+			return line;
+		}
+	}
+
+	// Getter for the charset the file is decoded with
+	protected Charset getCharset(){
+		return mCharset;
+	}
+
+	/*
+	 * Getter for the number of bytes decoded so far (for progress)
+	 * This runs ahead of the lines returned by up to one char buffer.
+	 */
+	protected long getBytePosition(){
+		return mBytesRead - mBytes.remaining();
+	}
+
+	@Override
+	public void close() throws IOException {
+		mChannel.close();
+	}
+}
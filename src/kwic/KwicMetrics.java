@@ -0,0 +1,267 @@
+package kwic;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Indexing and query metrics of one file
+ * The index builders count the lines, bytes and keywords they read, and
+ * how many keywords were already dead (the dead word check saved building
+ * a context string for them).  The counters are added once per line, so
+ * the builders on several threads (parallel mode) can share them cheaply.
+ * In parallel mode a word is only dead within its chunk, so there are
+ * fewer dead word hits.
+ *
+ * The time spent in each phase of indexing (read, tokenize, context build,
+ * insert) is only measured on one line in PHASE_SAMPLE_LINES, since reading
+ * the clock costs about as much as indexing a keyword.  The phase times
+ * are scaled up from the sampled lines, so they are estimates.
+ *
+ * Query latencies of processQueryKeyword are kept in a histogram.  The
+ * metrics can be registered with the platform MBean server (JMX) and are
+ * printed by the search group's periodic log line.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicMetrics implements KwicMetricsMBean {
+	// Define how often (in lines) the indexing phases are timed
+	protected static final int PHASE_SAMPLE_LINES = 64;
+	// Define the JMX domain of the metrics
+	protected static final String JMX_DOMAIN = "kwic";
+
+	// Search object the metrics belong to
+	private final KwicSearch mKwicker;
+
+	// Indexing counters
+	private final LongAdder mLineCount = new LongAdder();
+	private final LongAdder mByteCount = new LongAdder();
+	private final LongAdder mTokenCount = new LongAdder();
+	private final LongAdder mDeadWordHits = new LongAdder();
+
+	// Time spent in each indexing phase on the sampled lines
+	private final LongAdder mReadNanos = new LongAdder();
+	private final LongAdder mTokenizeNanos = new LongAdder();
+	private final LongAdder mContextNanos = new LongAdder();
+	private final LongAdder mInsertNanos = new LongAdder();
+
+	// Start and end time of indexing (end is 0 while it runs)
+	private volatile long mIndexStartNanos = 0;
+	private volatile long mIndexEndNanos = 0;
+
+	// Query latencies
+	private final KwicLatencyHistogram mQueryLatency = new KwicLatencyHistogram();
+
+	// Name the metrics are registered under (null if they are not)
+	private ObjectName mObjectName = null;
+
+	// Constructor
+	protected KwicMetrics(KwicSearch kwicker){
+		this.mKwicker = kwicker;
+	}
+
+	// Method to check if the phases of a line are timed
+	protected static boolean isSampledLine(long lineNum){
+		return lineNum % PHASE_SAMPLE_LINES == 0;
+	}
+
+	// Method to count an indexed line and its keywords
+	protected void addLine(long bytes, int tokens, int deadWordHits){
+		mLineCount.increment();
+		mByteCount.add(bytes);
+		mTokenCount.add(tokens);
+		mDeadWordHits.add(deadWordHits);
+	}
+
+	// Method to add the time spent reading a sampled line
+	protected void addReadNanos(long nanos){
+		mReadNanos.add(nanos);
+	}
+
+	// Method to add the time spent on the other phases of a sampled line
+	protected void addPhaseNanos(long tokenizeNanos, long contextNanos, long insertNanos){
+		mTokenizeNanos.add(tokenizeNanos);
+		mContextNanos.add(contextNanos);
+		mInsertNanos.add(insertNanos);
+	}
+
+	// Method to mark the start of indexing
+	protected void startIndex(){
+		mIndexStartNanos = System.nanoTime();
+		mIndexEndNanos = 0;
+	}
+
+	// Method to mark the end of indexing
+	protected void endIndex(){
+		mIndexEndNanos = System.nanoTime();
+	}
+
+	// Method to record the latency of one query
+	protected void recordQuery(long nanos){
+		mQueryLatency.record(nanos);
+	}
+
+	// Method to scale the time of the sampled lines to all lines, in milliseconds
+	private static long scaleSampled(LongAdder sampledNanos){
+		return sampledNanos.sum() * PHASE_SAMPLE_LINES / 1000000L;
+	}
+
+	/*
+	 * Method to register the metrics with the platform MBean server
+	 * The name is kwic:type=Index,name="<file name>", with an id added if
+	 * the same file is registered twice.
+	 */
+	protected void register(){
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		String baseName = JMX_DOMAIN + ":type=Index,name=" + ObjectName.quote(mKwicker.getFileName());
+
+		try {
+			ObjectName objectName = new ObjectName(baseName);
+			for (int id = 2; server.isRegistered(objectName); id++){
+				objectName = new ObjectName(baseName + ",id=" + id);
+			}
+			server.registerMBean(this, objectName);
+			mObjectName = objectName;
+		} catch (JMException e){
+			System.err.format("Could not register the metrics of \"%s\": %s%n", mKwicker.getFileName(), e.getMessage());
+		}
+	}
+
+	// Method to remove the metrics from the platform MBean server
+	protected void unregister(){
+		if (mObjectName == null){
+			return;
+		}
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(mObjectName);
+		} catch (JMException e){
+			// Already gone
+		}
+		mObjectName = null;
+	}
+
+	// Method to format the metrics as one log line
+	protected String formatLogLine(){
+		return String.format("%s: %s lines=%d tokens=%d terms=%d dead=%.1f%% index=%dms"
+				+ " (read %d, tokenize %d, context %d, insert %d) heap~%dMB %s",
+				mKwicker.getFileName(), isIndexDone() ? "done" : String.format("%.0f%%", 100*getIndexProgress()),
+				getLineCount(), getTokenCount(), getTermCount(), 100*getDeadWordHitRate(), getIndexMillis(),
+				getReadMillis(), getTokenizeMillis(), getContextMillis(), getInsertMillis(),
+				getHeapEstimateBytes() >> 20, mQueryLatency.formatSummary());
+	}
+
+	@Override
+	public String getFileName(){
+		return mKwicker.getFileName();
+	}
+
+	@Override
+	public boolean isIndexDone(){
+		return mKwicker.isIndexDone();
+	}
+
+	@Override
+	public double getIndexProgress(){
+		return mKwicker.getIndexProgress();
+	}
+
+	@Override
+	public long getIndexMillis(){
+		long startNanos = mIndexStartNanos, endNanos = mIndexEndNanos;
+		if (startNanos == 0){
+			return 0;
+		}
+		return ((endNanos == 0) ? System.nanoTime() - startNanos : endNanos - startNanos) / 1000000L;
+	}
+
+	@Override
+	public long getLineCount(){
+		return mLineCount.sum();
+	}
+
+	@Override
+	public long getByteCount(){
+		return mByteCount.sum();
+	}
+
+	@Override
+	public long getTokenCount(){
+		return mTokenCount.sum();
+	}
+
+	@Override
+	public int getTermCount(){
+		return mKwicker.getTermCount();
+	}
+
+	@Override
+	public long getDeadWordHits(){
+		return mDeadWordHits.sum();
+	}
+
+	@Override
+	public double getDeadWordHitRate(){
+		long tokenCount = mTokenCount.sum();
+		return (tokenCount == 0) ? 0 : (double) mDeadWordHits.sum() / tokenCount;
+	}
+
+	@Override
+	public long getReadMillis(){
+		return scaleSampled(mReadNanos);
+	}
+
+	@Override
+	public long getTokenizeMillis(){
+		return scaleSampled(mTokenizeNanos);
+	}
+
+	@Override
+	public long getContextMillis(){
+		return scaleSampled(mContextNanos);
+	}
+
+	@Override
+	public long getInsertMillis(){
+		return scaleSampled(mInsertNanos);
+	}
+
+	@Override
+	public long getHeapEstimateBytes(){
+		return mKwicker.estimateHeapBytes();
+	}
+
+	@Override
+	public long getQueryCount(){
+		return mQueryLatency.getQueryCount();
+	}
+
+	@Override
+	public double getQueryMeanMicros(){
+		return mQueryLatency.getQueryMeanMicros();
+	}
+
+	@Override
+	public double getQueryP50Micros(){
+		return mQueryLatency.getQueryP50Micros();
+	}
+
+	@Override
+	public double getQueryP99Micros(){
+		return mQueryLatency.getQueryP99Micros();
+	}
+
+	@Override
+	public double getQueryP999Micros(){
+		return mQueryLatency.getQueryP999Micros();
+	}
+
+	@Override
+	public double getQueryMaxMicros(){
+		return mQueryLatency.getQueryMaxMicros();
+	}
+}
@@ -0,0 +1,55 @@
+package kwic;
+
+/**
+ * JMX view of the indexing and query metrics of one file (see KwicMetrics)
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public interface KwicMetricsMBean extends KwicLatencyHistogramMBean {
+	// Name of the indexed file
+	public String getFileName();
+
+	// Status of the index
+	public boolean isIndexDone();
+
+	// Indexed part of the file (0 to 1)
+	public double getIndexProgress();
+
+	// Time spent building (or loading) the index so far
+	public long getIndexMillis();
+
+	// Number of lines indexed
+	public long getLineCount();
+
+	// Number of bytes indexed (characters for the line reader)
+	public long getByteCount();
+
+	// Number of keywords read
+	public long getTokenCount();
+
+	// Number of distinct keywords
+	public int getTermCount();
+
+	// Number of keywords that were already dead, so no context was built for them
+	public long getDeadWordHits();
+
+	// Share of the keywords read that were already dead (0 to 1)
+	public double getDeadWordHitRate();
+
+	// Estimated time spent reading lines
+	public long getReadMillis();
+
+	// Estimated time spent splitting lines into keywords
+	public long getTokenizeMillis();
+
+	// Estimated time spent building context strings
+	public long getContextMillis();
+
+	// Estimated time spent adding keywords to the index
+	public long getInsertMillis();
+
+	// Estimated heap used by the index
+	public long getHeapEstimateBytes();
+}
@@ -0,0 +1,140 @@
+package kwic;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * Runtime options of the KWIC search
+ * This class holds the limits that used to be fixed in KwicConstants, so
+ * they can be tuned without recompiling.  The values in KwicConstants are
+ * now only the defaults.  The options are filled from command line flags
+ * or from a properties file like:
+ *
+ *   # Number of instances kept per keyword
+ *   maxKeyCount = 50
+ *   # Number of instances shown per query
+ *   maxKeyDisplay = 20
+ *   # Leading and trailing context characters
+ *   contextSize = 40
+ *   # Max number of lines indexed per file (0 for no limit)
+ *   maxTextLines = 0
+ *
+ * A search object reads its options when it is created, so changing them
+ * later only affects search objects created after the change.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicOptions {
+	// Define the property names
+	protected static final String MAX_KEY_COUNT_PROPERTY = "maxKeyCount";
+	protected static final String MAX_KEY_DISPLAY_PROPERTY = "maxKeyDisplay";
+	protected static final String CONTEXT_SIZE_PROPERTY = "contextSize";
+	protected static final String MAX_TEXT_LINES_PROPERTY = "maxTextLines";
+
+	// Max number of keyword instances we will hold onto
+	private int mMaxKeyCount = KwicConstants.MAX_KEY_COUNT;
+	// Max number of keyword instances we will display
+	private int mMaxKeyDisplay = KwicConstants.MAX_KEY_DISPLAY;
+	// Number of leading and trailing characters that make up the "context" of the keyword
+	private int mContextSize = KwicConstants.CONTEXT_SIZE;
+	// Max number of lines to index, 0 for no limit
+	private long mMaxTextLines = KwicConstants.MAX_TEXT_LINES;
+
+	// Basic Constructor, all options at their defaults
+	public KwicOptions(){
+
+	}
+
+	/*
+	 * Method to read options from a properties file
+	 * Options missing from the file keep their value, and bad values are
+	 * reported and ignored.
+	 */
+	public void load(String fileName) throws IOException {
+		Properties properties = new Properties();
+		InputStream propertiesIn = new FileInputStream(fileName);
+
+		try {
+			properties.load(propertiesIn);
+		} finally {
+			propertiesIn.close();
+		}
+
+		for (String name : properties.stringPropertyNames()){
+			if (!set(name, properties.getProperty(name).trim())){
+				System.out.format("%nIgnoring unknown option \"%s\" in \"%s\"%n", name, fileName);
+			}
+		}
+	}
+
+	/*
+	 * Method to set an option by its property name
+	 * Returns false if there is no option of that name.  A value that is
+	 * not a number is reported and ignored.
+	 */
+	public boolean set(String name, String value){
+		try {
+			if (name.equals(MAX_KEY_COUNT_PROPERTY)){
+				setMaxKeyCount(Integer.parseInt(value));
+			} else if (name.equals(MAX_KEY_DISPLAY_PROPERTY)){
+				setMaxKeyDisplay(Integer.parseInt(value));
+			} else if (name.equals(CONTEXT_SIZE_PROPERTY)){
+				setContextSize(Integer.parseInt(value));
+			} else if (name.equals(MAX_TEXT_LINES_PROPERTY)){
+				setMaxTextLines(Long.parseLong(value));
+			} else {
+				return false;
+			}
+		} catch (NumberFormatException e){
+			System.out.format("%nIgnoring bad value \"%s\" for option \"%s\"%n", value, name);
+		}
+		return true;
+	}
+
+	// Getter for the max number of instances kept per keyword
+	public int getMaxKeyCount(){
+		return mMaxKeyCount;
+	}
+
+	// Setter for the max number of instances kept per keyword (at least 1)
+	public void setMaxKeyCount(int maxKeyCount){
+		mMaxKeyCount = Math.max(1, maxKeyCount);
+	}
+
+	// Getter for the max number of instances displayed per query
+	public int getMaxKeyDisplay(){
+		return mMaxKeyDisplay;
+	}
+
+	// Setter for the max number of instances displayed per query (at least 1)
+	public void setMaxKeyDisplay(int maxKeyDisplay){
+		mMaxKeyDisplay = Math.max(1, maxKeyDisplay);
+	}
+
+	// Getter for the number of leading and trailing context characters
+	public int getContextSize(){
+		return mContextSize;
+	}
+
+	// Setter for the number of leading and trailing context characters
+	public void setContextSize(int contextSize){
+		mContextSize = Math.max(0, contextSize);
+	}
+
+	/*
+	 * Getter for the max number of lines to index
+	 * Line numbers are ints, so "no limit" is the largest int.
+	 */
+	public long getMaxTextLines(){
+		return (mMaxTextLines <= 0) ? Integer.MAX_VALUE : Math.min(mMaxTextLines, Integer.MAX_VALUE);
+	}
+
+	// Setter for the max number of lines to index, 0 for no limit
+	public void setMaxTextLines(long maxTextLines){
+		mMaxTextLines = Math.max(0, maxTextLines);
+	}
+}
@@ -0,0 +1,313 @@
+package kwic;
+
+import java.util.Arrays;
+
+/**
+ * Positional postings
+ * This class keeps every occurrence of every keyword, in file order, as
+ * its token position (the number of keywords before it in the file), its
+ * line number and its character offset.  Phrase and proximity queries
+ * (see KwicProximityQuery) walk these lists instead of the text.
+ *
+ * Each keyword has its own byte list.  An occurrence is stored as the
+ * difference of its three values from the previous occurrence of the same
+ * keyword, each as a variable length integer (7 bits per byte), so most
+ * occurrences take 3 to 5 bytes.  Every SKIP_INTERVAL occurrences a skip
+ * entry records where the next occurrence starts and the values before it,
+ * so a cursor can jump close to a target position without decoding
+ * everything in between.
+ *
+ * The lists have a memory budget.  Once the allocated lists reach it, no
+ * more occurrences are added, so the lists hold every occurrence up to
+ * some point in the file (getFullLine) and none after it.
+ *
+ * The lists are indexed by the term ids of the KeywordIndex built next to
+ * them.  Not thread safe, the index lock guards it like the KeywordIndex.
+ *
+ * @author Michael Chalson
+ */
+
+public class KwicPostings {
+	// Define the number of occurrences between skip entries
+	private static final int SKIP_INTERVAL = 128;
+	// Define the number of values in a skip entry
+	private static final int SKIP_ENTRY_SIZE = 4;
+	// Define the initial number of terms before the lists grow
+	private static final int INITIAL_TERM_CAPACITY = 1024;
+	// Define the initial size of the byte list of a term
+	private static final int INITIAL_TERM_BYTES = 8;
+
+	// Encoded occurrences of each term
+	private byte[][] termBytes = new byte[INITIAL_TERM_CAPACITY][];
+	// Number of bytes used in the byte list of each term
+	private int[] byteCount = new int[INITIAL_TERM_CAPACITY];
+	// Number of occurrences of each term
+	private int[] postingCount = new int[INITIAL_TERM_CAPACITY];
+	// Values of the last occurrence of each term (the base of the next difference)
+	private long[] lastPosition = new long[INITIAL_TERM_CAPACITY];
+	private int[] lastLine = new int[INITIAL_TERM_CAPACITY];
+	private long[] lastOffset = new long[INITIAL_TERM_CAPACITY];
+	// Skip entries of each term: byte index, position, line and offset before the entry
+	private long[][] skipEntries = new long[INITIAL_TERM_CAPACITY][];
+
+	// Memory budget and the number of bytes allocated for the lists so far
+	private final long maxBytes;
+	private long allocatedBytes = 0;
+	// Line of the first occurrence that did not fit in the budget (0 while there is room)
+	private int fullLine = 0;
+
+	// Basic Constructor, no memory budget
+	protected KwicPostings(){
+		this(Long.MAX_VALUE);
+	}
+
+	// Constructor that sets the memory budget in bytes
+	protected KwicPostings(long maxBytes){
+		this.maxBytes = maxBytes;
+	}
+
+	// Method to make room for a term id
+	private void ensureTerm(int termId){
+		if (termId < termBytes.length){
+			return;
+		}
+		int newCapacity = Math.max(2*termBytes.length, termId + 1);
+		termBytes = Arrays.copyOf(termBytes, newCapacity);
+		byteCount = Arrays.copyOf(byteCount, newCapacity);
+		postingCount = Arrays.copyOf(postingCount, newCapacity);
+		lastPosition = Arrays.copyOf(lastPosition, newCapacity);
+		lastLine = Arrays.copyOf(lastLine, newCapacity);
+		lastOffset = Arrays.copyOf(lastOffset, newCapacity);
+		skipEntries = Arrays.copyOf(skipEntries, newCapacity);
+	}
+
+	// Method to append a variable length integer to the byte list of a term
+	private void writeVarLong(int termId, long value){
+		byte[] bytes = termBytes[termId];
+		int used = byteCount[termId];
+
+		if (bytes == null){
+			bytes = termBytes[termId] = new byte[INITIAL_TERM_BYTES];
+			allocatedBytes += bytes.length;
+		} else if (used + 10 > bytes.length){
+			allocatedBytes -= bytes.length;
+			bytes = termBytes[termId] = Arrays.copyOf(bytes, Math.max(2*bytes.length, used + 10));
+			allocatedBytes += bytes.length;
+		}
+		while ((value & ~0x7FL) != 0){
+			bytes[used++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		bytes[used++] = (byte) value;
+		byteCount[termId] = used;
+	}
+
+	/*
+	 * Method to add an occurrence of a term
+	 * Occurrences have to be added in file order.  Returns false (and
+	 * drops the occurrence) once the memory budget is used up.
+	 */
+	protected boolean add(int termId, long position, int lineNum, long offset){
+		if (fullLine > 0){
+			return false;
+		}
+		if (allocatedBytes >= maxBytes){
+			fullLine = lineNum;
+			return false;
+		}
+		ensureTerm(termId);
+		int count = postingCount[termId];
+
+		// Record a skip entry before every SKIP_INTERVAL-th occurrence
+		if (count > 0 && count % SKIP_INTERVAL == 0){
+			int skipInd = count / SKIP_INTERVAL - 1;
+			long[] skips = skipEntries[termId];
+			if (skips == null){
+				skips = skipEntries[termId] = new long[4*SKIP_ENTRY_SIZE];
+				allocatedBytes += 8L*skips.length;
+			} else if ((skipInd + 1)*SKIP_ENTRY_SIZE > skips.length){
+				allocatedBytes -= 8L*skips.length;
+				skips = skipEntries[termId] = Arrays.copyOf(skips, 2*skips.length);
+				allocatedBytes += 8L*skips.length;
+			}
+			skips[skipInd*SKIP_ENTRY_SIZE] = byteCount[termId];
+			skips[skipInd*SKIP_ENTRY_SIZE + 1] = lastPosition[termId];
+			skips[skipInd*SKIP_ENTRY_SIZE + 2] = lastLine[termId];
+			skips[skipInd*SKIP_ENTRY_SIZE + 3] = lastOffset[termId];
+		}
+
+		writeVarLong(termId, position - lastPosition[termId]);
+		writeVarLong(termId, lineNum - lastLine[termId]);
+		writeVarLong(termId, offset - lastOffset[termId]);
+		lastPosition[termId] = position;
+		lastLine[termId] = lineNum;
+		lastOffset[termId] = offset;
+		postingCount[termId] = count + 1;
+		return true;
+	}
+
+	// Method to give back the unused room at the end of every list (after indexing)
+	protected void trimToSize(){
+		allocatedBytes = 0;
+		for (int termId = 0; termId < termBytes.length; termId++){
+			if (termBytes[termId] != null && termBytes[termId].length > byteCount[termId]){
+				termBytes[termId] = Arrays.copyOf(termBytes[termId], byteCount[termId]);
+			}
+			if (skipEntries[termId] != null){
+				int skipLength = (postingCount[termId] - 1) / SKIP_INTERVAL * SKIP_ENTRY_SIZE;
+				skipEntries[termId] = Arrays.copyOf(skipEntries[termId], skipLength);
+				allocatedBytes += 8L*skipLength;
+			}
+			allocatedBytes += byteCount[termId];
+		}
+	}
+
+	// getter for the number of bytes allocated for the lists
+	protected long getAllocatedBytes(){
+		return allocatedBytes;
+	}
+
+	// getter for the line where the memory budget ran out, 0 if it did not
+	protected int getFullLine(){
+		return fullLine;
+	}
+
+	// getter for the number of occurrences of a term
+	protected int getPostingCount(int termId){
+		return (termId < postingCount.length) ? postingCount[termId] : 0;
+	}
+
+	/*
+	 * Cursor over the occurrences of one term
+	 * A new cursor is before the first occurrence, next() or advance()
+	 * move it forward.  Cursors never move backwards.
+	 */
+	protected class Cursor {
+		private final int mTermId;
+		private final int mCount;
+		// Number of occurrences decoded so far
+		private int mIndex = 0;
+		// Byte index of the next occurrence
+		private int mByteInd = 0;
+		// Values of the current occurrence
+		private long mPosition = 0;
+		private int mLine = 0;
+		private long mOffset = 0;
+
+		// Constructor
+		protected Cursor(int termId){
+			this.mTermId = termId;
+			this.mCount = getPostingCount(termId);
+		}
+
+		// Method to read a variable length integer
+		private long readVarLong(){
+			byte[] bytes = termBytes[mTermId];
+			long value = 0;
+			int shift = 0;
+			byte nextByte;
+			do {
+				nextByte = bytes[mByteInd++];
+				value |= (long) (nextByte & 0x7F) << shift;
+				shift += 7;
+			} while (nextByte < 0);
+			return value;
+		}
+
+		// Method to move to the next occurrence, returns false if there is none
+		protected boolean next(){
+			if (mIndex >= mCount){
+				return false;
+			}
+			mPosition += readVarLong();
+			mLine += (int) readVarLong();
+			mOffset += readVarLong();
+			mIndex++;
+			return true;
+		}
+
+		/*
+		 * Method to move to the first occurrence at or after a token position
+		 * Returns false if there is none.  The skip entries are binary
+		 * searched for the last one before the target that is ahead of the
+		 * cursor, then the occurrences after it are decoded one by one.
+		 */
+		protected boolean advance(long targetPosition){
+			if (mIndex > 0 && mPosition >= targetPosition){
+				return true;
+			}
+
+			long[] skips = skipEntries[mTermId];
+			int low = mIndex / SKIP_INTERVAL, high = (mCount - 1) / SKIP_INTERVAL - 1, mid, found = -1;
+			while (skips != null && low <= high){
+				mid = (low + high) >>> 1;
+				if (skips[mid*SKIP_ENTRY_SIZE + 1] < targetPosition){
+					found = mid;
+					low = mid + 1;
+				} else {
+					high = mid - 1;
+				}
+			}
+			if (found >= 0 && (found + 1)*SKIP_INTERVAL > mIndex){
+				mIndex = (found + 1)*SKIP_INTERVAL;
+				mByteInd = (int) skips[found*SKIP_ENTRY_SIZE];
+				mPosition = skips[found*SKIP_ENTRY_SIZE + 1];
+				mLine = (int) skips[found*SKIP_ENTRY_SIZE + 2];
+				mOffset = skips[found*SKIP_ENTRY_SIZE + 3];
+			}
+
+			while (next()){
+				if (mPosition >= targetPosition){
+					return true;
+				}
+			}
+			return false;
+		}
+
+		/*
+		 * Method to move to the occurrence with a given number (0 is the first)
+		 * Returns false if there is none.  The skip entries are numbered
+		 * by occurrence, so this jumps straight to the right one.
+		 */
+		protected boolean skipTo(int occurrenceInd){
+			if (occurrenceInd >= mCount){
+				return false;
+			}
+
+			int skipInd = occurrenceInd / SKIP_INTERVAL - 1;
+			long[] skips = skipEntries[mTermId];
+			if (skipInd >= 0 && (skipInd + 1)*SKIP_INTERVAL > mIndex){
+				mIndex = (skipInd + 1)*SKIP_INTERVAL;
+				mByteInd = (int) skips[skipInd*SKIP_ENTRY_SIZE];
+				mPosition = skips[skipInd*SKIP_ENTRY_SIZE + 1];
+				mLine = (int) skips[skipInd*SKIP_ENTRY_SIZE + 2];
+				mOffset = skips[skipInd*SKIP_ENTRY_SIZE + 3];
+			}
+
+			while (mIndex <= occurrenceInd){
+				next();
+			}
+			return true;
+		}
+
+		// getter for the token position of the current occurrence
+		protected long getPosition(){
+			return mPosition;
+		}
+
+		// getter for the line number of the current occurrence
+		protected int getLine(){
+			return mLine;
+		}
+
+		// getter for the character offset of the current occurrence
+		protected long getOffset(){
+			return mOffset;
+		}
+	}
+
+	// Method to create a cursor over the occurrences of a term
+	protected Cursor cursor(int termId){
+		return new Cursor(termId);
+	}
+}
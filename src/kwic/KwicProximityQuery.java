@@ -0,0 +1,234 @@
+package kwic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Phrase and proximity query engine
+ * This class runs queries over the positional postings (KwicPostings):
+ *   "oliver twist"            the keywords next to each other, in order
+ *   workhouse NEAR gruel      both keywords within DEFAULT_NEAR_DISTANCE
+ *                             keywords of each other, in either order
+ *   workhouse NEAR/5 gruel    the same within 5 keywords
+ *
+ * The postings of the rarest keyword drive the search, and the cursors of
+ * the other keywords are advanced to the positions where they would have
+ * to be.  A cursor that overshoots moves the driver forward instead, so
+ * long postings lists are mostly skipped rather than decoded.
+ *
+ * Each hit becomes a KeywordData covering the characters from the first
+ * to the last keyword of the hit, so it is printed like a single keyword.
+ * A query can keep only one page of its hits while still counting them all.
+ *
+ * @author Michael Chalson
+ */
+
+public class KwicProximityQuery {
+	// Define the default distance (in keywords) of a NEAR query
+	protected static final int DEFAULT_NEAR_DISTANCE = 10;
+	// Define the proximity operator
+	private static final String NEAR_OPERATOR = "NEAR";
+	// Define the patterns of the operator with and without a distance
+	private static final Pattern NEAR_PATTERN = Pattern.compile("\\s" + NEAR_OPERATOR + "(/\\d+)?\\s");
+	private static final Pattern NEAR_SPLIT_PATTERN = Pattern.compile("\\s" + NEAR_OPERATOR + "(/(\\d+))?\\s");
+
+	// Keyword index and postings to search
+	private final KeywordIndex mKeywordIndex;
+	private final KwicPostings mPostings;
+	// Tokenizer for the keywords of the query, the same kind the index was built with
+	private final KwicTokenizer mTokenizer;
+
+	// Number of the first hit kept, number of hits kept, and whether to count past them
+	private int mFirstHit = 0;
+	private int mMaxHits = 0;
+	private boolean mCountAll = false;
+
+	// Constructor
+	protected KwicProximityQuery(KeywordIndex keywordIndex, KwicPostings postings, KwicTokenizer tokenizer){
+		this.mKeywordIndex = keywordIndex;
+		this.mPostings = postings;
+		this.mTokenizer = tokenizer;
+	}
+
+	// Method to check if a query is a phrase or proximity query
+	protected static boolean isProximityQuery(String query){
+		String trimmed = query.trim();
+		return (trimmed.length() > 1 && trimmed.charAt(0) == '"')
+				|| (trimmed.contains(NEAR_OPERATOR) && NEAR_PATTERN.matcher(trimmed).find());
+	}
+
+	// Method to split text into lower case keywords, like the index does
+	private List<String> tokenize(String text){
+		List<String> terms = new ArrayList<String>();
+		mTokenizer.reset(text);
+		while (mTokenizer.next()){
+			terms.add(mTokenizer.getTerm());
+		}
+		return terms;
+	}
+
+	/*
+	 * Method to run a phrase or proximity query
+	 * Returns the first maxHits hits in file order, or null if there are
+	 * none or a keyword of the query is not in the index
+	 */
+	protected KeywordContainer run(String query, int maxHits){
+		return run(query, 0, maxHits, false);
+	}
+
+	/*
+	 * Method to run a phrase or proximity query for one page of hits
+	 * Only maxHits hits starting at hit number firstHit (0 is the first)
+	 * are kept.  With countAll the search goes on to the end so the word
+	 * count of the result is the number of all hits, otherwise it stops
+	 * after the page.
+	 */
+	protected KeywordContainer run(String query, int firstHit, int maxHits, boolean countAll){
+		String trimmed = query.trim();
+		mFirstHit = firstHit;
+		mMaxHits = maxHits;
+		mCountAll = countAll;
+
+		Matcher nearMatcher = NEAR_SPLIT_PATTERN.matcher(trimmed);
+
+		if (trimmed.charAt(0) == '"' || !nearMatcher.find()){
+			return runPhrase(tokenize(trimmed));
+		}
+
+		// Read the distance of a NEAR/N query
+		int distance = DEFAULT_NEAR_DISTANCE;
+		if (nearMatcher.group(2) != null){
+			try {
+				distance = Integer.parseInt(nearMatcher.group(2));
+			} catch (NumberFormatException e){
+				return null;
+			}
+		}
+
+		List<String> leftTerms = tokenize(trimmed.substring(0, nearMatcher.start()));
+		List<String> rightTerms = tokenize(trimmed.substring(nearMatcher.end()));
+		if (leftTerms.size() != 1 || rightTerms.size() != 1){
+			return null;
+		}
+		return runNear(leftTerms.get(0), rightTerms.get(0), distance);
+	}
+
+	// Method to get the term ids of keywords, returns null if one is not in the index
+	private int[] findTermIds(List<String> terms){
+		int[] termIds = new int[terms.size()];
+		for (int termInd = 0; termInd < terms.size(); termInd++){
+			termIds[termInd] = mKeywordIndex.find(terms.get(termInd));
+			if (termIds[termInd] < 0){
+				return null;
+			}
+		}
+		return termIds;
+	}
+
+	// Method to check if the search has to go on after the hits found so far
+	private boolean wantsMoreHits(KeywordContainer hits){
+		return mCountAll || hits.getWordCount() < (long) mFirstHit + mMaxHits;
+	}
+
+	// Method to count a hit spanning from one occurrence to the end of another, kept if it is on the page
+	private void addHit(KeywordContainer hits, KwicPostings.Cursor first, KwicPostings.Cursor last, int lastLength){
+		if (hits.getWordCount() >= mFirstHit && hits.getDetailList().size() < mMaxHits){
+			long endOffset = last.getOffset() + lastLength;
+			hits.getDetailList().add(new KeywordData(first.getLine(), first.getOffset(), (int) (endOffset - first.getOffset())));
+		}
+		hits.incrementWordCount();
+	}
+
+	// Method to find the keywords of a phrase at consecutive positions
+	private KeywordContainer runPhrase(List<String> terms){
+		int[] termIds = findTermIds(terms);
+		KeywordContainer hits = new KeywordContainer();
+		KwicPostings.Cursor[] cursors;
+		int driver = 0;
+		long start;
+		boolean isMatch;
+
+		if (termIds == null || termIds.length == 0){
+			return null;
+		}
+
+		// Drive the search with the rarest keyword
+		cursors = new KwicPostings.Cursor[termIds.length];
+		for (int termInd = 0; termInd < termIds.length; termInd++){
+			cursors[termInd] = mPostings.cursor(termIds[termInd]);
+			if (mPostings.getPostingCount(termIds[termInd]) < mPostings.getPostingCount(termIds[driver])){
+				driver = termInd;
+			}
+		}
+
+		boolean hasNext = cursors[driver].next();
+		while (hasNext && wantsMoreHits(hits)){
+			// Position the phrase would start at
+			start = cursors[driver].getPosition() - driver;
+			isMatch = true;
+
+			for (int termInd = 0; termInd < termIds.length && isMatch; termInd++){
+				if (termInd == driver){
+					continue;
+				}
+				if (!cursors[termInd].advance(start + termInd)){
+					return (hits.getWordCount() > 0) ? hits : null;
+				}
+				if (cursors[termInd].getPosition() != start + termInd){
+					// Overshot, the next possible phrase starts further on
+					isMatch = false;
+					hasNext = cursors[driver].advance(cursors[termInd].getPosition() - termInd + driver);
+				}
+			}
+
+			if (isMatch){
+				addHit(hits, cursors[0], cursors[termIds.length - 1], mKeywordIndex.getTermLength(termIds[termIds.length - 1]));
+				hasNext = cursors[driver].next();
+			}
+		}
+		return (hits.getWordCount() > 0) ? hits : null;
+	}
+
+	// Method to find two keywords within a distance of each other
+	private KeywordContainer runNear(String leftTerm, String rightTerm, int distance){
+		int leftId = mKeywordIndex.find(leftTerm), rightId = mKeywordIndex.find(rightTerm);
+		KeywordContainer hits = new KeywordContainer();
+		KwicPostings.Cursor driver, other;
+		int driverId, otherId;
+		long position;
+
+		if (leftId < 0 || rightId < 0){
+			return null;
+		}
+
+		// Drive the search with the rarer keyword
+		if (mPostings.getPostingCount(leftId) <= mPostings.getPostingCount(rightId)){
+			driverId = leftId;
+			otherId = rightId;
+		} else {
+			driverId = rightId;
+			otherId = leftId;
+		}
+		driver = mPostings.cursor(driverId);
+		other = mPostings.cursor(otherId);
+
+		while (driver.next() && wantsMoreHits(hits)){
+			position = driver.getPosition();
+
+			// The same keyword twice has to be a later occurrence
+			if (!other.advance((driverId == otherId) ? position + 1 : position - distance)){
+				break;
+			}
+			if (other.getPosition() <= position + distance){
+				if (other.getPosition() < position){
+					addHit(hits, other, driver, mKeywordIndex.getTermLength(driverId));
+				} else {
+					addHit(hits, driver, other, mKeywordIndex.getTermLength(otherId));
+				}
+			}
+		}
+		return (hits.getWordCount() > 0) ? hits : null;
+	}
+}
@@ -0,0 +1,93 @@
+package kwic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable result of a query (see KwicSearch.query)
+ * It holds one page of the instances of the keyword (or of the keywords
+ * matching a pattern, or of a phrase), the number of instances in all,
+ * and the state of the index when the query ran.  A keyword that is not
+ * in the index gives a result that is not found and has no instances.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public final class KwicQueryResult {
+	// Query as it was asked
+	private final String mQuery;
+	// Flag for a query that found the keyword (or a matching keyword)
+	private final boolean mFound;
+	// Number of instances of the keyword in all, and the offset of the first one in the page
+	private final int mTotalCount;
+	private final int mOffset;
+	// Page of instances
+	private final List<KwicHit> mHits;
+	// Keywords matched by a pattern query and their instance counts (empty otherwise)
+	private final List<String> mMatchedTerms;
+	private final int[] mMatchedTermCounts;
+	// Flag for a query run before the index was done, and the indexed part of the file then
+	private final boolean mPartial;
+	private final int mIndexPercent;
+
+	// Constructor, the lists are copied
+	protected KwicQueryResult(String query, boolean found, int totalCount, int offset, List<KwicHit> hits,
+			List<String> matchedTerms, int[] matchedTermCounts, boolean partial, int indexPercent){
+		this.mQuery = query;
+		this.mFound = found;
+		this.mTotalCount = totalCount;
+		this.mOffset = offset;
+		this.mHits = Collections.unmodifiableList(new ArrayList<KwicHit>(hits));
+		this.mMatchedTerms = Collections.unmodifiableList(new ArrayList<String>(matchedTerms));
+		this.mMatchedTermCounts = matchedTermCounts.clone();
+		this.mPartial = partial;
+		this.mIndexPercent = indexPercent;
+	}
+
+	// Getter for the query
+	public String getQuery(){
+		return mQuery;
+	}
+
+	// Check if the keyword was found
+	public boolean isFound(){
+		return mFound;
+	}
+
+	// Getter for the number of instances in all (for a pattern query, the instances of every matched keyword)
+	public int getTotalCount(){
+		return mTotalCount;
+	}
+
+	// Getter for the instance number of the first instance of the page (0 is the first)
+	public int getOffset(){
+		return mOffset;
+	}
+
+	// Getter for the page of instances (unmodifiable)
+	public List<KwicHit> getHits(){
+		return mHits;
+	}
+
+	// Getter for the keywords matched by a pattern query (unmodifiable, empty for other queries)
+	public List<String> getMatchedTerms(){
+		return mMatchedTerms;
+	}
+
+	// Getter for the number of instances of a matched keyword
+	public int getMatchedTermCount(int termInd){
+		return mMatchedTermCounts[termInd];
+	}
+
+	// Check if the query ran before the index was done
+	public boolean isPartial(){
+		return mPartial;
+	}
+
+	// Getter for the indexed part of the file when the query ran (0 to 100)
+	public int getIndexPercent(){
+		return mIndexPercent;
+	}
+}
@@ -1,415 +1,2599 @@
-package kwic;
-
-import java.io.BufferedReader;
-import java.io.FileReader;
-import java.io.IOException;
-import java.lang.Math;
-import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Map;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-/**
- * This is the main class for performing a Key Word In Context (KWIC)
- * search on an ASCII file.  It contains the main data structures that 
- * hold the index generated from the text file and provides all the 
- * mechanisms to parse the file, generate the index, and lookup 
- * keywords from the index. 
- * 
- * @author Michael Chalson
- *
- */
-
-public class KwicSearch {
-	// Define the max number of keyword instances we will hold onto
-	private static final int MAX_KEY_COUNT = KwicConstants.MAX_KEY_COUNT;
-	// Define the max number of keyword instances we will display
-	protected static final int MAX_KEY_DISPLAY = KwicConstants.MAX_KEY_DISPLAY;
-	// Define the number of leading and trailing characters that 
-	// make up the "context" of the keyword
-	private static final int CONTEXT_SIZE = KwicConstants.CONTEXT_SIZE;
-	
-	
-	// File name of the file to be indexed (Default to OliverTwist.txt)
-	private String mFileName = "OliverTwist.txt";
-	
-	// Status flag for index generation process
-	private boolean mIndexDone = false;
-	
-	// Worker Thread to generate keyword index
-	private Thread mIndexWorkThread;
-	
-	
-	/* Main keyword index
-	 * This is the main data structure for holding the keyword index
-	 */
-	private Map<String, KeywordContainer> mKeywordMap = new HashMap<String, KeywordContainer>();
-	
-	/* Dead word list
-	 * This is a list of words that have already been seen too many times
-	 * It may be quicker to check this list before attempting to add new 
-	 * words to the main keyword map
-	 */
-	private Set<String> mDeadWordsList = new HashSet<String>();
-	
-	// Define the index worker runnable
-	private class IndexWorker implements Runnable {
-
-		// Define run method
-		@Override
-		public void run() {
-			// Execute code to build the index for the specified text file
-			try{
-				buildIndex();
-			}
-			catch (IOException e){
-				e.printStackTrace();
-			}
-			
-		}
-	}
-
-	
-	// Basic Constructor
-	/*
-	 *  Note: the default file name is "OliverTwist.txt", which
-	 *  may not exist or be findable from the context where this
-	 *  application is run.  This constructor is not used in the 
-	 *  original implementation of the KWIC application 
-	 */
-	public KwicSearch(){
-		// Create worker thread
-		this.mIndexWorkThread = new Thread(new IndexWorker());
-	}
-		
-	// Constructor that sets file name to search
-	public KwicSearch(String fileName){
-		// Set file name to search
-		this.mFileName = fileName;
-		// Create worker thread
-		this.mIndexWorkThread = new Thread(new IndexWorker());
-	}
-	
-	// Method to build the index for the named text file
-	private void buildIndex() throws IOException {
-		// Define file input stream
-		BufferedReader inputStream = null;
-		
-		/*
-		 *  Define Strings to hold lines of text
-		 *  In order to allow context to wrap over line breaks we need
-		 *  to always have "prev" and "next" line data available
-		 */
-		String prevLine = null, currLine = null, nextLine = null;
-		String lineWords, allLines;
-		// Define variables for length of line buffers
-		int prevLen, currLen, nextLen;
-		
-		
-		// Define and initialize line number counter
-		// (count one behind because we need to buffer the input)
-		int lineNum = 0; 
-		
-		// Define loop done flag for main loop over lines in file
-		// Default to true so that if the first readline fails we don't process anything
-		boolean loopDone = true;
-		
-		// Initialize safety counter for while loop
-		// TODO: Consider getting rid of this, it may be sloppy design
-		int safeCntr = 0;
-
-		// --- Define variables used in context string creation ---
-
-		Pattern pattern = Pattern.compile("[a-zA-Z]+'?[a-zA-Z]");
-		Matcher matcher;
-		// Holders for start and stop index from Regex matches
-		int startInd, endInd;
-		// Holder for matched word from Regex
-		String parsedWord;
-		
-		// Holder for length of full buffer
-		int fullLen;
-		// Holders for updated start and end indices of keyword within full buffer
-		int fullStartInd, fullEndInd;
-		
-		// Initialize sizes of left-side and right-side padding strings
-		int leftPadSize = 0, rightPadSize = 0;
-		// Initialize left-side and right-side padding strings
-		String leftPad = "", rightPad = "";
-		// Declare left and right context strings
-		String leftContext, rightContext, fullContext;
-		
-		// Define String to mark line breaks (new line) in context window
-		String lineBreakStr = " ";
-		// ---------- End context string create variables ---------
-		
-		// Define flag to check if last word of prev line wrapped to curr line
-		/*
-		 *  Note: this will probably be handy if I add functionality to handle
-		 *  hyphenated word continuations on the next line 
-		 */
-		boolean wrapWord = false;
-		
-		// Define a KeywordContainer to use
-		KeywordContainer keyContainer = null;
-		
-		/*
-		 * Read in one line at a time from text file and generate keyword index
-		 */
-		try{
-			// Create file input streams
-			inputStream 	= new BufferedReader(new FileReader(mFileName));
-			
-			// Read in first line and initialize buffers 
-			lineWords = cleanupFirstLine(inputStream.readLine());
-			if (lineWords != null){
-				nextLine = lineWords;
-				loopDone = false;
-			}
-			
-			// Loop over lines of text in file
-			while( !loopDone && safeCntr < KwicConstants.MAX_TEXT_LINES){
-				// Increment safety counter
-				// TODO: consider getting rid of this, it may be sloppy
-				safeCntr++;
-				
-				// Get next line from file
-				lineWords = inputStream.readLine();
-				
-				// Check if this is the last pass
-				if (lineWords == null){
-					loopDone = true;
-				} 
-				
-				// Increment line counter (count one behind because we need to buffer the input)
-				lineNum++;
-				
-				// Update line buffers for this round
-				prevLine = currLine;
-				currLine = nextLine;
-				nextLine = lineWords;
-				
-				// Update line buffer metrics
-				prevLen = (prevLine == null) ? 0 : prevLine.length();
-				currLen = (currLine == null) ? 0 : currLine.length();
-				nextLen = (nextLine == null) ? 0 : nextLine.length();
-								
-				
-				//--- Build full buffer ---
-				if (prevLen > 0){
-					allLines = prevLine+lineBreakStr+currLine;
-					prevLen+=lineBreakStr.length();
-				} else {
-					allLines = currLine;
-				}
-				if (nextLen > 0){
-					allLines = allLines+lineBreakStr+nextLine;
-				}
-				// Compute length of full buffer
-				fullLen = allLines.length();
-				
-				
-				// Create pattern matcher for current line
-				matcher = pattern.matcher(currLine);
-				
-				// Loop over matching patterns in current line
-				while (matcher.find()){
-					// Grab keyword
-					parsedWord 	= matcher.group().toLowerCase();
-					// Grab start and end indices of keyword
-					startInd 	= matcher.start();
-					endInd 		= matcher.end();
-										
-					
-					/*
-					 * Check each word in this line, add to Map and increment word count
-					 * 
-					 * This implementation uses a "dead list" and a main index.  
-					 * The idea is that there may be an implementation of a list of "dead"
-					 * words that can be checked more quickly than checking for
-					 * the number of instances of a queried keyword in the main index.  
-					 * Additionally, if a word is known to be "dead", there is no need to
-					 * perform the processing to create the context data.
-					 * For now, the dead list is implemented as a Java HashSet, which
-					 * does not allow duplicate values.  If search times are slow, it
-					 * may be a good idea to switch to a red-black tree or prioritized
-					 * set so that commonly checked words can be found quickly. 
-					 */
-					// Check dead list
-					if (mDeadWordsList.contains(parsedWord)){
-						// This word is already on the dead list
-						
-						// TODO: Do stuff to get more benefit from deadlist
-						
-					} else {
-						// This word is not dead yet
-					
-						//-------- Create context Data --------
-						// Compute new keyword start and stop indices for full buffer
-						fullStartInd 	= startInd + prevLen;
-						fullEndInd 		= endInd + prevLen;
-						
-						/*
-						 * Create any necessary extra white space characters
-						 * 
-						 * If there are not enough extra characters before the 
-						 * keyword in the full buffer, fill the rest of the 
-						 * left-side context buffer with characters.  Likewise 
-						 * fill up the right-side context buffer with extra
-						 * white space characters if necessary 
-						 */
-						leftPadSize = CONTEXT_SIZE-fullStartInd;
-						// Right pad size is N - (len - endInd)
-						rightPadSize = CONTEXT_SIZE - fullLen + fullEndInd;
-						
-						//--- Generate Padding and Context Data ---
-						//-- Left side context 
-						if ( leftPadSize > 0){
-							leftPad = String.format("%1$"+leftPadSize+"s","");
-							leftContext = leftPad+allLines.substring(0, fullStartInd);
-						} else {
-							leftContext = allLines.substring(fullStartInd - CONTEXT_SIZE,fullStartInd);
-						}
-						//-- Right side context
-						if (rightPadSize > 0){
-							rightPad = String.format("%1$"+rightPadSize+"s","");
-							rightContext = allLines.substring(fullEndInd) + rightPad;
-						} else {
-							rightContext = allLines.substring(fullEndInd,fullEndInd + CONTEXT_SIZE);
-						}
-						
-						// Construct full context string
-						fullContext = leftContext+allLines.substring(fullStartInd, fullEndInd)+rightContext;
-						//-------- End Create context Data --------				
-						
-						
-												
-						// Check if this word is already in the index
-						keyContainer = mKeywordMap.get(parsedWord);
-						if (keyContainer == null){
-							// Add this keyword to the index
-							/*
-							 *  Note: building index on all lower case keywords, this will
-							 *  have implications on expected results with regard to
-							 *  case-sensitivity 
-							 */
-							mKeywordMap.put(parsedWord, new KeywordContainer(1,new KeywordData(lineNum,fullContext)));
-						} else {
-							// Add another instance of this keyword to the index
-							keyContainer.incrementWordCount();
-							keyContainer.getDetailList().add(new KeywordData(lineNum,fullContext));
-							
-							// Check if we need to kill this keyword now
-							if (keyContainer.getWordCount()>=MAX_KEY_COUNT){
-								// Add this word to the dead list so we don't keep adding to the index
-								mDeadWordsList.add(parsedWord);
-							}
-						} // End of adding new instance to index	
-					} // End of checking dead list
-					
-				} // End of while loop over matching regex patterns		
-				
-			} // End of while loop over file
-			// Check if we only broke out because of loop limit
-			if (!loopDone){
-				System.out.format("%nThe whole file may not have been indexed."+
-									"%nConsider increasing the MAX_TEXT_LINES variable.%n");
-			}
-			
-		} // End of try block (mostly for inputStream FileReader)
-		/*
-		 * TODO: Consider adding exception handling for some other
-		 * activities going on in here, such as the regex processing
-		 * and potential null pointer issues in the dead list and
-		 * main index
-		 */
-		finally {
-			// Set index finished flag to true
-			mIndexDone = true;
-			
-			if(inputStream != null){
-				inputStream.close();
-			}			
-		}
-	}
-	
-	/*
-	 * Method to implement query processing
-	 */
-	protected void processQueryKeyword(String keyword){
-		int lineNum;
-		int lineNumStrSize = 10;
-		String contextStr;
-		String lineNumStr;
-		String padding;
-		
-		KeywordContainer keyContainer = mKeywordMap.get(keyword.toLowerCase());
-		KeywordData wordData;
-		
-		if (keyContainer == null){
-			// Keyword was not found in index
-			System.out.format("%nSorry, the keyword \""+keyword+"\" was not found in the index");
-		} else {
-			System.out.format("%nThe keyword \""+keyword+"\" was found in the following contexts:%n");
-			// Loop over all found indices of the keyword
-			for (int keywordInd = 0; keywordInd < Math.min(keyContainer.getWordCount(),MAX_KEY_DISPLAY); keywordInd++){
-				// Get the data for this instance of the keyword
-				wordData = keyContainer.getDetailList().get(keywordInd);
-				
-				//--- Get the line number and the context string
-				lineNum = wordData.getLineNubmer();
-				contextStr = wordData.getContextStr();
-				
-				//--- Print the summary for this instance
-				// Format line number string
-				lineNumStr = Integer.toString(lineNum);
-				padding = String.format("%1$"+(lineNumStrSize-lineNumStr.length())+"s","");
-				lineNumStr = lineNumStr+padding;
-				// Print summary
-				System.out.format("%n%s:%s",lineNumStr,contextStr);
-			}
-		}
-	}
-	
-	// Method to start the Index worker thread
-	protected void startIndexWorker(){
-		// Start the indexWorkerThread Thread
-		mIndexWorkThread.start();
-	}
-	
-	// Getter for IndexDone flag
-	protected boolean isIndexDone(){
-		return mIndexDone;
-	}
-	
-	// Setter for IndexDone flag
-	// This should not be needed, but it is available just in case
-	protected void setIndexDone(boolean isDone){
-		mIndexDone = isDone;
-	}
-	
-	// Method to ensure some data quality of the first line in the file
-	protected String cleanupFirstLine(String inStr){
-		String cleanStr = null;
-		// Define known utf Byte Order Markings (BOM) code point
-		int bomCodePoint = 65279;
-		// Grab the first character in the 
-		int firstCode = inStr.codePointAt(0);
-		
-		
-		// Check if first character is BOM and remove it from string if so
-		/*
-		 * If text files are properly saved as ASCII, these characters should not be present,
-		 * but let's check just to be safe.
-		 */
-		if (firstCode == bomCodePoint){
-			cleanStr = inStr.substring(1);
-		} else {
-			cleanStr = inStr;
-		}
-		
-		return cleanStr;
-	}
-}
+package kwic;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.lang.Math;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This is the main class for performing a Key Word In Context (KWIC)
+ * search on an ASCII file.  It contains the main data structures that 
+ * hold the index generated from the text file and provides all the 
+ * mechanisms to parse the file, generate the index, and lookup 
+ * keywords from the index. 
+ * 
+ * The line reader decodes the file with a chosen charset (or the one of
+ * its Byte Order Mark, see KwicLineReader), and Unicode word mode finds
+ * keywords in any script (see KwicTokenizer).
+ * 
+ * Gzip and block gzip (BGZF) files are read directly, see
+ * KwicCompressedInput.  In arena mode the line reader keeps each line
+ * once in a shared text arena instead of a context string per keyword
+ * instance, see KwicTextArena.
+ * 
+ * In pipelined mode reading, tokenizing and index inserts run on their
+ * own threads, linked by bounded queues (see buildIndexPipelined).
+ * 
+ * The query methods (query and forEachHit) are the library API, they
+ * return the instances instead of printing them and can be called from
+ * many threads at once.  processQueryKeyword prints their result.
+ * 
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicSearch {
+	// Define the number of lines handed to the pool at once in parallel mode
+	private static final int PARALLEL_CHUNK_LINES = KwicConstants.PARALLEL_CHUNK_LINES;
+	// Define the number of lines below which a chunk is no longer split
+	private static final int PARALLEL_SPLIT_LINES = KwicConstants.PARALLEL_SPLIT_LINES;
+	// Define how often a followed file is checked for new data
+	private static final long TAIL_POLL_MILLIS = KwicConstants.TAIL_POLL_MILLIS;
+	// Define the size of the read buffer used when following a file
+	private static final int TAIL_READ_BYTES = KwicConstants.TAIL_READ_BYTES;
+	// Define the number of lines indexed between releases of the index lock
+	private static final int INDEX_PUBLISH_LINES = KwicConstants.INDEX_PUBLISH_LINES;
+	// Define the number of lines in a batch of the indexing pipeline
+	private static final int PIPELINE_BATCH_LINES = KwicConstants.PIPELINE_BATCH_LINES;
+	// Define the max number of keywords a pattern query matches
+	protected static final int MAX_PATTERN_TERMS = KwicConstants.MAX_PATTERN_TERMS;
+	// Define the share of the max heap the kept instances may use by default
+	private static final double RETAIN_MEMORY_FRACTION = KwicConstants.RETAIN_MEMORY_FRACTION;
+	
+	
+	// File name of the file to be indexed (Default to OliverTwist.txt)
+	private String mFileName = "OliverTwist.txt";
+	
+	/*
+	 *  Runtime limits (see KwicOptions)
+	 *  They are copied from the options when the search object is created,
+	 *  since the index is sized by them.  mContextSize is the context of
+	 *  the stored context strings, a query can ask for another one.
+	 */
+	private final int mMaxKeyCount;
+	private final int mMaxKeyDisplay;
+	private final int mContextSize;
+	private final long mMaxTextLines;
+	
+	// Status flag for index generation process
+	// (volatile, it is set by the index worker and read by the query thread)
+	private volatile boolean mIndexDone = false;
+	
+	/*
+	 *  Flag set once the index worker has finished
+	 *  The index never changes after that (a followed file is only finished
+	 *  when following stops), so queries read it without the lock.
+	 */
+	private volatile boolean mIndexFinal = false;
+	
+	// Error that stopped the index worker (null if it didn't fail)
+	private volatile IOException mIndexError = null;
+	
+	/*
+	 *  Progress of the index generation process
+	 *  The number of bytes that have been read into the index so far (the
+	 *  line reader runs a little ahead), and the size of the file
+	 */
+	private volatile long mIndexedBytes = 0;
+	private volatile long mTotalBytes = 0;
+	
+	// Flag to build the index on a fork-join pool instead of a single thread
+	private boolean mParallelIndex = false;
+	
+	// Flag to build the index with a reader, tokenizer and indexer pipeline of threads
+	private boolean mPipelinedIndex = false;
+	
+	// Flag to read the file through a memory map instead of a line reader
+	private boolean mMappedInput = false;
+	
+	/*
+	 *  Format of the file (see KwicCompressedInput), found when indexing starts
+	 *  A plain gzip file can only be read in order, so it is always read by
+	 *  the line reader.  A BGZF file can also be kept as a text source.
+	 */
+	private volatile int mInputFormat = KwicCompressedInput.FORMAT_PLAIN;
+	
+	/*
+	 *  Flag to keep the lines in a shared text arena instead of a context
+	 *  string per instance (arena mode, line reader paths only)
+	 *  Each instance then stores the offset of its keyword in the arena
+	 *  (see KwicTextArena), which becomes the text source.
+	 */
+	private boolean mArenaContext = false;
+	
+	// Flag to tokenize with the original regex instead of the hand written scanner
+	private boolean mRegexTokenizer = false;
+	
+	// Name of the charset of the file, null to detect it from the BOM or use the platform default
+	private String mCharsetName = null;
+	// Locale of Unicode word mode, null for ASCII words (see KwicTokenizer)
+	private Locale mWordLocale = null;
+	// Charset appended lines are decoded with (tail mode)
+	private Charset mTailCharset = Charset.defaultCharset();
+	
+	// Flag to save the finished index to a file and reuse it on later runs
+	private boolean mPersistIndex = false;
+	
+	// Saved index file loaded instead of building the index (null if not used)
+	private volatile KwicIndexFile mIndexFile = null;
+	// Flag set when the saved index file turned out to be damaged, it is not loaded again
+	private volatile boolean mIndexFileDamaged = false;
+	
+	// Flag to keep following the file and index appended lines (tail mode)
+	private boolean mTailMode = false;
+	
+	/*
+	 *  Flag to keep the position of every keyword occurrence (positional mode)
+	 *  This reads the file through the memory map, and enables phrase and
+	 *  NEAR queries (see KwicProximityQuery)
+	 */
+	private boolean mPositionalIndex = false;
+	// Positional postings, only built in positional and retain all modes
+	private KwicPostings mPostings = null;
+	
+	/*
+	 *  Flag to keep every instance of every keyword (retain all mode)
+	 *  The instances are kept in the positional postings, and queries page
+	 *  through them (see lookupKeywordPage) instead of stopping at
+	 *  mMaxKeyCount.  The postings stop growing at the memory budget
+	 *  (0 means RETAIN_MEMORY_FRACTION of the max heap).
+	 */
+	private boolean mRetainAll = false;
+	private long mRetainBudgetBytes = 0;
+	
+	/*
+	 *  Tail mode state
+	 *  The byte offset and line number of the indexed part of the file, and
+	 *  the last two indexed lines, which are needed for the contexts of the
+	 *  next appended lines
+	 */
+	private long mTailOffset = 0;
+	private int mTailLineNum = 0;
+	private String mTailPrevLine = null, mTailLastLine = null;
+	private KwicTokenizer mTailTokenizer = null;
+	
+	/*
+	 *  Lock for the main keyword index
+	 *  The index builders hold the write lock and release it after every
+	 *  batch of INDEX_PUBLISH_LINES lines (or every appended batch in tail
+	 *  mode), so queries (read lock) can run on the partial index while it
+	 *  is being built.  The lock is fair, so a waiting query gets in before
+	 *  the builder takes the lock back.
+	 */
+	private final ReentrantReadWriteLock mIndexLock = new ReentrantReadWriteLock(true);
+	
+	/*
+	 *  Text source the index was built from
+	 *  This is only kept for inputs that stay available after indexing
+	 *  (the memory mapped file), so contexts can be built on demand
+	 */
+	private volatile KwicTextSource mTextSource = null;
+	
+	// Worker Thread to generate keyword index
+	private Thread mIndexWorkThread;
+	
+	
+	/* Main keyword index
+	 * This is the main data structure for holding the keyword index
+	 * It also takes the place of the old "dead word" list: a word is dead
+	 * once its word count reaches mMaxKeyCount, which the index checks on
+	 * the same hash probe that finds the word
+	 */
+	private final KeywordIndex mKeywordIndex;
+	
+	// Indexing counters, phase timings and query latencies (see KwicMetrics)
+	private final KwicMetrics mMetrics = new KwicMetrics(this);
+	
+	/*
+	 * Sorted keyword dictionary for pattern queries
+	 * Built on the first pattern query, and again whenever the index
+	 * has gained keywords since (partial index or tail mode)
+	 */
+	private volatile KwicTermDictionary mTermDictionary = null;
+	
+	/*
+	 * Bloom filter of the keywords, so most misses skip the index lookup
+	 * Built once the in-memory index is finished (a followed file never is,
+	 * so it has none), a saved index file keeps its own.
+	 */
+	private volatile KwicBloomFilter mTermFilter = null;
+	
+	// Define the index worker runnable
+	private class IndexWorker implements Runnable {
+
+		// Define run method
+		@Override
+		public void run() {
+			// Execute code to build the index for the specified text file
+			mMetrics.startIndex();
+			try{
+				mInputFormat = KwicCompressedInput.detectFormat(mFileName);
+				mTotalBytes = KwicCompressedInput.estimateSize(mFileName);
+				
+				// Follow the file as it grows (this only returns when following stops)
+				// A compressed file can't be followed, it is indexed once instead
+				if (mTailMode && mInputFormat == KwicCompressedInput.FORMAT_PLAIN){
+					buildIndexTail();
+					return;
+				} else if (mTailMode){
+					System.out.format("%nNote: \"%s\" is %s compressed, it is indexed once instead of followed%n",
+										mFileName, KwicCompressedInput.getFormatName(mInputFormat));
+				}
+				
+				// Use the saved index if it is still valid for this file
+				// (it has no positions, so positional and retain all modes always build the index)
+				if (mPersistIndex && !mIndexFileDamaged && !mPositionalIndex && !mRetainAll && loadIndexFile()){
+					return;
+				}
+				
+				// A plain gzip file can't be kept as a text source, say what is lost
+				if ((mMappedInput || mPositionalIndex || mRetainAll) && !isTextSourceMode()){
+					System.out.format("%nNote: \"%s\" is gzip compressed and can only be read in order, it is read by the line reader"+
+										"%n(phrase, NEAR and --all need a plain text or block gzip file, see bgzip)%n", mFileName);
+				}
+				
+				if (isTextSourceMode()){
+					buildIndexMapped();
+				} else if (mPipelinedIndex){
+					buildIndexPipelined();
+				} else if (mParallelIndex){
+					buildIndexParallel();
+				} else {
+					buildIndex();
+				}
+				
+				// The index won't change any more, filter its keywords for misses
+				mTermFilter = KwicBloomFilter.build(mKeywordIndex);
+				
+				// Save the index for the next run
+				if (mPersistIndex){
+					saveIndexFile();
+				}
+			}
+			catch (IOException e){
+				mIndexError = e;
+				System.err.format("%nCould not index \"%s\": %s%n", mFileName, e.getMessage());
+			}
+			finally {
+				// The builders set this themselves, but the worker can fail before one starts
+				mIndexDone = true;
+				mIndexFinal = true;
+				mMetrics.endIndex();
+			}
+			
+		}
+	}
+
+	
+	// Basic Constructor
+	/*
+	 *  Note: the default file name is "OliverTwist.txt", which
+	 *  may not exist or be findable from the context where this
+	 *  application is run.  This constructor is not used in the 
+	 *  original implementation of the KWIC application 
+	 */
+	public KwicSearch(){
+		this(null, new KwicOptions());
+	}
+		
+	// Constructor that sets file name to search
+	public KwicSearch(String fileName){
+		this(fileName, new KwicOptions());
+	}
+	
+	// Constructor that sets file name to search and the runtime options
+	public KwicSearch(String fileName, KwicOptions options){
+		// Set file name to search (null keeps the default)
+		if (fileName != null){
+			this.mFileName = fileName;
+		}
+		// Copy the limits and size the index from them
+		this.mMaxKeyCount = options.getMaxKeyCount();
+		this.mMaxKeyDisplay = options.getMaxKeyDisplay();
+		this.mContextSize = options.getContextSize();
+		this.mMaxTextLines = options.getMaxTextLines();
+		this.mKeywordIndex = new KeywordIndex(mMaxKeyCount);
+		// Create worker thread
+		this.mIndexWorkThread = new Thread(new IndexWorker());
+	}
+	
+	// Method to build the index for the named text file
+	private void buildIndex() throws IOException {
+		// Define file input stream
+		KwicLineReader inputStream = null;
+		
+		/*
+		 *  Define Strings to hold lines of text
+		 *  In order to allow context to wrap over line breaks we need
+		 *  to always have "prev" and "next" line data available
+		 */
+		String prevLine = null, currLine = null, nextLine = null;
+		String lineWords;
+		
+		// Define the text arena (arena mode) and the arena offsets of the current and next lines
+		KwicTextArena textArena = mArenaContext ? new KwicTextArena() : null;
+		long currStart = -1, nextStart = -1;
+		
+		// Define and initialize line number counter
+		// (count one behind because we need to buffer the input)
+		int lineNum = 0; 
+		
+		// Define loop done flag for main loop over lines in file
+		// Default to true so that if the first readline fails we don't process anything
+		boolean loopDone = true;
+		
+		// Initialize safety counter for while loop
+		// TODO: Consider getting rid of this, it may be sloppy design
+		int safeCntr = 0;
+		
+		// Define the tokenizer that splits lines into keywords
+		KwicTokenizer tokenizer = newTokenizer();
+		
+		// Define start time of a timed read
+		long readStart;
+		
+		/*
+		 * Read in one line at a time from text file and generate keyword index
+		 */
+		mIndexLock.writeLock().lock();
+		try{
+			// Create file input streams
+			inputStream 	= new KwicLineReader(mFileName, mCharsetName);
+			
+			// Contexts are built from the arena when they are displayed
+			if (textArena != null){
+				mTextSource = textArena;
+			}
+			
+			// Read in first line and initialize buffers 
+			lineWords = cleanupFirstLine(inputStream.readLine());
+			if (lineWords != null){
+				nextLine = lineWords;
+				if (textArena != null){
+					nextStart = textArena.appendLine(lineWords);
+				}
+				loopDone = false;
+			}
+			
+			// Loop over lines of text in file
+			while( !loopDone && safeCntr < mMaxTextLines){
+				// Increment safety counter
+				// TODO: consider getting rid of this, it may be sloppy
+				safeCntr++;
+				
+				// Get next line from file (timed on sampled lines, see KwicMetrics)
+				if (KwicMetrics.isSampledLine(lineNum + 2)){
+					readStart = System.nanoTime();
+					lineWords = inputStream.readLine();
+					mMetrics.addReadNanos(System.nanoTime() - readStart);
+				} else {
+					lineWords = inputStream.readLine();
+				}
+				
+				// Check if this is the last pass
+				if (lineWords == null){
+					loopDone = true;
+				} 
+				
+				// Increment line counter (count one behind because we need to buffer the input)
+				lineNum++;
+				
+				// Update line buffers for this round
+				prevLine = currLine;
+				currLine = nextLine;
+				nextLine = lineWords;
+				currStart = nextStart;
+				if (textArena != null && lineWords != null){
+					nextStart = textArena.appendLine(lineWords);
+				}
+				
+				// Add the keywords of the current line to the main index
+				indexLine(prevLine, currLine, nextLine, lineNum, currStart, tokenizer, mKeywordIndex);
+				
+				// Let waiting queries see the index every so often
+				if (lineNum % INDEX_PUBLISH_LINES == 0){
+					publishIndexBatch(inputStream.getBytePosition());
+				}
+				
+			} // End of while loop over file
+			// Check if we only broke out because of loop limit
+			if (!loopDone){
+				System.out.format("%nThe whole file may not have been indexed."+
+									"%nConsider raising the line limit (--max-lines option).%n");
+			}
+			
+		} // End of try block (mostly for inputStream KwicLineReader)
+		/*
+		 * TODO: Consider adding exception handling for some other
+		 * activities going on in here, such as the regex processing
+		 * and potential null pointer issues in the dead list and
+		 * main index
+		 */
+		finally {
+			mIndexLock.writeLock().unlock();
+			
+			// Set index finished flag to true
+			mIndexDone = true;
+			
+			if(inputStream != null){
+				inputStream.close();
+			}			
+		}
+	}
+	
+	/*
+	 * Method to build the index for the named text file on a fork-join pool
+	 * 
+	 * The file is still read on the worker thread, but the lines are handed
+	 * off in chunks of PARALLEL_CHUNK_LINES lines.  The pool threads tokenize
+	 * the chunks and build their context strings straight into one shared
+	 * KwicConcurrentIndex, which is lock-striped, so they don't wait on each
+	 * other or on a merge.  It keeps the first mMaxKeyCount instances of each
+	 * word by their place in the file, whatever order the threads add them
+	 * in, so the main index ends up with exactly the same instances as the 
+	 * sequential buildIndex method.  Each time the oldest chunk is done, the
+	 * instances of the chunks done so far in file order are copied into the
+	 * main index, so queries see a partial index while it is built.  Every chunk
+	 * carries the line before and the line after it, so context windows
+	 * still wrap across chunk boundaries.
+	 */
+	private void buildIndexParallel() throws IOException {
+		// Define file input stream
+		KwicLineReader inputStream = null;
+		// Define the pool that does the tokenizing and context building
+		ForkJoinPool indexPool = new ForkJoinPool();
+		// Define the index all chunks are added to
+		KwicConcurrentIndex sharedIndex = new KwicConcurrentIndex(mMaxKeyCount);
+		
+		/*
+		 *  Define queue of chunks that have been submitted but not published yet
+		 *  Chunks are waited for from the head of the queue so that the 
+		 *  progress is in file order.  The queue length is bounded so the
+		 *  reader can't run too far ahead of the pool.
+		 */
+		Deque<ForkJoinTask<Void>> pendingChunks = new ArrayDeque<ForkJoinTask<Void>>();
+		int maxPendingChunks = 2 * indexPool.getParallelism();
+		// Define queue of byte positions at the end of each pending chunk (for progress)
+		Deque<Long> pendingChunkEnds = new ArrayDeque<Long>();
+		// Define queue of the line numbers just after each pending chunk (for publishing)
+		Deque<Integer> pendingChunkLimits = new ArrayDeque<Integer>();
+		
+		// Define holder for the lines of the chunk being read
+		List<String> chunkLines = new ArrayList<String>(PARALLEL_CHUNK_LINES);
+		// Define the text arena (arena mode) and the arena offsets of the chunk lines
+		KwicTextArena textArena = mArenaContext ? new KwicTextArena() : null;
+		long[] chunkStarts = new long[PARALLEL_CHUNK_LINES];
+		// Define holders for the lines just outside of the current chunk
+		String prevLine = null, nextLine = null;
+		String lineWords;
+		// Line number of the first line in the current chunk
+		int chunkStartLine = 1;
+		// Total number of lines accepted into chunks
+		long lineCount = 0;
+		// Define start time of a timed read
+		long readStart;
+		
+		// Define loop done flag for main loop over lines in file
+		boolean loopDone = false;
+		
+		try{
+			// Create file input streams
+			inputStream 	= new KwicLineReader(mFileName, mCharsetName);
+			
+			// Contexts are built from the arena when they are displayed
+			// (every line is appended before the publish of its chunk releases the lock)
+			if (textArena != null){
+				mTextSource = textArena;
+			}
+			
+			// Loop over lines of text in file
+			while (!loopDone){
+				// Get next line from file (timed on sampled lines, see KwicMetrics)
+				if (KwicMetrics.isSampledLine(lineCount + 1)){
+					readStart = System.nanoTime();
+					lineWords = inputStream.readLine();
+					mMetrics.addReadNanos(System.nanoTime() - readStart);
+				} else {
+					lineWords = inputStream.readLine();
+				}
+				
+				if (lineWords == null){
+					// End of file
+					loopDone = true;
+				} else if (lineCount >= mMaxTextLines){
+					// Line limit reached, only keep this line as context for the last chunk
+					nextLine = lineWords;
+					if (textArena != null){
+						textArena.appendLine(lineWords);
+					}
+					break;
+				} else {
+					if (lineCount == 0){
+						lineWords = cleanupFirstLine(lineWords);
+					}
+					
+					// Hand off the current chunk once it is full and its next line is known
+					if (chunkLines.size() == PARALLEL_CHUNK_LINES){
+						pendingChunks.add(indexPool.submit(
+								new IndexChunkTask(chunkLines.toArray(new String[0]), copyChunkStarts(textArena, chunkStarts, chunkLines.size()),
+										prevLine, lineWords, chunkStartLine, sharedIndex)));
+						pendingChunkEnds.add(inputStream.getBytePosition());
+						pendingChunkLimits.add(chunkStartLine + chunkLines.size());
+						
+						// Start a new chunk
+						prevLine = chunkLines.get(chunkLines.size()-1);
+						chunkStartLine += chunkLines.size();
+						chunkLines.clear();
+						
+						// Wait for the oldest chunk if too many are waiting
+						if (pendingChunks.size() > maxPendingChunks){
+							pendingChunks.poll().join();
+							publishChunks(sharedIndex, pendingChunkEnds.poll(), pendingChunkLimits.poll());
+						}
+					}
+					
+					if (textArena != null){
+						chunkStarts[chunkLines.size()] = textArena.appendLine(lineWords);
+					}
+					chunkLines.add(lineWords);
+					lineCount++;
+				}
+			} // End of while loop over file
+			
+			// Hand off the last (partial) chunk
+			if (!chunkLines.isEmpty()){
+				pendingChunks.add(indexPool.submit(
+						new IndexChunkTask(chunkLines.toArray(new String[0]), copyChunkStarts(textArena, chunkStarts, chunkLines.size()),
+								prevLine, nextLine, chunkStartLine, sharedIndex)));
+				pendingChunkEnds.add(inputStream.getBytePosition());
+				pendingChunkLimits.add(chunkStartLine + chunkLines.size());
+			}
+			
+			// Wait for the rest of the chunks in file order
+			while (!pendingChunks.isEmpty()){
+				pendingChunks.poll().join();
+				publishChunks(sharedIndex, pendingChunkEnds.poll(), pendingChunkLimits.poll());
+			}
+			
+			// Check if we only broke out because of loop limit
+			if (!loopDone){
+				System.out.format("%nThe whole file may not have been indexed."+
+									"%nConsider raising the line limit (--max-lines option).%n");
+			}
+			
+		} // End of try block (mostly for inputStream KwicLineReader)
+		finally {
+			// Release the pool threads
+			indexPool.shutdownNow();
+			
+			// Set index finished flag to true
+			mIndexDone = true;
+			
+			if(inputStream != null){
+				inputStream.close();
+			}
+		}
+	}
+	
+	// Method to copy the arena offsets of the lines of a chunk, null without an arena
+	private static long[] copyChunkStarts(KwicTextArena textArena, long[] chunkStarts, int lineCount){
+		return (textArena == null) ? null : Arrays.copyOf(chunkStarts, lineCount);
+	}
+	
+	/*
+	 * Method to copy the keywords the chunks changed into the main index, once a chunk is done
+	 * Every chunk before line limitLineNum is done, and only their instances
+	 * are copied, so a query never sees an instance that an earlier chunk
+	 * may still replace.
+	 */
+	private void publishChunks(KwicConcurrentIndex sharedIndex, long chunkEndBytes, int limitLineNum){
+		mIndexLock.writeLock().lock();
+		try {
+			sharedIndex.publishTo(mKeywordIndex, KwicConcurrentIndex.sequenceKey(limitLineNum, 0));
+			mIndexedBytes = chunkEndBytes;
+		} finally {
+			mIndexLock.writeLock().unlock();
+		}
+	}
+	
+	/*
+	 * Method to build the index with a pipeline of threads (pipelined mode)
+	 * 
+	 * The work of buildIndex is split into three stages:
+	 *   - a reader thread reads and decodes the lines (and appends them to
+	 *     the text arena in arena mode), in batches of PIPELINE_BATCH_LINES
+	 *   - a pool of tokenizer threads finds the keywords of each batch and
+	 *     turns them into compact records with their hashes (see
+	 *     KwicTokenBatch)
+	 *   - this thread adds the records to the index in file order, and
+	 *     builds the context strings of the instances it keeps
+	 * The reader puts the pending result of each batch into a bounded queue
+	 * (a ring buffer) in file order, so the indexer takes the batches in
+	 * order however the tokenizers finish, and the reader waits once the
+	 * indexer is a full queue behind.  Only this thread ever touches the
+	 * index, it holds the write lock like buildIndex and releases it
+	 * after every batch.
+	 */
+	private void buildIndexPipelined() throws IOException {
+		// Define the number of tokenizer threads, the reader and the indexer have one each
+		int tokenizerCount = Math.max(1, Runtime.getRuntime().availableProcessors() - 2);
+		// Define the queue of batches from the reader to the indexer
+		BlockingQueue<Future<KwicTokenBatch>> batchQueue = new ArrayBlockingQueue<Future<KwicTokenBatch>>(2*tokenizerCount + 2);
+		// Define the pool of tokenizer threads
+		ExecutorService tokenizerPool = Executors.newFixedThreadPool(tokenizerCount, new ThreadFactory(){
+			private final AtomicInteger mThreadCount = new AtomicInteger();
+			
+			@Override
+			public Thread newThread(Runnable task){
+				Thread thread = new Thread(task, "kwic-tokenizer-" + mThreadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		// Define the text arena (arena mode)
+		KwicTextArena textArena = mArenaContext ? new KwicTextArena() : null;
+		// Define the reader stage and its thread
+		PipelineReader reader = new PipelineReader(batchQueue, tokenizerPool, textArena);
+		Thread readerThread = new Thread(reader, "kwic-reader");
+		KwicTokenBatch batch;
+		
+		// Contexts are built from the arena when they are displayed
+		if (textArena != null){
+			mTextSource = textArena;
+		}
+		
+		try {
+			readerThread.setDaemon(true);
+			readerThread.start();
+			
+			// Index the batches in file order until the reader is done
+			// The write lock is only held to add a batch, queries don't wait while the next one is read and tokenized
+			while ((batch = takeBatch(batchQueue)) != null){
+				mIndexLock.writeLock().lock();
+				try {
+					indexBatch(batch);
+					mIndexedBytes = batch.getEndBytes();
+				} finally {
+					mIndexLock.writeLock().unlock();
+				}
+			}
+			reader.checkError();
+			
+			// Check if the reader only stopped because of the line limit
+			if (reader.isLineLimitHit()){
+				System.out.format("%nThe whole file may not have been indexed."+
+									"%nConsider raising the line limit (--max-lines option).%n");
+			}
+		} finally {
+			// Stop the other stages (if the indexer stopped early)
+			readerThread.interrupt();
+			tokenizerPool.shutdownNow();
+			
+			// Set index finished flag to true
+			mIndexDone = true;
+		}
+	}
+	
+	/*
+	 * Method to take the next batch from the pipeline queue, waiting for it
+	 * to be tokenized
+	 * Returns null once the reader is done.
+	 */
+	private static KwicTokenBatch takeBatch(BlockingQueue<Future<KwicTokenBatch>> batchQueue) throws IOException {
+		try {
+			return batchQueue.take().get();
+		} catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while indexing", e);
+		} catch (ExecutionException e){
+			throw new IOException("Could not tokenize a batch of lines", e.getCause());
+		}
+	}
+	
+	/*
+	 * Method to add the keyword records of a tokenized batch to the main index
+	 * This is indexLine without the tokenizing.  The context buffer of a
+	 * line is only joined when one of its keywords is kept, so lines of dead
+	 * words cost just the hash probes.
+	 */
+	private void indexBatch(KwicTokenBatch batch){
+		char[] termChars = batch.getTermChars();
+		int recordInd = 0, lineRecordStart, lineRecordEnd, termId, lineNum, prevLen, keyStart, keyEnd, deadCount;
+		long lineStart, insertStart;
+		String allLines;
+		boolean isTimed;
+		
+		for (int lineInd = 0; lineInd < batch.getLineCount(); lineInd++){
+			lineNum = batch.getLineNum(lineInd);
+			lineStart = batch.getLineStart(lineInd);
+			lineRecordStart = recordInd;
+			lineRecordEnd = batch.getLineRecordEnd(lineInd);
+			prevLen = contextLineOffset(batch.getPrevLine(lineInd));
+			allLines = null;
+			deadCount = 0;
+			// Phase timing, only on sampled lines (see KwicMetrics)
+			isTimed = KwicMetrics.isSampledLine(lineNum);
+			insertStart = isTimed ? System.nanoTime() : 0;
+			
+			for (; recordInd < lineRecordEnd; recordInd++){
+				// The hash was worked out by the tokenizer stage
+				termId = mKeywordIndex.findOrAdd(termChars, batch.getTermStart(recordInd), batch.getTermLength(recordInd),
+						batch.getTermHash(recordInd));
+				mKeywordIndex.countOccurrence(termId);
+				if (mKeywordIndex.isDead(termId)){
+					deadCount++;
+					continue;
+				}
+				
+				keyStart = batch.getKeyStart(recordInd);
+				keyEnd = batch.getKeyEnd(recordInd);
+				if (lineStart >= 0){
+					// Arena mode, the context is built from the arena when displayed
+					mKeywordIndex.addInstance(termId, new KeywordData(lineNum, lineStart + keyStart, keyEnd - keyStart));
+				} else {
+					if (allLines == null){
+						allLines = joinContextLines(batch.getPrevLine(lineInd), batch.getLine(lineInd), batch.getNextLine(lineInd));
+					}
+					mKeywordIndex.addInstance(termId, new KeywordData(lineNum,
+							buildContextStr(allLines, mContextSize, keyStart + prevLen, keyEnd + prevLen)));
+				}
+			}
+			// Count the line with its line break
+			mMetrics.addLine(batch.getLine(lineInd).length() + 1, lineRecordEnd - lineRecordStart, deadCount);
+			if (isTimed){
+				mMetrics.addPhaseNanos(0, 0, System.nanoTime() - insertStart);
+			}
+		}
+	}
+	
+	/*
+	 * Reader stage of the indexing pipeline (see buildIndexPipelined)
+	 * Reads the lines of the file into batches, hands each batch to the
+	 * tokenizer pool and queues its pending result in file order.  A batch
+	 * is handed on once the line after it is read (for the contexts of its
+	 * last line).  A null batch marks the end.
+	 */
+	private class PipelineReader implements Runnable {
+		// Queue to the indexer and the tokenizer pool
+		private final BlockingQueue<Future<KwicTokenBatch>> mBatchQueue;
+		private final ExecutorService mTokenizerPool;
+		// Text arena (arena mode, otherwise null), only this thread appends to it
+		private final KwicTextArena mTextArena;
+		// Error that stopped the reader, and flag for stopping at the line limit
+		private volatile IOException mError = null;
+		private volatile boolean mLineLimitHit = false;
+		
+		// Constructor
+		private PipelineReader(BlockingQueue<Future<KwicTokenBatch>> batchQueue, ExecutorService tokenizerPool,
+				KwicTextArena textArena){
+			this.mBatchQueue = batchQueue;
+			this.mTokenizerPool = tokenizerPool;
+			this.mTextArena = textArena;
+		}
+		
+		@Override
+		public void run(){
+			KwicLineReader inputStream = null;
+			// Lines of the batch being read and their arena offsets
+			String[] batchLines = new String[PIPELINE_BATCH_LINES];
+			long[] batchStarts = (mTextArena == null) ? null : new long[PIPELINE_BATCH_LINES];
+			int batchLineCount = 0, batchStartLine = 1;
+			// Lines just outside of the current batch
+			String prevLine = null, nextLine = null;
+			String lineWords;
+			long lineCount = 0, readStart;
+			boolean isInterrupted = false;
+			
+			try {
+				inputStream = new KwicLineReader(mFileName, mCharsetName);
+				while (true){
+					// Get next line from file (timed on sampled lines, see KwicMetrics)
+					if (KwicMetrics.isSampledLine(lineCount + 1)){
+						readStart = System.nanoTime();
+						lineWords = inputStream.readLine();
+						mMetrics.addReadNanos(System.nanoTime() - readStart);
+					} else {
+						lineWords = inputStream.readLine();
+					}
+					
+					if (lineWords == null){
+						// End of file
+						break;
+					} else if (lineCount >= mMaxTextLines){
+						// Line limit reached, only keep this line as context for the last batch
+						nextLine = lineWords;
+						if (mTextArena != null){
+							mTextArena.appendLine(lineWords);
+						}
+						mLineLimitHit = true;
+						break;
+					}
+					if (lineCount == 0){
+						lineWords = cleanupFirstLine(lineWords);
+					}
+					
+					// Hand off the current batch once it is full and its next line is known
+					if (batchLineCount == PIPELINE_BATCH_LINES){
+						queueBatch(new KwicTokenBatch(batchLines, batchStarts, batchLineCount, prevLine, lineWords,
+								batchStartLine, inputStream.getBytePosition()));
+						prevLine = batchLines[batchLineCount - 1];
+						batchStartLine += batchLineCount;
+						batchLines = new String[PIPELINE_BATCH_LINES];
+						batchStarts = (mTextArena == null) ? null : new long[PIPELINE_BATCH_LINES];
+						batchLineCount = 0;
+					}
+					
+					if (mTextArena != null){
+						batchStarts[batchLineCount] = mTextArena.appendLine(lineWords);
+					}
+					batchLines[batchLineCount++] = lineWords;
+					lineCount++;
+				}
+				
+				// Hand off the last (partial) batch
+				if (batchLineCount > 0){
+					queueBatch(new KwicTokenBatch(batchLines, batchStarts, batchLineCount, prevLine, nextLine,
+							batchStartLine, inputStream.getBytePosition()));
+				}
+			} catch (IOException e){
+				mError = e;
+			} catch (InterruptedException e){
+				// The indexer stopped, nobody takes the end marker
+				isInterrupted = true;
+			} finally {
+				try {
+					if (inputStream != null){
+						inputStream.close();
+					}
+				} catch (IOException e){
+					e.printStackTrace();
+				}
+				if (!isInterrupted){
+					try {
+						mBatchQueue.put(CompletableFuture.completedFuture((KwicTokenBatch) null));
+					} catch (InterruptedException e){
+						// The indexer stopped
+					}
+				}
+			}
+		}
+		
+		// Method to start tokenizing a batch and queue its result for the indexer (waits while the queue is full)
+		private void queueBatch(KwicTokenBatch batch) throws InterruptedException {
+			mBatchQueue.put(mTokenizerPool.submit(new TokenizeBatchTask(batch)));
+		}
+		
+		// Method to rethrow the error that stopped the reader, if any
+		private void checkError() throws IOException {
+			if (mError != null){
+				throw mError;
+			}
+		}
+		
+		// Check if the reader stopped at the line limit
+		private boolean isLineLimitHit(){
+			return mLineLimitHit;
+		}
+	}
+	
+	/*
+	 * Tokenizer stage of the indexing pipeline (see buildIndexPipelined)
+	 * Finds the keywords of every line of a batch and adds their records,
+	 * with the hash the index will look them up by.
+	 */
+	private class TokenizeBatchTask implements Callable<KwicTokenBatch> {
+		// Batch to tokenize
+		private final KwicTokenBatch mBatch;
+		
+		// Constructor
+		private TokenizeBatchTask(KwicTokenBatch batch){
+			this.mBatch = batch;
+		}
+		
+		@Override
+		public KwicTokenBatch call(){
+			KwicTokenizer tokenizer = newTokenizer();
+			char[] termBuffer;
+			int termLength;
+			boolean isTimed;
+			long tokenizeStart;
+			
+			for (int lineInd = 0; lineInd < mBatch.getLineCount(); lineInd++){
+				// Phase timing, only on sampled lines (see KwicMetrics)
+				isTimed = KwicMetrics.isSampledLine(mBatch.getLineNum(lineInd));
+				tokenizeStart = isTimed ? System.nanoTime() : 0;
+				
+				tokenizer.reset(mBatch.getLine(lineInd));
+				while (tokenizer.next()){
+					termBuffer = tokenizer.getTermBuffer();
+					termLength = tokenizer.getTermLength();
+					mBatch.addRecord(termBuffer, termLength, KeywordIndex.hashChars(termBuffer, 0, termLength),
+							tokenizer.getTermStart(), tokenizer.getTermEnd());
+				}
+				mBatch.endLine(lineInd);
+				
+				if (isTimed){
+					mMetrics.addPhaseNanos(System.nanoTime() - tokenizeStart, 0, 0);
+				}
+			}
+			return mBatch;
+		}
+	}
+	
+	/*
+	 * Method to build the index for the named text file from a memory map
+	 * 
+	 * The file is mapped with NIO and scanned byte by byte.  Line boundaries
+	 * and keyword positions are kept as offsets into the mapping and the 
+	 * tokenizer runs over a reusable view of the current line, so no String
+	 * is created for a line or a keyword.  Each keyword instance only stores
+	 * its line number and offset.  The mapping is kept after indexing and the
+	 * context string is built from it when the instance is displayed.
+	 * This path is meant for ASCII input, where one byte is one character.
+	 */
+	private void buildIndexMapped() throws IOException {
+		// Say so if the file is in a charset that needs decoding (a UTF-8 BOM is fine for ASCII text)
+		Charset charset = KwicLineReader.detectCharset(mFileName, mCharsetName);
+		if (!KwicLineReader.isSingleByte(charset) && (mCharsetName != null || !charset.equals(StandardCharsets.UTF_8))){
+			System.out.format("%nNote: \"%s\" is read one byte per character, its %s text is not decoded"+
+								"%n(leave out the --mmap, --positions and --all options to decode it)%n", mFileName, charset.name());
+		}
+		
+		// Define mapped view of the file
+		KwicTextSource textSource;
+		// Define reusable view of the current line for the tokenizer
+		KwicTextSource.SpanView lineView;
+		KwicTokenizer tokenizer = newTokenizer();
+		
+		// Holders for the start and end offsets of the current line
+		long lineStart, lineEnd;
+		// Holder for term id of the parsed keyword
+		int termId;
+		
+		// Define and initialize line number counter
+		int lineNum = 0;
+		
+		// Counters of keywords and dead word hits on the current line, and phase timing (see KwicMetrics)
+		int tokenCount, deadCount;
+		boolean isTimed;
+		long lastTime = 0, time, readNanos = 0, tokenizeNanos = 0, insertNanos = 0;
+		
+		// Define positional postings (positional and retain all modes) and keyword position counter
+		KwicPostings postings = (mPositionalIndex || mRetainAll) ? new KwicPostings(getRetainBudget()) : null;
+		long tokenPos = 0;
+		
+		mIndexLock.writeLock().lock();
+		try {
+			textSource = KwicCompressedInput.openTextSource(mFileName);
+			mTextSource = textSource;
+			mPostings = postings;
+			lineView = textSource.new SpanView();
+			
+			lineStart = textSource.getDataStart();
+			
+			// Loop over lines of text in file
+			while (lineStart < textSource.getDataEnd() && lineNum < mMaxTextLines){
+				lineNum++;
+				tokenCount = 0;
+				deadCount = 0;
+				isTimed = KwicMetrics.isSampledLine(lineNum);
+				if (isTimed){
+					lastTime = System.nanoTime();
+					tokenizeNanos = 0;
+					insertNanos = 0;
+				}
+				lineEnd = textSource.findLineEnd(lineStart);
+				if (isTimed){
+					time = System.nanoTime();
+					readNanos = time - lastTime;
+					lastTime = time;
+				}
+				
+				// Point the tokenizer at the current line
+				lineView.setSpan(lineStart, lineEnd);
+				tokenizer.reset(lineView);
+				
+				// Loop over keywords in current line
+				while (tokenizer.next()){
+					if (isTimed){
+						time = System.nanoTime();
+						tokenizeNanos += time - lastTime;
+						lastTime = time;
+					}
+					tokenCount++;
+					
+					// Look up keyword straight from the tokenizer buffer
+					termId = mKeywordIndex.findOrAdd(tokenizer.getTermBuffer(), 0, tokenizer.getTermLength());
+					mKeywordIndex.countOccurrence(termId);
+					
+					// Check if dead, then store just the position of the instance
+					if (!mKeywordIndex.isDead(termId)){
+						mKeywordIndex.addInstance(termId,
+								new KeywordData(lineNum, lineStart + tokenizer.getTermStart(),
+										tokenizer.getTermEnd() - tokenizer.getTermStart()));
+					} else {
+						deadCount++;
+					}
+					
+					// Keep every occurrence in positional and retain all modes
+					if (postings != null){
+						postings.add(termId, tokenPos++, lineNum, lineStart + tokenizer.getTermStart());
+					}
+					
+					if (isTimed){
+						time = System.nanoTime();
+						insertNanos += time - lastTime;
+						lastTime = time;
+					}
+				}
+				
+				lineEnd = textSource.nextLineStart(lineEnd);
+				
+				// Count the line with its line break, the contexts are only built when they are displayed
+				mMetrics.addLine(lineEnd - lineStart, tokenCount, deadCount);
+				lineStart = lineEnd;
+				if (isTimed){
+					mMetrics.addReadNanos(readNanos);
+					mMetrics.addPhaseNanos(tokenizeNanos + System.nanoTime() - lastTime, 0, insertNanos);
+				}
+				
+				// Let waiting queries see the index every so often
+				if (lineNum % INDEX_PUBLISH_LINES == 0){
+					publishIndexBatch(lineStart);
+				}
+			} // End of while loop over file
+			
+			// Check if we only broke out because of loop limit
+			if (lineStart < textSource.getDataEnd()){
+				System.out.format("%nThe whole file may not have been indexed."+
+									"%nConsider raising the line limit (--max-lines option).%n");
+			}
+			
+			if (postings != null){
+				postings.trimToSize();
+				if (postings.getFullLine() > 0){
+					System.out.format("%nThe memory budget of %d MB for keyword instances was used up at line %d."+
+										"%nLater instances are not kept, consider a bigger --budget.%n",
+										getRetainBudget() >> 20, postings.getFullLine());
+				}
+			}
+		} finally {
+			mIndexLock.writeLock().unlock();
+			
+			// Set index finished flag to true
+			mIndexDone = true;
+		}
+	}
+	
+	/*
+	 * Method to let queries in between two batches of the index builder
+	 * The caller holds the write lock.  It is released so that any waiting
+	 * query (fair lock) runs on the partial index, and then taken back.
+	 */
+	private void publishIndexBatch(long indexedBytes){
+		mIndexedBytes = indexedBytes;
+		mIndexLock.writeLock().unlock();
+		mIndexLock.writeLock().lock();
+	}
+	
+	/*
+	 * Method to build the index and then keep following the file (tail mode)
+	 * 
+	 * This is meant for files that only grow, such as logs.  The file is
+	 * read in byte batches from the last indexed offset, and only complete
+	 * (line break terminated) lines are indexed.  After the first pass the
+	 * index is marked done, and the file is then polled for appended data,
+	 * which is indexed into the live index under the write lock.  The cost
+	 * of an update depends only on the size of the appended data.
+	 * 
+	 * The last line of each update has no next line yet, so the contexts
+	 * of its instances are rebuilt once the next line arrives.
+	 */
+	private void buildIndexTail() throws IOException {
+		FileChannel channel = null;
+		// Define read buffer, holds any incomplete line between reads
+		ByteBuffer readBuffer = ByteBuffer.allocate(TAIL_READ_BYTES);
+		// Define the offset in the file up to which bytes have been read
+		long readOffset = mTailOffset;
+		// Define holders for the complete lines of one read
+		List<String> newLines = new ArrayList<String>();
+		long fileSize;
+		
+		// Lines are split on their line break bytes, which only works for ASCII compatible charsets
+		mTailCharset = KwicLineReader.detectCharset(mFileName, mCharsetName);
+		if (mTailCharset.name().startsWith("UTF-16") || mTailCharset.name().startsWith("UTF-32")){
+			System.out.format("%nNote: \"%s\" is %s text, its lines can't be split while following it%n",
+								mFileName, mTailCharset.name());
+		}
+		mTailTokenizer = newTokenizer();
+		
+		try {
+			channel = FileChannel.open(Paths.get(mFileName), StandardOpenOption.READ);
+			
+			while (!Thread.currentThread().isInterrupted()){
+				fileSize = channel.size();
+				mTotalBytes = fileSize;
+				
+				// A shrinking file was truncated or replaced, stop following it
+				if (fileSize < readOffset){
+					System.out.format("%nThe file \"%s\" got shorter, no longer following it.%n", mFileName);
+					break;
+				}
+				
+				if (fileSize > readOffset){
+					// Make room if a single line is longer than the buffer
+					if (!readBuffer.hasRemaining()){
+						ByteBuffer biggerBuffer = ByteBuffer.allocate(2*readBuffer.capacity());
+						readBuffer.flip();
+						biggerBuffer.put(readBuffer);
+						readBuffer = biggerBuffer;
+					}
+					
+					// Read the next batch of appended bytes
+					readOffset += Math.max(0, channel.read(readBuffer, readOffset));
+					readBuffer.flip();
+					splitCompleteLines(readBuffer, newLines);
+					readBuffer.compact();
+					
+					if (!newLines.isEmpty()){
+						indexAppendedLines(newLines);
+						newLines.clear();
+					}
+				} else {
+					// Caught up with the file, queries can run now
+					mIndexDone = true;
+					try {
+						Thread.sleep(TAIL_POLL_MILLIS);
+					} catch (InterruptedException e){
+						break;
+					}
+				}
+			}
+		} finally {
+			// Set index finished flag to true
+			mIndexDone = true;
+			
+			if (channel != null){
+				channel.close();
+			}
+		}
+	}
+	
+	/*
+	 * Method to split the complete lines off the front of a byte buffer
+	 * Line breaks are "\n", "\r" or "\r\n", like BufferedReader.readLine.
+	 * A "\r" at the very end of the buffer is not treated as complete yet,
+	 * since it could be the first half of "\r\n".  The buffer position is
+	 * left at the start of the first incomplete line, and mTailOffset is
+	 * moved past the consumed bytes.
+	 */
+	private void splitCompleteLines(ByteBuffer buffer, List<String> lines){
+		byte[] bytes = buffer.array();
+		int lineStart = buffer.position();
+		int limit = buffer.limit();
+		int pos = lineStart;
+		int lineEnd;
+		String line;
+		
+		while (pos < limit){
+			if (bytes[pos] == '\n' || bytes[pos] == '\r'){
+				if (bytes[pos] == '\r' && pos + 1 == limit){
+					// Can't tell if this is "\r\n" yet
+					break;
+				}
+				lineEnd = pos;
+				pos += (bytes[pos] == '\r' && bytes[pos+1] == '\n') ? 2 : 1;
+				
+				// Decode the line with the charset of the file
+				line = new String(bytes, lineStart, lineEnd - lineStart, mTailCharset);
+				if (mTailLineNum == 0 && lines.isEmpty()){
+					line = cleanupFirstLine(line);
+				}
+				lines.add(line);
+				
+				mTailOffset += pos - lineStart;
+				lineStart = pos;
+			} else {
+				pos++;
+			}
+		}
+		buffer.position(lineStart);
+	}
+	
+	// Method to add appended lines to the live index
+	private void indexAppendedLines(List<String> newLines){
+		String prevLine = mTailPrevLine, currLine = mTailLastLine, nextLine;
+		
+		mIndexLock.writeLock().lock();
+		try {
+			// The old last line now has a next line, fix its contexts
+			if (mTailLastLine != null){
+				refreshLineContexts(mTailPrevLine, mTailLastLine, newLines.get(0), mTailLineNum);
+			}
+			
+			// Index the new lines
+			for (int lineInd = 0; lineInd < newLines.size(); lineInd++){
+				prevLine = currLine;
+				currLine = newLines.get(lineInd);
+				nextLine = (lineInd + 1 < newLines.size()) ? newLines.get(lineInd + 1) : null;
+				mTailLineNum++;
+				indexLine(prevLine, currLine, nextLine, mTailLineNum, -1, mTailTokenizer, mKeywordIndex);
+			}
+			
+			mTailPrevLine = prevLine;
+			mTailLastLine = currLine;
+			mIndexedBytes = mTailOffset;
+		} finally {
+			mIndexLock.writeLock().unlock();
+		}
+	}
+	
+	/*
+	 * Method to rebuild the context strings of the instances on one line
+	 * The line is tokenized again, and the n-th occurrence of a keyword on
+	 * the line is matched with the n-th stored instance of that keyword on
+	 * the same line number.  Instances that were never stored (dead words)
+	 * are simply not found.
+	 */
+	private void refreshLineContexts(String prevLine, String currLine, String nextLine, int lineNum){
+		String allLines = joinContextLines(prevLine, currLine, nextLine);
+		int prevLen = contextLineOffset(prevLine);
+		// Number of times each keyword has been seen on this line so far
+		Map<Integer, Integer> seenCounts = new HashMap<Integer, Integer>();
+		Integer seenCount;
+		KeywordData wordData;
+		int termId, skip;
+		
+		mTailTokenizer.reset(currLine);
+		while (mTailTokenizer.next()){
+			termId = mKeywordIndex.find(mTailTokenizer.getTermBuffer(), 0, mTailTokenizer.getTermLength());
+			if (termId < 0){
+				continue;
+			}
+			seenCount = seenCounts.get(termId);
+			skip = (seenCount == null) ? 0 : seenCount;
+			seenCounts.put(termId, skip + 1);
+			
+			// Find the matching instance on this line
+			for (int detailInd = 0; detailInd < mKeywordIndex.getWordCount(termId); detailInd++){
+				wordData = mKeywordIndex.getInstance(termId, detailInd);
+				if (wordData.getLineNubmer() == lineNum && skip-- == 0){
+					wordData.setContextStr(buildContextStr(allLines, mContextSize,
+							mTailTokenizer.getTermStart() + prevLen, mTailTokenizer.getTermEnd() + prevLen));
+					break;
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Method to add all keywords of one line to a keyword index
+	 * 
+	 * This holds the tokenizing and context string creation for a single
+	 * line so that the sequential index builder and the tail follower share
+	 * it (the parallel builder has indexLineShared).  The tokenizer is
+	 * passed in, since each thread needs its own.  In arena mode lineStart
+	 * is the offset of the current line in the text arena and only the 
+	 * keyword offsets are stored, otherwise it is -1 and the context 
+	 * strings are built.
+	 */
+	private void indexLine(String prevLine, String currLine, String nextLine, int lineNum, long lineStart,
+			KwicTokenizer tokenizer, KeywordIndex keywordIndex){
+		// Define the full buffer of prev, curr and next lines for the context
+		String allLines;
+		// Offset of the current line within the full buffer
+		int prevLen;
+		
+		// Holders for start and stop index of keyword in current line
+		int startInd, endInd;
+		// Holder for term id of parsed keyword
+		int termId;
+		// Holder for context string
+		String fullContext;
+		
+		// Counters of keywords and dead word hits on this line (for the metrics)
+		int tokenCount = 0, deadCount = 0;
+		// Phase timing, only on sampled lines (see KwicMetrics)
+		boolean isTimed = KwicMetrics.isSampledLine(lineNum);
+		long lastTime = isTimed ? System.nanoTime() : 0, time;
+		long tokenizeNanos = 0, contextNanos = 0, insertNanos = 0;
+		
+		//--- Build full buffer (not needed in arena mode) ---
+		allLines = (lineStart < 0) ? joinContextLines(prevLine, currLine, nextLine) : null;
+		prevLen = contextLineOffset(prevLine);
+		
+		
+		// Point the tokenizer at the current line
+		tokenizer.reset(currLine);
+		if (isTimed){
+			time = System.nanoTime();
+			contextNanos += time - lastTime;
+			lastTime = time;
+		}
+		
+		// Loop over keywords in current line
+		while (tokenizer.next()){
+			if (isTimed){
+				time = System.nanoTime();
+				tokenizeNanos += time - lastTime;
+				lastTime = time;
+			}
+			tokenCount++;
+			
+			// Look up keyword (already lower case) straight from the tokenizer buffer
+			termId 		= keywordIndex.findOrAdd(tokenizer.getTermBuffer(), 0, tokenizer.getTermLength());
+			// Count every occurrence, the term frequencies include dead words
+			keywordIndex.countOccurrence(termId);
+			// Grab start and end indices of keyword
+			startInd 	= tokenizer.getTermStart();
+			endInd 		= tokenizer.getTermEnd();
+			
+			
+			/*
+			 * Check each word in this line, add to index and increment word count
+			 * 
+			 * If a word is known to be "dead", i.e. it already has mMaxKeyCount
+			 * instances, there is no need to perform the processing to create
+			 * the context data.  The index answers this from the word count of 
+			 * the term id it just found, so there is no second lookup in a 
+			 * separate dead list.
+			 */
+			// Check if dead
+			if (keywordIndex.isDead(termId)){
+				// This word is already on the dead list
+				deadCount++;
+				
+				// TODO: Do stuff to get more benefit from deadlist
+				
+			} else {
+				// This word is not dead yet
+				
+				// Create context Data and add this instance to the index
+				if (isTimed){
+					time = System.nanoTime();
+					insertNanos += time - lastTime;
+					lastTime = time;
+				}
+				if (lineStart >= 0){
+					// Arena mode, the context is built from the arena when displayed
+					keywordIndex.addInstance(termId, new KeywordData(lineNum, lineStart + startInd, endInd - startInd));
+				} else {
+					fullContext = buildContextStr(allLines, mContextSize, startInd + prevLen, endInd + prevLen);
+					if (isTimed){
+						time = System.nanoTime();
+						contextNanos += time - lastTime;
+						lastTime = time;
+					}
+					keywordIndex.addInstance(termId, new KeywordData(lineNum,fullContext));
+				}
+			} // End of checking dead list
+			
+			if (isTimed){
+				time = System.nanoTime();
+				insertNanos += time - lastTime;
+				lastTime = time;
+			}
+		} // End of while loop over keywords		
+		
+		// Count the line with its line break
+		mMetrics.addLine(currLine.length() + 1, tokenCount, deadCount);
+		if (isTimed){
+			// The last call to next() found no keyword
+			tokenizeNanos += System.nanoTime() - lastTime;
+			mMetrics.addPhaseNanos(tokenizeNanos, contextNanos, insertNanos);
+		}
+	}
+	
+	/*
+	 * Method to add all keywords of one line to the shared index of the
+	 * parallel builder
+	 * This is indexLine for a KwicConcurrentIndex, which other threads add
+	 * to at the same time.  Each instance comes with its sequence key, and
+	 * is only built if the index would keep it.  The context buffer of the
+	 * line is only joined when one of its keywords is kept.
+	 */
+	private void indexLineShared(String prevLine, String currLine, String nextLine, int lineNum, long lineStart,
+			KwicTokenizer tokenizer, KwicConcurrentIndex sharedIndex){
+		String allLines = null;
+		int prevLen = contextLineOffset(prevLine);
+		char[] termBuffer;
+		int termLength, termHash, startInd, endInd;
+		long seqKey;
+		KeywordData wordData;
+		// Counters of keywords and dead word hits on this line (for the metrics)
+		int tokenCount = 0, deadCount = 0;
+		// Phase timing, only on sampled lines (see KwicMetrics)
+		boolean isTimed = KwicMetrics.isSampledLine(lineNum);
+		long lineTime = isTimed ? System.nanoTime() : 0;
+		
+		tokenizer.reset(currLine);
+		while (tokenizer.next()){
+			tokenCount++;
+			termBuffer = tokenizer.getTermBuffer();
+			termLength = tokenizer.getTermLength();
+			termHash = KeywordIndex.hashChars(termBuffer, 0, termLength);
+			startInd = tokenizer.getTermStart();
+			endInd = tokenizer.getTermEnd();
+			seqKey = KwicConcurrentIndex.sequenceKey(lineNum, startInd);
+			
+			// Count every occurrence, and skip the instance if it would be dropped
+			if (!sharedIndex.countOccurrence(termBuffer, termLength, termHash, seqKey)){
+				deadCount++;
+				continue;
+			}
+			
+			if (lineStart >= 0){
+				// Arena mode, the context is built from the arena when displayed
+				wordData = new KeywordData(lineNum, lineStart + startInd, endInd - startInd);
+			} else {
+				if (allLines == null){
+					allLines = joinContextLines(prevLine, currLine, nextLine);
+				}
+				wordData = new KeywordData(lineNum, buildContextStr(allLines, mContextSize, startInd + prevLen, endInd + prevLen));
+			}
+			sharedIndex.addInstance(termBuffer, termLength, termHash, seqKey, wordData);
+		}
+		
+		// Count the line with its line break
+		mMetrics.addLine(currLine.length() + 1, tokenCount, deadCount);
+		if (isTimed){
+			// The phases are interleaved with the other threads, so the line counts as insert time
+			mMetrics.addPhaseNanos(0, 0, System.nanoTime() - lineTime);
+		}
+	}
+	
+	/*
+	 * Method to join the prev, curr and next lines into the full buffer
+	 * that context strings are cut from.  Empty or missing neighbour
+	 * lines are left out, and line breaks are marked with a single space
+	 */
+	private static String joinContextLines(String prevLine, String currLine, String nextLine){
+		// Define String to mark line breaks (new line) in context window
+		String lineBreakStr = " ";
+		String allLines;
+		
+		if (prevLine != null && prevLine.length() > 0){
+			allLines = prevLine+lineBreakStr+currLine;
+		} else {
+			allLines = currLine;
+		}
+		if (nextLine != null && nextLine.length() > 0){
+			allLines = allLines+lineBreakStr+nextLine;
+		}
+		return allLines;
+	}
+	
+	// Method to get the offset of the current line within the full buffer
+	private static int contextLineOffset(String prevLine){
+		return (prevLine == null || prevLine.length() == 0) ? 0 : prevLine.length() + 1;
+	}
+	
+	// Method to cut the context string of one keyword out of the full buffer
+	private static String buildContextStr(String allLines, int contextSize, int fullStartInd, int fullEndInd){
+		// Holder for length of full buffer
+		int fullLen = allLines.length();
+		// Initialize sizes of left-side and right-side padding strings
+		int leftPadSize = 0, rightPadSize = 0;
+		// Initialize left-side and right-side padding strings
+		String leftPad = "", rightPad = "";
+		// Declare left and right context strings
+		String leftContext, rightContext;
+		
+		/*
+		 * Create any necessary extra white space characters
+		 * 
+		 * If there are not enough extra characters before the 
+		 * keyword in the full buffer, fill the rest of the 
+		 * left-side context buffer with characters.  Likewise 
+		 * fill up the right-side context buffer with extra
+		 * white space characters if necessary 
+		 */
+		leftPadSize = contextSize-fullStartInd;
+		// Right pad size is N - (len - endInd)
+		rightPadSize = contextSize - fullLen + fullEndInd;
+		
+		//--- Generate Padding and Context Data ---
+		//-- Left side context 
+		if ( leftPadSize > 0){
+			leftPad = String.format("%1$"+leftPadSize+"s","");
+			leftContext = leftPad+allLines.substring(0, fullStartInd);
+		} else {
+			leftContext = allLines.substring(fullStartInd - contextSize,fullStartInd);
+		}
+		//-- Right side context
+		if (rightPadSize > 0){
+			rightPad = String.format("%1$"+rightPadSize+"s","");
+			rightContext = allLines.substring(fullEndInd) + rightPad;
+		} else {
+			rightContext = allLines.substring(fullEndInd,fullEndInd + contextSize);
+		}
+		
+		// Construct full context string
+		return leftContext+allLines.substring(fullStartInd, fullEndInd)+rightContext;
+	}
+	
+	/*
+	 * Fork-join task that indexes a range of lines from one chunk
+	 * 
+	 * Large ranges are split in half until they are at most 
+	 * PARALLEL_SPLIT_LINES long.  Every range adds its lines to the shared
+	 * index on its own, the index puts the instances in file order.
+	 */
+	private class IndexChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+		
+		// Lines of the whole chunk, shared by all sub-tasks
+		private final String[] chunkLines;
+		// Arena offsets of the chunk lines (arena mode, otherwise null)
+		private final long[] chunkStarts;
+		// Lines just before and just after the chunk (may be null)
+		private final String prevLine, nextLine;
+		// Line number of the first line of the chunk
+		private final int firstLineNum;
+		// Range of chunk lines handled by this task
+		private final int startInd, endInd;
+		// Index shared by all chunks
+		private final KwicConcurrentIndex sharedIndex;
+		
+		// Constructor for a task covering the whole chunk
+		private IndexChunkTask(String[] lines, long[] starts, String prev, String next, int firstLine, KwicConcurrentIndex index){
+			this(lines, starts, prev, next, firstLine, 0, lines.length, index);
+		}
+		
+		// Constructor for a task covering part of the chunk
+		private IndexChunkTask(String[] lines, long[] starts, String prev, String next, int firstLine, int start, int end,
+				KwicConcurrentIndex index){
+			this.chunkLines = lines;
+			this.chunkStarts = starts;
+			this.prevLine = prev;
+			this.nextLine = next;
+			this.firstLineNum = firstLine;
+			this.startInd = start;
+			this.endInd = end;
+			this.sharedIndex = index;
+		}
+		
+		@Override
+		protected void compute(){
+			if (endInd - startInd > PARALLEL_SPLIT_LINES){
+				// Split the range and index both halves
+				int midInd = (startInd + endInd) >>> 1;
+				invokeAll(new IndexChunkTask(chunkLines, chunkStarts, prevLine, nextLine, firstLineNum, startInd, midInd, sharedIndex),
+						new IndexChunkTask(chunkLines, chunkStarts, prevLine, nextLine, firstLineNum, midInd, endInd, sharedIndex));
+			} else {
+				// Index the lines of this range
+				KwicTokenizer tokenizer = newTokenizer();
+				for (int lineInd = startInd; lineInd < endInd; lineInd++){
+					indexLineShared((lineInd == 0) ? prevLine : chunkLines[lineInd-1],
+							chunkLines[lineInd],
+							(lineInd == chunkLines.length-1) ? nextLine : chunkLines[lineInd+1],
+							firstLineNum + lineInd, (chunkStarts == null) ? -1 : chunkStarts[lineInd], tokenizer, sharedIndex);
+				}
+			}
+		}
+	}
+	
+	/*
+	 * Method to implement query processing
+	 */
+	protected void processQueryKeyword(String keyword){
+		processQueryKeyword(keyword, 0, mMaxKeyDisplay, mContextSize);
+	}
+	
+	/*
+	 * Method to implement query processing for one page of instances
+	 * Prints at most limit instances, starting at instance number offset
+	 * (0 is the first), with contextSize leading and trailing characters.
+	 * Pattern queries always show their first page.  This only prints the
+	 * result of query, so only the lookup is in the query latency metrics.
+	 */
+	protected void processQueryKeyword(String keyword, int offset, int limit, int contextSize){
+		printQueryResult(query(keyword, offset, limit, contextSize));
+	}
+	
+	/*
+	 * Method to run a query and return its result (library API)
+	 * This is the query of processQueryKeyword without any printing: the
+	 * first mMaxKeyDisplay instances with mContextSize context characters.
+	 */
+	public KwicQueryResult query(String keyword){
+		return query(keyword, 0, mMaxKeyDisplay, mContextSize);
+	}
+	
+	/*
+	 * Method to run a query for one page of instances (library API)
+	 * The result holds at most limit instances, starting at instance number
+	 * offset (0 is the first), with contextSize leading and trailing
+	 * characters (stored context strings are never wider than mContextSize,
+	 * see isContextResizable).  Pattern queries always return their first
+	 * page.  Any number of threads can query at once, also while the index
+	 * is built (the result is then partial), and once the index is finished
+	 * no lock is taken at all.  The time taken is recorded in the query
+	 * latency metrics.  Throws IllegalArgumentException if offset or limit
+	 * is negative.
+	 */
+	public KwicQueryResult query(String keyword, int offset, int limit, int contextSize){
+		checkPage(offset, limit);
+		long queryStart = System.nanoTime();
+		try {
+			return runQuery(keyword, offset, limit, contextSize);
+		} finally {
+			mMetrics.recordQuery(System.nanoTime() - queryStart);
+		}
+	}
+	
+	// Method to reject a page with a negative offset or limit
+	private static void checkPage(int offset, int limit){
+		if (offset < 0){
+			throw new IllegalArgumentException("Negative offset: " + offset);
+		}
+		if (limit < 0){
+			throw new IllegalArgumentException("Negative limit: " + limit);
+		}
+	}
+	
+	// Method to look up one page of instances and copy them into a query result (see query)
+	private KwicQueryResult runQuery(String keyword, int offset, int limit, int contextSize){
+		// Check the status before the lookup, the index may finish in between
+		boolean partialIndex = !isIndexDone();
+		List<KwicHit> hits = new ArrayList<KwicHit>();
+		List<String> terms = Collections.emptyList();
+		int[] termCounts = new int[0];
+		KeywordContainer keyContainer;
+		int totalCount = 0, termCount;
+		
+		if (KwicTermDictionary.isPatternQuery(keyword)){
+			// Pattern queries give the instances of every matching keyword, in keyword order
+			terms = matchKeywords(keyword);
+			termCounts = new int[terms.size()];
+			for (int termInd = 0; termInd < terms.size(); termInd++){
+				keyContainer = lookupKeyword(terms.get(termInd));
+				// A keyword of a damaged saved index may not be in the rebuilt index yet
+				termCount = (keyContainer == null) ? 0 : keyContainer.getWordCount();
+				termCounts[termInd] = termCount;
+				totalCount += termCount;
+				for (int keywordInd = 0; keywordInd < termCount && hits.size() < limit; keywordInd++){
+					hits.add(newHit(keyContainer.getDetailList().get(keywordInd), contextSize));
+				}
+			}
+			return new KwicQueryResult(keyword, !terms.isEmpty(), totalCount, 0, hits, terms, termCounts,
+					partialIndex || !isIndexDone(), getIndexPercent());
+		}
+		
+		keyContainer = lookupKeywordPage(keyword, offset, limit);
+		if (keyContainer != null){
+			totalCount = keyContainer.getWordCount();
+			for (KeywordData wordData : keyContainer.getDetailList()){
+				hits.add(newHit(wordData, contextSize));
+			}
+		}
+		// A lookup can find a damaged saved index and start building it again
+		return new KwicQueryResult(keyword, keyContainer != null, totalCount, offset, hits, terms, termCounts,
+				partialIndex || !isIndexDone(), getIndexPercent());
+	}
+	
+	// Method to copy one keyword instance into a query result hit
+	private KwicHit newHit(KeywordData wordData, int contextSize){
+		String contextStr = resolveContextStr(wordData, contextSize);
+		// Stored context strings are cut down to contextSize but never widened
+		int keyStart = wordData.hasContextStr() ? Math.min(contextSize, mContextSize) : contextSize;
+		return new KwicHit(wordData.getLineNubmer(), wordData.hasContextStr() ? -1 : wordData.getKeyOffset(),
+				keyStart, contextStr.length() - 2*keyStart, contextStr);
+	}
+	
+	/*
+	 * Method to run a query and hand each instance to a visitor (library API)
+	 * This is query without a result object: the context of each instance
+	 * is built into one reused buffer and passed as a view, so a keyword
+	 * query on the in-memory index allocates nothing per instance.  Pattern,
+	 * phrase, NEAR and retain all queries (and saved index files) visit the
+	 * instances of query instead.  While the index is being built the read
+	 * lock is held during the visits, so the visitor should be quick.
+	 * Returns the number of instances of the keyword in all, or -1 if it is
+	 * not in the index.  Throws IllegalArgumentException if offset or limit
+	 * is negative.
+	 */
+	public int forEachHit(String keyword, int offset, int limit, int contextSize, KwicHitVisitor visitor){
+		checkPage(offset, limit);
+		long queryStart = System.nanoTime();
+		ContextView contextView = new ContextView();
+		KwicQueryResult result;
+		KeywordData wordData;
+		int termId, wordCount, detailEnd;
+		
+		try {
+			if (KwicTermDictionary.isPatternQuery(keyword) || KwicProximityQuery.isProximityQuery(keyword)
+					|| (mRetainAll && mPostings != null) || mIndexFile != null){
+				result = runQuery(keyword, offset, limit, contextSize);
+				for (KwicHit hit : result.getHits()){
+					contextView.setString(hit.getContext(), 0, hit.getContext().length());
+					if (!visitor.visitHit(hit.getLineNumber(), hit.getTextOffset(), contextView, hit.getKeyStart(), hit.getKeyLength())){
+						break;
+					}
+				}
+				return result.isFound() ? result.getTotalCount() : -1;
+			}
+			
+			String foldedKeyword = KwicTokenizer.foldKeyword(keyword, mWordLocale);
+			if (!mayContainKeyword(foldedKeyword)){
+				return -1;
+			}
+			boolean isLocked = lockIndexRead();
+			try {
+				termId = mKeywordIndex.find(foldedKeyword);
+				if (termId < 0){
+					return -1;
+				}
+				wordCount = mKeywordIndex.getWordCount(termId);
+				detailEnd = (int) Math.min(wordCount, (long) offset + limit);
+				for (int detailInd = offset; detailInd < detailEnd; detailInd++){
+					wordData = mKeywordIndex.getInstance(termId, detailInd);
+					if (!visitInstance(wordData, contextSize, contextView, visitor)){
+						break;
+					}
+				}
+				return wordCount;
+			} finally {
+				unlockIndexRead(isLocked);
+			}
+		} finally {
+			mMetrics.recordQuery(System.nanoTime() - queryStart);
+		}
+	}
+	
+	// Method to point the context view at the context of one instance and visit it
+	private boolean visitInstance(KeywordData wordData, int contextSize, ContextView contextView, KwicHitVisitor visitor){
+		String contextStr;
+		int trim, keyStart, keyLength;
+		
+		if (wordData.hasContextStr()){
+			// Cut the stored context down to contextSize without copying it
+			contextStr = wordData.getContextStr();
+			trim = Math.max(0, mContextSize - contextSize);
+			keyStart = mContextSize - trim;
+			keyLength = contextStr.length() - 2*mContextSize;
+			contextView.setString(contextStr, trim, contextStr.length() - trim);
+			return visitor.visitHit(wordData.getLineNubmer(), -1, contextView, keyStart, keyLength);
+		}
+		
+		keyLength = wordData.getKeyLength();
+		mTextSource.fillContext(wordData.getKeyOffset(), wordData.getKeyOffset() + keyLength, contextSize,
+				contextView.getChars(2*contextSize + keyLength));
+		return visitor.visitHit(wordData.getLineNubmer(), wordData.getKeyOffset(), contextView, contextSize, keyLength);
+	}
+	
+	/*
+	 * Reusable view of the context of one instance (see forEachHit)
+	 * It shows either part of a stored context string or the start of its
+	 * own char buffer, which only grows when a wider context needs it.
+	 */
+	private static class ContextView implements CharSequence {
+		private String mString = null;
+		private char[] mChars = new char[0];
+		private int mStart, mLength;
+		
+		// Method to point the view at part of a string
+		private void setString(String str, int start, int end){
+			this.mString = str;
+			this.mStart = start;
+			this.mLength = end - start;
+		}
+		
+		// Method to point the view at the start of its buffer, returns the buffer to fill
+		private char[] getChars(int length){
+			if (mChars.length < length){
+				mChars = new char[Math.max(length, 2*mChars.length)];
+			}
+			this.mString = null;
+			this.mStart = 0;
+			this.mLength = length;
+			return mChars;
+		}
+		
+		@Override
+		public int length(){
+			return mLength;
+		}
+		
+		@Override
+		public char charAt(int index){
+			return (mString != null) ? mString.charAt(mStart + index) : mChars[mStart + index];
+		}
+		
+		@Override
+		public CharSequence subSequence(int start, int end){
+			return (mString != null) ? mString.substring(mStart + start, mStart + end)
+					: new String(mChars, mStart + start, end - start);
+		}
+		
+		@Override
+		public String toString(){
+			return subSequence(0, mLength).toString();
+		}
+	}
+	
+	// Method to print a query result (console formatter of processQueryKeyword)
+	private void printQueryResult(KwicQueryResult result){
+		String keyword = result.getQuery();
+		int offset = result.getOffset();
+		int pageSize = result.getHits().size();
+		
+		// Prefix, wildcard and fuzzy queries list all matching keywords
+		if (KwicTermDictionary.isPatternQuery(keyword)){
+			printPatternResult(result);
+			return;
+		}
+		
+		// A phrase query already has its quotes
+		String quotedKeyword = keyword.trim().startsWith("\"") ? keyword.trim() : "\""+keyword+"\"";
+		
+		if (!result.isFound()){
+			// Keyword was not found in index
+			if (!mPositionalIndex && KwicProximityQuery.isProximityQuery(keyword)){
+				System.out.format("%nSorry, phrase and NEAR queries need the positional index (--positions option)");
+			} else if (result.isPartial()){
+				System.out.format("%nSorry, the keyword "+quotedKeyword+" was not found in the index so far"+
+									" (%d%% of the file indexed)", result.getIndexPercent());
+			} else {
+				System.out.format("%nSorry, the keyword "+quotedKeyword+" was not found in the index");
+			}
+		} else if (pageSize == 0 && offset > 0){
+			System.out.format("%nThere are no more instances of the keyword "+quotedKeyword+" (%d in all)",
+								result.getTotalCount());
+		} else {
+			System.out.format("%nThe keyword "+quotedKeyword+" was found in the following contexts:%n");
+			// Loop over the instances of the keyword on this page
+			for (KwicHit hit : result.getHits()){
+				// Print summary
+				System.out.format("%n%s",formatHit(hit));
+			}
+			
+			// Say which instances these are when paging (only the first mMaxKeyCount are kept otherwise)
+			if (mRetainAll || offset > 0){
+				System.out.format("%n(Instances %d to %d of %d%s)", offset + 1, offset + pageSize, result.getTotalCount(),
+						(!mRetainAll && result.getTotalCount() >= mMaxKeyCount) ? ", the --all option keeps the rest" : "");
+			}
+			if (mRetainAll && mPostings != null && mPostings.getFullLine() > 0){
+				System.out.format("%n(Instances after line %d are not kept, the memory budget was used up)", mPostings.getFullLine());
+			}
+			
+			// A dead keyword can't get more instances, otherwise the list may still grow
+			if (result.isPartial() && (mRetainAll || result.getTotalCount() < mMaxKeyCount)){
+				System.out.format("%n(Partial result, the file is still being indexed: %d%% done)", result.getIndexPercent());
+			}
+		}
+	}
+	
+	/*
+	 * Method to print a pattern query result
+	 * The matching keywords are listed with their instance counts, then
+	 * the instances of the page in keyword order.
+	 */
+	private void printPatternResult(KwicQueryResult result){
+		String pattern = result.getQuery();
+		List<String> terms = result.getMatchedTerms();
+		
+		if (terms.isEmpty()){
+			System.out.format("%nSorry, no keyword in the index matches \""+pattern+"\"");
+		} else {
+			System.out.format("%nThe pattern \""+pattern+"\" matched the following keywords:%n");
+			for (int termInd = 0; termInd < terms.size(); termInd++){
+				System.out.format("%n  %s (%d%s)", terms.get(termInd), result.getMatchedTermCount(termInd),
+						(result.getMatchedTermCount(termInd) >= mMaxKeyCount) ? "+" : "");
+			}
+			if (terms.size() == MAX_PATTERN_TERMS){
+				System.out.format("%n  ... (only the first %d keywords are listed)", MAX_PATTERN_TERMS);
+			}
+			
+			System.out.format("%n%nThey were found in the following contexts:%n");
+			for (KwicHit hit : result.getHits()){
+				System.out.format("%n%s",formatHit(hit));
+			}
+		}
+		
+		if (result.isPartial()){
+			System.out.format("%n(Partial result, the file is still being indexed: %d%% done)", result.getIndexPercent());
+		}
+	}
+	
+	/*
+	 * Method to find the keywords matching a pattern query, in sorted order
+	 * A query ending in '~' finds every keyword one edit away from the
+	 * word, otherwise '*' and '?' are wildcards.  At most MAX_PATTERN_TERMS
+	 * keywords are returned.
+	 */
+	protected List<String> matchKeywords(String query){
+		String pattern = KwicTokenizer.foldKeyword(query, mWordLocale);
+		List<String> terms = new ArrayList<String>();
+		
+		// Fuzzy query, look up every candidate edit
+		if (KwicTermDictionary.isFuzzyQuery(pattern)){
+			for (String candidate : KwicTermDictionary.getFuzzyCandidates(pattern.substring(0, pattern.length() - 1))){
+				if (containsKeyword(candidate)){
+					terms.add(candidate);
+				}
+			}
+			Collections.sort(terms);
+			return (terms.size() > MAX_PATTERN_TERMS) ? terms.subList(0, MAX_PATTERN_TERMS) : terms;
+		}
+		
+		// Wildcard query, scan the sorted dictionary from the literal prefix
+		if (mIndexFile != null){
+			mIndexFile.matchPattern(pattern, MAX_PATTERN_TERMS, terms);
+			return terms;
+		}
+		boolean isLocked = lockIndexRead();
+		try {
+			getTermDictionary().matchPattern(pattern, MAX_PATTERN_TERMS, terms);
+		} finally {
+			unlockIndexRead(isLocked);
+		}
+		return terms;
+	}
+	
+	/*
+	 * Method to get the keywords a query looks up
+	 * These are the matching keywords of a pattern query (see matchKeywords),
+	 * otherwise just the query itself.
+	 */
+	protected List<String> getQueryTerms(String query){
+		return KwicTermDictionary.isPatternQuery(query) ? matchKeywords(query) : Collections.singletonList(query);
+	}
+	
+	// Method to check if a lower case keyword is in the index
+	private boolean containsKeyword(String keyword){
+		if (mIndexFile != null){
+			return mIndexFile.contains(keyword);
+		}
+		if (!mayContainKeyword(keyword)){
+			return false;
+		}
+		boolean isLocked = lockIndexRead();
+		try {
+			return mKeywordIndex.find(keyword) >= 0;
+		} finally {
+			unlockIndexRead(isLocked);
+		}
+	}
+	
+	/*
+	 * Method to check the Bloom filter for a lower case keyword
+	 * Returns false only if the keyword is certainly not in the index.
+	 * Until the index is finished there is no filter, and every keyword
+	 * may be in it.
+	 */
+	private boolean mayContainKeyword(String keyword){
+		KwicBloomFilter termFilter = mTermFilter;
+		return termFilter == null || termFilter.mayContain(keyword);
+	}
+	
+	/*
+	 * Method to take the read lock of the index for a query
+	 * The lock is only taken while the index may still change (see
+	 * mIndexFinal), a finished index is read without any locking.  Returns
+	 * true if the lock was taken, which is passed on to unlockIndexRead.
+	 */
+	private boolean lockIndexRead(){
+		if (mIndexFinal){
+			return false;
+		}
+		mIndexLock.readLock().lock();
+		return true;
+	}
+	
+	// Method to release the read lock of the index if lockIndexRead took it
+	private void unlockIndexRead(boolean isLocked){
+		if (isLocked){
+			mIndexLock.readLock().unlock();
+		}
+	}
+	
+	/*
+	 * Method to get an up to date sorted keyword dictionary
+	 * The caller holds the read lock (or the index is finished), so the index
+	 * can't change while the dictionary is built.  Queries building it at the
+	 * same time take turns, an up to date dictionary is used without locking.
+	 */
+	private KwicTermDictionary getTermDictionary(){
+		KwicTermDictionary termDictionary = mTermDictionary;
+		if (termDictionary != null && termDictionary.getTermCount() == mKeywordIndex.getTermCount()){
+			return termDictionary;
+		}
+		synchronized (this){
+			if (mTermDictionary == null || mTermDictionary.getTermCount() != mKeywordIndex.getTermCount()){
+				mTermDictionary = new KwicTermDictionary(mKeywordIndex);
+			}
+			return mTermDictionary;
+		}
+	}
+	
+	// Method to format the summary line of one keyword instance (line number and context)
+	protected String formatInstance(KeywordData wordData){
+		return formatInstance(wordData, mContextSize);
+	}
+	
+	// Method to format the summary line of one keyword instance with a given context size
+	protected String formatInstance(KeywordData wordData, int contextSize){
+		return appendInstance(new StringBuilder(64), wordData, contextSize).toString();
+	}
+	
+	// Method to append the summary line of one keyword instance to a builder
+	protected StringBuilder appendInstance(StringBuilder summary, KeywordData wordData){
+		return appendInstance(summary, wordData, mContextSize);
+	}
+	
+	/*
+	 * Method to append the summary line of one keyword instance to a builder
+	 * The line number is padded to 10 characters by hand, this is called for
+	 * every result line in batch mode.
+	 */
+	protected StringBuilder appendInstance(StringBuilder summary, KeywordData wordData, int contextSize){
+		return appendLineNumber(summary, wordData.getLineNubmer()).append(':').append(resolveContextStr(wordData, contextSize));
+	}
+	
+	// Method to format the summary line of one query result hit
+	protected static String formatHit(KwicHit hit){
+		return appendLineNumber(new StringBuilder(64), hit.getLineNumber()).append(':').append(hit.getContext()).toString();
+	}
+	
+	// Method to append a line number padded to 10 characters
+	private static StringBuilder appendLineNumber(StringBuilder summary, int lineNum){
+		int lineNumStrSize = 10;
+		int summaryStart = summary.length();
+		
+		// Format line number string
+		summary.append(lineNum);
+		while (summary.length() - summaryStart < lineNumStrSize){
+			summary.append(' ');
+		}
+		return summary;
+	}
+	
+	/*
+	 * Method to get the fraction of the file that has been indexed (0 to 1)
+	 * Returns 1 once the index is done
+	 */
+	public double getIndexProgress(){
+		long totalBytes = mTotalBytes;
+		if (mIndexDone || totalBytes <= 0){
+			return mIndexDone ? 1.0 : 0.0;
+		}
+		return Math.min(1.0, (double) mIndexedBytes / totalBytes);
+	}
+	
+	// Method to get the indexed part of the file as a whole percentage
+	private int getIndexPercent(){
+		return (int) (100 * getIndexProgress());
+	}
+	
+	// Method to find the instances of a keyword, returns null if it is not in the index
+	protected KeywordContainer lookupKeyword(String keyword){
+		// Phrase and NEAR queries run over the positional postings
+		if (KwicProximityQuery.isProximityQuery(keyword)){
+			boolean isLocked = lockIndexRead();
+			try {
+				return (mPostings == null) ? null
+						: new KwicProximityQuery(mKeywordIndex, mPostings, newTokenizer()).run(keyword, mMaxKeyCount);
+			} finally {
+				unlockIndexRead(isLocked);
+			}
+		}
+		String foldedKeyword = KwicTokenizer.foldKeyword(keyword, mWordLocale);
+		KwicIndexFile indexFile = mIndexFile;
+		if (indexFile != null){
+			try {
+				return indexFile.lookup(foldedKeyword);
+			} catch (UncheckedIOException e){
+				rebuildDamagedIndex(indexFile, e);
+				return lookupKeyword(keyword);
+			}
+		}
+		if (!mayContainKeyword(foldedKeyword)){
+			return null;
+		}
+		boolean isLocked = lockIndexRead();
+		try {
+			int termId = mKeywordIndex.find(foldedKeyword);
+			return (termId < 0) ? null : mKeywordIndex.getContainer(termId);
+		} finally {
+			unlockIndexRead(isLocked);
+		}
+	}
+	
+	/*
+	 * Method to find one page of the instances of a keyword
+	 * The result holds at most limit instances, starting at instance number
+	 * offset (0 is the first), and its word count is the number of all
+	 * instances.  In retain all mode they are read from the postings, so a
+	 * page far into a common keyword is found through the skip entries
+	 * instead of decoding everything before it.  Otherwise the page is cut
+	 * from the (at most mMaxKeyCount) stored instances.  Returns null if
+	 * the keyword is not in the index.  Throws IllegalArgumentException if
+	 * offset or limit is negative.
+	 */
+	protected KeywordContainer lookupKeywordPage(String keyword, int offset, int limit){
+		KeywordContainer keyContainer, page;
+		
+		checkPage(offset, limit);
+		
+		if (mRetainAll && mPostings != null){
+			boolean isLocked = lockIndexRead();
+			try {
+				// Phrase and NEAR queries count all their hits but only keep the page
+				if (KwicProximityQuery.isProximityQuery(keyword)){
+					return new KwicProximityQuery(mKeywordIndex, mPostings, newTokenizer()).run(keyword, offset, limit, true);
+				}
+				
+				String foldedKeyword = KwicTokenizer.foldKeyword(keyword, mWordLocale);
+				int termId = mayContainKeyword(foldedKeyword) ? mKeywordIndex.find(foldedKeyword) : -1;
+				if (termId < 0){
+					return null;
+				}
+				page = new KeywordContainer();
+				page.setWordCount(mPostings.getPostingCount(termId));
+				
+				KwicPostings.Cursor cursor = mPostings.cursor(termId);
+				int termLength = mKeywordIndex.getTermLength(termId);
+				boolean hasNext = limit > 0 && cursor.skipTo(offset);
+				while (hasNext){
+					page.getDetailList().add(new KeywordData(cursor.getLine(), cursor.getOffset(), termLength));
+					hasNext = page.getDetailList().size() < limit && cursor.next();
+				}
+				return page;
+			} finally {
+				unlockIndexRead(isLocked);
+			}
+		}
+		
+		keyContainer = lookupKeyword(keyword);
+		if (keyContainer == null){
+			return null;
+		}
+		page = new KeywordContainer();
+		page.setWordCount(keyContainer.getWordCount());
+		int pageEnd = (int) Math.min(keyContainer.getDetailList().size(), (long) offset + limit);
+		for (int keywordInd = offset; keywordInd < pageEnd; keywordInd++){
+			page.getDetailList().add(keyContainer.getDetailList().get(keywordInd));
+		}
+		return page;
+	}
+	
+	// Method to get the context string of a keyword instance
+	// (either stored, or built from the text source on demand)
+	protected String resolveContextStr(KeywordData wordData){
+		if (wordData.hasContextStr()){
+			return wordData.getContextStr();
+		}
+		return mTextSource.buildContext(wordData.getKeyOffset(), 
+				wordData.getKeyOffset() + wordData.getKeyLength(), mContextSize);
+	}
+	
+	/*
+	 * Method to get the context string of a keyword instance with a
+	 * different number of leading and trailing characters
+	 * Stored context strings can only be cut down (they hold mContextSize
+	 * characters on each side), instances that only store their offset
+	 * (mapped file) can build any size.
+	 */
+	protected String resolveContextStr(KeywordData wordData, int contextSize){
+		if (contextSize == mContextSize){
+			return resolveContextStr(wordData);
+		}
+		if (!wordData.hasContextStr()){
+			return mTextSource.buildContext(wordData.getKeyOffset(), 
+					wordData.getKeyOffset() + wordData.getKeyLength(), contextSize);
+		}
+		String contextStr = wordData.getContextStr();
+		int trim = Math.max(0, mContextSize - contextSize);
+		return contextStr.substring(trim, contextStr.length() - trim);
+	}
+	
+	/*
+	 * Method to load the saved index file for the text file
+	 * Returns false if there is no saved index or it is out of date
+	 */
+	private boolean loadIndexFile() throws IOException {
+		KwicIndexFile indexFile = KwicIndexFile.open(mFileName, mMaxKeyCount, mContextSize, getTextKey(), mMaxTextLines);
+		if (indexFile == null){
+			return false;
+		}
+		mIndexFile = indexFile;
+		mIndexDone = true;
+		return true;
+	}
+	
+	/*
+	 * Method to build the index again when the saved index file is damaged
+	 * The records of a keyword are only checked when they are read (see
+	 * KwicIndexFile), so this can happen on any lookup.  The file is dropped
+	 * and a new index worker builds the index from the text file in the
+	 * background (and replaces the saved file).  Until it is done, queries
+	 * are answered from the partial index, as during a first build.
+	 */
+	private synchronized void rebuildDamagedIndex(KwicIndexFile damagedFile, UncheckedIOException e){
+		// Another query may have started the rebuild already
+		if (mIndexFile != damagedFile){
+			return;
+		}
+		System.err.format("%n%s, building the index again%n", e.getCause().getMessage());
+		mIndexFileDamaged = true;
+		mIndexDone = false;
+		mIndexFinal = false;
+		mIndexFile = null;
+		// Don't leave it for the next run if this one ends before the rebuild
+		try {
+			Files.deleteIfExists(Paths.get(KwicIndexFile.getIndexFileName(mFileName)));
+		} catch (IOException deleteError){
+			// Not fatal, the rebuild replaces it
+		}
+		mIndexWorkThread = new Thread(new IndexWorker());
+		mIndexWorkThread.setDaemon(true);
+		mIndexWorkThread.start();
+	}
+	
+	/*
+	 * Method to get the key of the charset and word mode the index is built with
+	 * A saved index is only used with the same key.  The defaults give 0,
+	 * which is what index files saved before these settings existed hold.
+	 */
+	private int getTextKey(){
+		if (mCharsetName == null && mWordLocale == null){
+			return 0;
+		}
+		return (KwicLineReader.resolveCharset(mCharsetName).name() + "|"
+				+ ((mWordLocale == null) ? "ascii" : mWordLocale.toLanguageTag())).hashCode() | 1;
+	}
+	
+	// Method to save the finished index next to the text file
+	private void saveIndexFile(){
+		try {
+			KwicIndexFile.write(this, mKeywordIndex, mTermFilter, mFileName, mMaxKeyCount, mContextSize, getTextKey(), mMaxTextLines);
+		} catch (IOException e){
+			// Not fatal, the index will just be built again next time
+			System.out.format("%nCould not save the index file: %s%n", e.getMessage());
+		}
+	}
+	
+	// Method to start the Index worker thread
+	public void startIndexWorker(){
+		// A followed file is never finished, don't keep the program alive for it
+		mIndexWorkThread.setDaemon(mTailMode);
+		// Start the indexWorkerThread Thread
+		mIndexWorkThread.start();
+	}
+	
+	// Method to run the index worker on the calling thread instead
+	// (blocks until the index is done, used by the benchmark harness)
+	public void runIndexWorker(){
+		new IndexWorker().run();
+	}
+	
+	// Getter for the name of the indexed file
+	protected String getFileName(){
+		return mFileName;
+	}
+	
+	// Getter for the indexing and query metrics
+	protected KwicMetrics getMetrics(){
+		return mMetrics;
+	}
+	
+	// Getter for the number of distinct keywords (read without the lock, so it may lag behind)
+	protected int getTermCount(){
+		KwicIndexFile indexFile = mIndexFile;
+		return (indexFile != null) ? indexFile.getTermCount() : mKeywordIndex.getTermCount();
+	}
+	
+	/*
+	 * Method to get the term statistics of the index, with the topCount most
+	 * frequent keywords
+	 * The counts are kept while indexing, so this is safe to call while the
+	 * index is still being built (the statistics are then partial).  In
+	 * parallel mode partial counts are only provisional: they may include
+	 * lines from chunks that are done before an earlier chunk, whose
+	 * instances queries don't show yet (see KwicConcurrentIndex).
+	 */
+	public KwicTermStats getTermStats(int topCount){
+		KwicIndexFile indexFile = mIndexFile;
+		boolean isPartial = !isIndexDone();
+		boolean isLocked;
+		
+		if (indexFile != null){
+			return indexFile.getTermStats(topCount);
+		}
+		isLocked = lockIndexRead();
+		try {
+			return mKeywordIndex.getTermStats(topCount, isPartial);
+		} finally {
+			unlockIndexRead(isLocked);
+		}
+	}
+	
+	// Method to add every keyword of the index and its number of occurrences to a heavy hitters sketch
+	protected void addTermFrequencies(KwicHeavyHitters sketch){
+		KwicIndexFile indexFile = mIndexFile;
+		boolean isLocked;
+		
+		if (indexFile != null){
+			indexFile.addTermFrequencies(sketch);
+			return;
+		}
+		isLocked = lockIndexRead();
+		try {
+			mKeywordIndex.addTermFrequencies(sketch);
+		} finally {
+			unlockIndexRead(isLocked);
+		}
+	}
+	
+	// Method to estimate the heap used by the index, the positional postings, the Bloom filter and the text arena
+	protected long estimateHeapBytes(){
+		KwicTextSource textSource = mTextSource;
+		boolean isLocked = lockIndexRead();
+		try {
+			return mKeywordIndex.estimateHeapBytes() + ((mPostings == null) ? 0 : mPostings.getAllocatedBytes())
+					+ ((mTermFilter == null) ? 0 : mTermFilter.getAllocatedBytes())
+					+ ((textSource instanceof KwicTextArena) ? ((KwicTextArena) textSource).getAllocatedBytes() : 0);
+		} finally {
+			unlockIndexRead(isLocked);
+		}
+	}
+	
+	// Getter for the max number of instances kept per keyword
+	protected int getMaxKeyCount(){
+		return mMaxKeyCount;
+	}
+	
+	// Getter for the context size of the stored context strings (the default of queries)
+	protected int getContextSize(){
+		return mContextSize;
+	}
+	
+	/*
+	 * Method to check if queries can ask for more context than mContextSize
+	 * Only instances that store their offset into a kept text source can,
+	 * stored context strings are cut down but never widened.
+	 */
+	protected boolean isContextResizable(){
+		return (isTextSourceMode() || mArenaContext) && !mTailMode && mIndexFile == null;
+	}
+	
+	/*
+	 * Method to check if the index is built over a kept text source
+	 * This is the mapped, positional and retain all modes, except for a plain
+	 * gzip file, which is read by the line reader (without positions).
+	 */
+	private boolean isTextSourceMode(){
+		return (mMappedInput || mPositionalIndex || mRetainAll) && mInputFormat != KwicCompressedInput.FORMAT_GZIP;
+	}
+	
+	// Getter for ParallelIndex flag
+	protected boolean isParallelIndex(){
+		return mParallelIndex;
+	}
+	
+	// Setter for ParallelIndex flag
+	// This has to be set before the index worker is started
+	protected void setParallelIndex(boolean isParallel){
+		mParallelIndex = isParallel;
+	}
+	
+	// Getter for PipelinedIndex flag
+	protected boolean isPipelinedIndex(){
+		return mPipelinedIndex;
+	}
+	
+	// Setter for PipelinedIndex flag
+	// This has to be set before the index worker is started
+	protected void setPipelinedIndex(boolean isPipelined){
+		mPipelinedIndex = isPipelined;
+	}
+	
+	// Getter for MappedInput flag
+	protected boolean isMappedInput(){
+		return mMappedInput;
+	}
+	
+	// Setter for MappedInput flag
+	// This has to be set before the index worker is started
+	protected void setMappedInput(boolean isMapped){
+		mMappedInput = isMapped;
+	}
+	
+	// Getter for ArenaContext flag
+	protected boolean isArenaContext(){
+		return mArenaContext;
+	}
+	
+	// Setter for ArenaContext flag
+	// This has to be set before the index worker is started
+	protected void setArenaContext(boolean isArena){
+		mArenaContext = isArena;
+	}
+	
+	// Getter for RegexTokenizer flag
+	protected boolean isRegexTokenizer(){
+		return mRegexTokenizer;
+	}
+	
+	// Setter for RegexTokenizer flag
+	// This has to be set before the index worker is started
+	protected void setRegexTokenizer(boolean isRegex){
+		mRegexTokenizer = isRegex;
+	}
+	
+	// Getter for the charset name, null if it is detected from the BOM or the platform default
+	protected String getCharset(){
+		return mCharsetName;
+	}
+	
+	// Setter for the charset name (null or "auto" to detect it from the BOM or use the platform default)
+	// This has to be set before the index worker is started
+	protected void setCharset(String charsetName){
+		mCharsetName = (charsetName == null || charsetName.equalsIgnoreCase(KwicLineReader.AUTO_CHARSET)) ? null : charsetName;
+	}
+	
+	// Getter for the locale of Unicode word mode, null for ASCII words
+	protected Locale getWordLocale(){
+		return mWordLocale;
+	}
+	
+	// Setter for the locale of Unicode word mode (null for ASCII words)
+	// This has to be set before the index worker is started
+	protected void setWordLocale(Locale wordLocale){
+		mWordLocale = wordLocale;
+	}
+	
+	// Method to create a tokenizer for the word mode of this search object
+	protected KwicTokenizer newTokenizer(){
+		return new KwicTokenizer(mRegexTokenizer, mWordLocale);
+	}
+	
+	// Getter for PersistIndex flag
+	protected boolean isPersistIndex(){
+		return mPersistIndex;
+	}
+	
+	// Setter for PersistIndex flag
+	// This has to be set before the index worker is started
+	protected void setPersistIndex(boolean isPersist){
+		mPersistIndex = isPersist;
+	}
+	
+	// Getter for TailMode flag
+	protected boolean isTailMode(){
+		return mTailMode;
+	}
+	
+	// Setter for TailMode flag
+	// This has to be set before the index worker is started
+	protected void setTailMode(boolean isTail){
+		mTailMode = isTail;
+	}
+	
+	// Getter for PositionalIndex flag
+	protected boolean isPositionalIndex(){
+		return mPositionalIndex;
+	}
+	
+	// Setter for PositionalIndex flag
+	// This has to be set before the index worker is started
+	protected void setPositionalIndex(boolean isPositional){
+		mPositionalIndex = isPositional;
+	}
+	
+	// Getter for RetainAll flag
+	protected boolean isRetainAll(){
+		return mRetainAll;
+	}
+	
+	// Setter for RetainAll flag
+	// This has to be set before the index worker is started
+	protected void setRetainAll(boolean isRetainAll){
+		mRetainAll = isRetainAll;
+	}
+	
+	// Method to get the memory budget (in bytes) of the kept instances
+	protected long getRetainBudget(){
+		return (mRetainBudgetBytes > 0) ? mRetainBudgetBytes
+				: (long) (RETAIN_MEMORY_FRACTION * Runtime.getRuntime().maxMemory());
+	}
+	
+	// Setter for the memory budget (in bytes) of the kept instances, 0 for the default
+	// This has to be set before the index worker is started
+	protected void setRetainBudget(long budgetBytes){
+		mRetainBudgetBytes = budgetBytes;
+	}
+	
+	// Getter for IndexDone flag
+	public boolean isIndexDone(){
+		return mIndexDone;
+	}
+	
+	/*
+	 * Getter for the IndexFinal flag
+	 * Unlike IndexDone this is only set once the worker has also built the
+	 * keyword filter and saved the index file (--cache option).
+	 */
+	public boolean isIndexFinal(){
+		return mIndexFinal;
+	}
+	
+	// Getter for the error that stopped the index worker (null if it didn't fail)
+	public IOException getIndexError(){
+		return mIndexError;
+	}
+	
+	// Setter for IndexDone flag
+	// This should not be needed, but it is available just in case
+	protected void setIndexDone(boolean isDone){
+		mIndexDone = isDone;
+	}
+	
+	// Method to ensure some data quality of the first line in the file
+	protected String cleanupFirstLine(String inStr){
+		String cleanStr = null;
+		// Define known utf Byte Order Markings (BOM) code point
+		int bomCodePoint = 65279;
+		
+		// Nothing to clean up in an empty file or an empty first line
+		if (inStr == null || inStr.isEmpty()){
+			return inStr;
+		}
+		// Grab the first character in the 
+		int firstCode = inStr.codePointAt(0);
+		
+		
+		// Check if first character is BOM and remove it from string if so
+		/*
+		 * If text files are properly saved as ASCII, these characters should not be present,
+		 * but let's check just to be safe.
+		 */
+		if (firstCode == bomCodePoint){
+			cleanStr = inStr.substring(1);
+		} else {
+			cleanStr = inStr;
+		}
+		
+		return cleanStr;
+	}
+}
@@ -0,0 +1,607 @@
+package kwic;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * KwicSearchGroup holds the search objects of several text files
+ * Files (or whole directory trees) added to the group are indexed on one
+ * shared pool of worker threads instead of a thread per file.  A dispatcher
+ * thread hands the files to the pool in the order they were added, and
+ * only lets a bounded number of them wait in the pool queue, so adding
+ * thousands of files does not flood the pool.
+ *
+ * A keyword query runs against every file in the group, and each instance
+ * is printed with the name of the file it was found in.  Followed files
+ * (tail mode) never finish indexing, so they get their own thread instead
+ * of holding on to a pool thread.
+ *
+ * The term statistics of the files (the most frequent keywords) are
+ * combined in a heavy hitters sketch, so they take bounded memory however
+ * many files there are.
+ *
+ * The group keeps the latencies of its queries, and can register the
+ * metrics of each file (see KwicMetrics) with JMX and print them to the
+ * error stream every few seconds.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicSearchGroup {
+	// Define the number of files allowed to wait in the pool queue per pool thread
+	private static final int QUEUED_FILES_PER_THREAD = 2;
+	// Define how often (in milliseconds) to check if the group is indexed
+	private static final long INDEX_WAIT_MILLIS = 20;
+	// Define the JMX name of the group query latencies
+	private static final String QUERY_METRICS_NAME = KwicMetrics.JMX_DOMAIN + ":type=Queries,name=group";
+
+	// Search objects of all files in the group, in the order they were added
+	private final List<KwicSearch> mKwickers = new CopyOnWriteArrayList<KwicSearch>();
+	// Search objects waiting to be handed to the pool
+	private final BlockingQueue<KwicSearch> mPendingKwickers = new LinkedBlockingQueue<KwicSearch>();
+
+	// Shared pool of index worker threads
+	private final ExecutorService mIndexPool;
+	// Number of files the pool may hold (running or queued) at once
+	private final Semaphore mPoolSlots;
+	// Thread handing pending files to the pool
+	private final Thread mDispatchThread;
+
+	// Runtime options (limits and context size) of every file in the group
+	private final KwicOptions mOptions;
+
+	// Indexing options applied to each added file
+	private boolean mParallelIndex = false;
+	private boolean mPipelinedIndex = false;
+	private boolean mMappedInput = false;
+	private boolean mArenaContext = false;
+	private boolean mRegexTokenizer = false;
+	private String mCharsetName = null;
+	private Locale mWordLocale = null;
+	private boolean mPersistIndex = false;
+	private boolean mTailMode = false;
+	private boolean mPositionalIndex = false;
+	private boolean mRetainAll = false;
+	private long mRetainBudgetBytes = 0;
+
+	// Latencies of the queries run over the group
+	private final KwicLatencyHistogram mQueryLatency = new KwicLatencyHistogram();
+	// Flag to register the metrics of each added file with JMX
+	private boolean mRegisterMetrics = false;
+	// Name the query latencies are registered under (null if they are not)
+	private ObjectName mQueryMetricsName = null;
+	// Thread printing the periodic metrics log (null if there is no log)
+	private ScheduledExecutorService mMetricsLog = null;
+
+	// Basic Constructor, one pool thread per processor
+	public KwicSearchGroup(){
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	// Constructor that sets the number of pool threads
+	public KwicSearchGroup(int poolSize){
+		this(poolSize, new KwicOptions());
+	}
+
+	// Constructor that sets the number of pool threads and the runtime options
+	public KwicSearchGroup(int poolSize, KwicOptions options){
+		this.mOptions = options;
+		poolSize = Math.max(1, poolSize);
+		this.mIndexPool = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new IndexThreadFactory());
+		this.mPoolSlots = new Semaphore(poolSize * (1 + QUEUED_FILES_PER_THREAD));
+		this.mDispatchThread = new Thread(new Dispatcher(), "kwic-index-dispatch");
+		this.mDispatchThread.setDaemon(true);
+		this.mDispatchThread.start();
+	}
+
+	// Thread factory for the pool, the threads don't keep the program alive
+	private static class IndexThreadFactory implements ThreadFactory {
+		private final AtomicInteger mThreadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable task){
+			Thread thread = new Thread(task, "kwic-index-" + mThreadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	// Dispatcher hands pending files to the pool, waiting while the pool is full
+	private class Dispatcher implements Runnable {
+
+		@Override
+		public void run(){
+			try {
+				while (true){
+					final KwicSearch kwicker = mPendingKwickers.take();
+					mPoolSlots.acquire();
+					mIndexPool.execute(new Runnable(){
+						@Override
+						public void run(){
+							try {
+								kwicker.runIndexWorker();
+							} finally {
+								mPoolSlots.release();
+							}
+						}
+					});
+				}
+			} catch (InterruptedException e){
+				// Group is shutting down
+			}
+		}
+	}
+
+	/*
+	 * Method to add a file, or every file in a directory tree, to the group
+	 * Returns the number of files added
+	 */
+	public int addPath(String pathName){
+		File path = new File(pathName);
+
+		if (path.isDirectory()){
+			return addDirectory(path);
+		} else if (path.canRead()){
+			addFile(path.getPath());
+			return 1;
+		} else {
+			System.out.format("%n\"%s\" could not be found.%nCheck that file name and file permissions%n",pathName);
+			return 0;
+		}
+	}
+
+	// Method to add the files of a directory tree, in name order
+	private int addDirectory(File directory){
+		int fileCount = 0;
+		File[] entries = directory.listFiles();
+
+		if (entries == null){
+			return 0;
+		}
+		Arrays.sort(entries);
+
+		for (File entry : entries){
+			// Skip hidden files and our own saved index files
+			if (entry.isHidden() || entry.getName().endsWith(KwicIndexFile.FILE_EXTENSION)){
+				continue;
+			}
+			if (entry.isDirectory()){
+				fileCount += addDirectory(entry);
+			} else if (entry.isFile() && entry.canRead()){
+				addFile(entry.getPath());
+				fileCount++;
+			}
+		}
+		return fileCount;
+	}
+
+	// Method to create the search object of one file and queue it for indexing
+	private void addFile(String fileName){
+		KwicSearch kwicker = new KwicSearch(fileName, mOptions);
+		kwicker.setParallelIndex(mParallelIndex);
+		kwicker.setPipelinedIndex(mPipelinedIndex);
+		kwicker.setMappedInput(mMappedInput);
+		kwicker.setArenaContext(mArenaContext);
+		kwicker.setRegexTokenizer(mRegexTokenizer);
+		kwicker.setCharset(mCharsetName);
+		kwicker.setWordLocale(mWordLocale);
+		kwicker.setPersistIndex(mPersistIndex);
+		kwicker.setTailMode(mTailMode);
+		kwicker.setPositionalIndex(mPositionalIndex);
+		kwicker.setRetainAll(mRetainAll);
+		kwicker.setRetainBudget(mRetainBudgetBytes);
+		if (mRegisterMetrics){
+			kwicker.getMetrics().register();
+		}
+		mKwickers.add(kwicker);
+
+		if (mTailMode){
+			// A followed file would hold a pool thread forever
+			kwicker.startIndexWorker();
+		} else {
+			mPendingKwickers.add(kwicker);
+		}
+	}
+
+	/*
+	 * Method to look up a keyword in every file of the group and print
+	 * the results, each instance tagged with its file name
+	 * A pattern query (see KwicTermDictionary) is expanded to the matching
+	 * keywords of each file.  A group with a single file prints exactly like
+	 * that file's search object.
+	 */
+	protected void processQueryKeyword(String keyword){
+		processQueryKeyword(keyword, 0, mOptions.getMaxKeyDisplay(), mOptions.getContextSize());
+	}
+
+	/*
+	 * Method to print one page of the results of a keyword in every file
+	 * The instances of all files (and all keywords of a pattern) are
+	 * numbered one after the other, and at most limit of them are printed,
+	 * starting at instance number offset (0 is the first), with contextSize
+	 * leading and trailing characters.  The time taken is recorded in the
+	 * group query latencies.
+	 */
+	protected void processQueryKeyword(String keyword, int offset, int limit, int contextSize){
+		long queryStart = System.nanoTime();
+		try {
+			printQueryKeyword(keyword, offset, limit, contextSize);
+		} finally {
+			mQueryLatency.record(System.nanoTime() - queryStart);
+		}
+	}
+
+	// Method to look up and print one page of results in every file (see processQueryKeyword)
+	private void printQueryKeyword(String keyword, int offset, int limit, int contextSize){
+		// Define holders for the number of instances shown and files matched
+		int shownCount = 0, fileMatchCount = 0;
+		int unfinishedCount = 0;
+		// Define holders for the instances still to skip and all instances found
+		int skipCount = offset;
+		long totalCount = 0;
+		boolean isPattern = KwicTermDictionary.isPatternQuery(keyword);
+		boolean isFileMatch, isFileDone;
+		List<String> terms;
+		KeywordContainer keyContainer;
+
+		if (mKwickers.size() == 1){
+			mKwickers.get(0).processQueryKeyword(keyword, offset, limit, contextSize);
+			return;
+		}
+
+		for (KwicSearch kwicker : mKwickers){
+			// Check the status before the lookup, the index may finish in between
+			isFileDone = kwicker.isIndexDone();
+			terms = kwicker.getQueryTerms(keyword);
+
+			isFileMatch = false;
+			for (String term : terms){
+				keyContainer = kwicker.lookupKeywordPage(term, skipCount, limit - shownCount);
+				if (keyContainer == null){
+					continue;
+				}
+				totalCount += keyContainer.getWordCount();
+				skipCount = Math.max(0, skipCount - keyContainer.getWordCount());
+
+				if (!isFileMatch){
+					if (fileMatchCount == 0){
+						System.out.format("%n%s \""+keyword+"\" was found in the following contexts:%n",
+								isPattern ? "The pattern" : "The keyword");
+					}
+					fileMatchCount++;
+					isFileMatch = true;
+				}
+
+				// Print the instances on the page
+				for (int keywordInd = 0; keywordInd < keyContainer.getDetailList().size(); keywordInd++){
+					System.out.format("%n%s: %s", kwicker.getFileName(),
+							kwicker.formatInstance(keyContainer.getDetailList().get(keywordInd), contextSize));
+					shownCount++;
+				}
+			}
+			// and after it, a lookup can find a damaged saved index and start building it again
+			if (!isFileDone || !kwicker.isIndexDone()){
+				unfinishedCount++;
+			}
+		}
+
+		if (fileMatchCount == 0){
+			System.out.format("%nSorry, the %s \""+keyword+"\" was not found in any of the %d files",
+					isPattern ? "pattern" : "keyword", mKwickers.size());
+		} else if (shownCount == 0){
+			System.out.format("%n(Found in %d of %d files, there are no more instances: %d in all)",
+					fileMatchCount, mKwickers.size(), totalCount);
+		} else if (mRetainAll || offset > 0){
+			System.out.format("%n(Found in %d of %d files, showing instances %d to %d of %d)",
+					fileMatchCount, mKwickers.size(), offset + 1, offset + shownCount, totalCount);
+		} else {
+			System.out.format("%n(Found in %d of %d files, showing %d instances)",
+					fileMatchCount, mKwickers.size(), shownCount);
+		}
+		if (unfinishedCount > 0){
+			System.out.format("%n(Partial result, %d of %d files are still being indexed)", unfinishedCount, mKwickers.size());
+		}
+	}
+
+	/*
+	 * Method to get the term statistics of all files together, with the
+	 * topCount most frequent keywords
+	 * The counts of one file are exact.  The counts of several files are
+	 * added up in a heavy hitters sketch of TOP_TERMS_SKETCH_SIZE counters
+	 * (see KwicHeavyHitters), which stays exact unless the files have more
+	 * distinct keywords than that.
+	 */
+	public KwicTermStats getTermStats(int topCount){
+		KwicHeavyHitters sketch;
+		long termCount = 0;
+		boolean isPartial = false;
+
+		if (mKwickers.size() == 1){
+			return mKwickers.get(0).getTermStats(topCount);
+		}
+
+		sketch = new KwicHeavyHitters(Math.max(KwicConstants.TOP_TERMS_SKETCH_SIZE, 4*topCount));
+		for (KwicSearch kwicker : mKwickers){
+			if (!kwicker.isIndexDone()){
+				isPartial = true;
+			}
+			kwicker.addTermFrequencies(sketch);
+			termCount = Math.max(termCount, kwicker.getTermCount());
+		}
+
+		if (sketch.isExact()){
+			return new KwicTermStats(sketch.getTotalCount(), sketch.getTermCount(), sketch.getSingleCount(),
+					sketch.getTopTerms(topCount), true, isPartial);
+		}
+		return new KwicTermStats(sketch.getTotalCount(), Math.max(termCount, sketch.getTermCount()), -1,
+				sketch.getTopTerms(topCount), false, isPartial);
+	}
+
+	// Method to print the most frequent keywords of all files together
+	protected void printTopTerms(int topCount){
+		KwicTermStats termStats = getTermStats(topCount);
+		long maxError = 0;
+		int rank = 0;
+
+		if (termStats.getTopTerms().isEmpty()){
+			System.out.format("%nThere are no keywords indexed yet%n");
+			return;
+		}
+		if (termStats.isExact()){
+			System.out.format("%nThe most frequent keywords (%d in all, %d distinct, %d used once):%n",
+					termStats.getTokenCount(), termStats.getTermCount(), termStats.getSingleCount());
+		} else {
+			System.out.format("%nThe most frequent keywords (%d in all, over %d distinct):%n",
+					termStats.getTokenCount(), termStats.getTermCount());
+		}
+		for (KwicTermFrequency termFrequency : termStats.getTopTerms()){
+			System.out.format("%n%5d  %-24s %d", ++rank, termFrequency.getTerm(), termFrequency.getCount());
+			maxError = Math.max(maxError, termFrequency.getMaxError());
+		}
+		if (maxError > 0){
+			System.out.format("%n(Counts combined over %d files, each may be up to %d too high)", mKwickers.size(), maxError);
+		}
+		if (termStats.isPartial()){
+			System.out.format("%n(Partial statistics, the files are still being indexed)");
+		}
+		System.out.format("%n");
+	}
+
+	// Method to print the indexing progress of each file in the group
+	protected void printIndexProgress(){
+		int doneCount = 0;
+
+		System.out.format("%nIndexing progress:");
+		for (KwicSearch kwicker : mKwickers){
+			if (kwicker.getIndexError() != null){
+				System.out.format("%n failed %s (%s)", kwicker.getFileName(), kwicker.getIndexError().getMessage());
+			} else if (kwicker.isIndexDone()){
+				doneCount++;
+				System.out.format("%n  done  %s", kwicker.getFileName());
+			} else {
+				System.out.format("%n  %3d%%  %s", (int) (100 * kwicker.getIndexProgress()), kwicker.getFileName());
+			}
+		}
+		System.out.format("%n%d of %d files indexed%n", doneCount, mKwickers.size());
+	}
+
+	// Method to check if every file in the group has been indexed
+	public boolean isIndexDone(){
+		for (KwicSearch kwicker : mKwickers){
+			if (!kwicker.isIndexDone()){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Method to wait until every file in the group has been indexed
+	 * This waits for the index workers to finish, so the index files are
+	 * saved (--cache option) before a batch run shuts the group down.  A
+	 * followed file is never finished, it only has to catch up.
+	 */
+	public void awaitIndexDone() throws InterruptedException {
+		boolean isFinished;
+		do {
+			isFinished = true;
+			for (KwicSearch kwicker : mKwickers){
+				if (!kwicker.isIndexFinal() && !(kwicker.isTailMode() && kwicker.isIndexDone())){
+					isFinished = false;
+					Thread.sleep(INDEX_WAIT_MILLIS);
+					break;
+				}
+			}
+		} while (!isFinished);
+	}
+
+	/*
+	 * Method to register the metrics with the platform MBean server (JMX)
+	 * The group query latencies are registered at once, and the metrics of
+	 * each file as it is added (files added before the call are registered
+	 * now).
+	 */
+	protected void registerMetrics(){
+		if (mRegisterMetrics){
+			return;
+		}
+		mRegisterMetrics = true;
+		for (KwicSearch kwicker : mKwickers){
+			kwicker.getMetrics().register();
+		}
+		try {
+			mQueryMetricsName = new ObjectName(QUERY_METRICS_NAME);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(mQueryLatency, mQueryMetricsName);
+		} catch (JMException e){
+			mQueryMetricsName = null;
+			System.err.format("Could not register the group query metrics: %s%n", e.getMessage());
+		}
+	}
+
+	/*
+	 * Method to print the metrics of each file and the group query
+	 * latencies to the error stream every periodSeconds seconds
+	 * The log runs on a daemon thread until the group is shut down.
+	 */
+	protected void startMetricsLog(int periodSeconds){
+		if (mMetricsLog != null || periodSeconds <= 0){
+			return;
+		}
+		mMetricsLog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory(){
+			@Override
+			public Thread newThread(Runnable task){
+				Thread thread = new Thread(task, "kwic-metrics-log");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		mMetricsLog.scheduleAtFixedRate(new Runnable(){
+			@Override
+			public void run(){
+				printMetrics();
+			}
+		}, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+	}
+
+	// Method to print the metrics of each file and the group query latencies to the error stream
+	protected void printMetrics(){
+		StringBuilder log = new StringBuilder();
+
+		for (KwicSearch kwicker : mKwickers){
+			log.append("[metrics] ").append(kwicker.getMetrics().formatLogLine()).append(System.lineSeparator());
+		}
+		log.append("[metrics] group: ").append(mQueryLatency.formatSummary()).append(System.lineSeparator());
+		System.err.print(log);
+	}
+
+	// Method to stop handing files to the pool and stop the pool threads
+	public void shutdown(){
+		mDispatchThread.interrupt();
+		mIndexPool.shutdownNow();
+
+		// Stop the metrics log and take the metrics off the MBean server
+		if (mMetricsLog != null){
+			mMetricsLog.shutdownNow();
+		}
+		if (mRegisterMetrics){
+			for (KwicSearch kwicker : mKwickers){
+				kwicker.getMetrics().unregister();
+			}
+		}
+		if (mQueryMetricsName != null){
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(mQueryMetricsName);
+			} catch (JMException e){
+				// Already gone
+			}
+			mQueryMetricsName = null;
+		}
+	}
+
+	// Getter for the group query latencies
+	protected KwicLatencyHistogram getQueryLatency(){
+		return mQueryLatency;
+	}
+
+	// Getter for the runtime options of the group
+	protected KwicOptions getOptions(){
+		return mOptions;
+	}
+
+	/*
+	 * Method to check if every file in the group can show more context
+	 * than the context size it was indexed with (see KwicSearch)
+	 */
+	protected boolean isContextResizable(){
+		for (KwicSearch kwicker : mKwickers){
+			if (!kwicker.isContextResizable()){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// Getter for the search objects of the group
+	protected List<KwicSearch> getKwickers(){
+		return mKwickers;
+	}
+
+	// Setter for ParallelIndex flag, applies to files added after the call
+	protected void setParallelIndex(boolean isParallel){
+		mParallelIndex = isParallel;
+	}
+
+	// Setter for PipelinedIndex flag, applies to files added after the call
+	protected void setPipelinedIndex(boolean isPipelined){
+		mPipelinedIndex = isPipelined;
+	}
+
+	// Setter for MappedInput flag, applies to files added after the call
+	protected void setMappedInput(boolean isMapped){
+		mMappedInput = isMapped;
+	}
+
+	// Setter for ArenaContext flag, applies to files added after the call
+	protected void setArenaContext(boolean isArena){
+		mArenaContext = isArena;
+	}
+
+	// Setter for RegexTokenizer flag, applies to files added after the call
+	protected void setRegexTokenizer(boolean isRegex){
+		mRegexTokenizer = isRegex;
+	}
+
+	// Setter for the charset name (null or "auto" to detect it), applies to files added after the call
+	protected void setCharset(String charsetName){
+		mCharsetName = charsetName;
+	}
+
+	// Setter for the locale of Unicode word mode (null for ASCII words), applies to files added after the call
+	protected void setWordLocale(Locale wordLocale){
+		mWordLocale = wordLocale;
+	}
+
+	// Setter for PersistIndex flag, applies to files added after the call
+	protected void setPersistIndex(boolean isPersist){
+		mPersistIndex = isPersist;
+	}
+
+	// Setter for TailMode flag, applies to files added after the call
+	protected void setTailMode(boolean isTail){
+		mTailMode = isTail;
+	}
+
+	// Setter for PositionalIndex flag, applies to files added after the call
+	protected void setPositionalIndex(boolean isPositional){
+		mPositionalIndex = isPositional;
+	}
+
+	// Setter for RetainAll flag, applies to files added after the call
+	protected void setRetainAll(boolean isRetainAll){
+		mRetainAll = isRetainAll;
+	}
+
+	// Setter for the memory budget (in bytes) of each file's kept instances, applies to files added after the call
+	protected void setRetainBudget(long budgetBytes){
+		mRetainBudgetBytes = budgetBytes;
+	}
+}
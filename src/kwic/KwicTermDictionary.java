@@ -0,0 +1,288 @@
+package kwic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Sorted keyword dictionary
+ * This class keeps the keywords of a KeywordIndex in sorted order, next to
+ * the hash index, so keywords can be found by pattern instead of only by
+ * their exact text.  It answers:
+ *   prefix queries     walk*
+ *   wildcard queries   w?lk, *ing, w*k
+ *   fuzzy queries      walk~  (every keyword one edit away)
+ *
+ * The sorted keywords are front coded in blocks of BLOCK_SIZE: the first
+ * keyword of a block is stored whole, and each following keyword only
+ * stores the number of characters it shares with the one before it plus
+ * the rest of its characters.  A query binary searches the block heads for
+ * the literal prefix of the pattern and then decodes keywords in order
+ * until the prefix no longer matches, so the work depends on the number
+ * of keywords with that prefix, not on the size of the dictionary.
+ *
+ * Fuzzy queries don't use the sorted order.  Every string one edit away
+ * from the word is looked up in the hash index instead.
+ *
+ * The dictionary is a snapshot, it does not see keywords added later.
+ *
+ * @author Michael Chalson
+ */
+
+public class KwicTermDictionary {
+	// Define the number of keywords per front coded block
+	private static final int BLOCK_SIZE = 16;
+
+	// Define the pattern characters
+	protected static final char ANY_CHARS = '*';
+	protected static final char ANY_CHAR = '?';
+	protected static final char FUZZY_MARK = '~';
+	// Define the characters a keyword can be made of (for fuzzy edits)
+	private static final String KEYWORD_CHARS = "abcdefghijklmnopqrstuvwxyz'";
+
+	// Number of keywords in the dictionary
+	private final int termCount;
+	// Term ids of the keywords, in sorted order
+	private final int[] sortedTermIds;
+	// Number of characters each keyword shares with the one before it (0 for block heads)
+	private final int[] sharedLengths;
+	// Start of the rest of each keyword in suffixChars (one extra entry marks the end)
+	private final int[] suffixStarts;
+	// Rest of the characters of all keywords, back to back
+	private final char[] suffixChars;
+
+	// Constructor that builds the dictionary from the keywords of an index
+	protected KwicTermDictionary(final KeywordIndex keywordIndex){
+		this.termCount = keywordIndex.getTermCount();
+		this.sortedTermIds = new int[termCount];
+		this.sharedLengths = new int[termCount];
+		this.suffixStarts = new int[termCount + 1];
+
+		// Sort the term ids by their keywords
+		Integer[] sortedIds = new Integer[termCount];
+		for (int termId = 0; termId < termCount; termId++){
+			sortedIds[termId] = termId;
+		}
+		Arrays.sort(sortedIds, new Comparator<Integer>(){
+			@Override
+			public int compare(Integer a, Integer b){
+				return keywordIndex.compareTerms(a, b);
+			}
+		});
+
+		// Front code the sorted keywords
+		int suffixLength = 0, shared, termId, prevTermId = -1;
+		for (int sortInd = 0; sortInd < termCount; sortInd++){
+			termId = sortedIds[sortInd];
+			sortedTermIds[sortInd] = termId;
+			shared = 0;
+			if (sortInd % BLOCK_SIZE != 0){
+				int maxShared = Math.min(keywordIndex.getTermLength(termId), keywordIndex.getTermLength(prevTermId));
+				while (shared < maxShared
+						&& keywordIndex.getTermChar(termId, shared) == keywordIndex.getTermChar(prevTermId, shared)){
+					shared++;
+				}
+			}
+			sharedLengths[sortInd] = shared;
+			suffixLength += keywordIndex.getTermLength(termId) - shared;
+			prevTermId = termId;
+		}
+
+		this.suffixChars = new char[suffixLength];
+		int charPos = 0;
+		for (int sortInd = 0; sortInd < termCount; sortInd++){
+			termId = sortedTermIds[sortInd];
+			suffixStarts[sortInd] = charPos;
+			for (int charInd = sharedLengths[sortInd]; charInd < keywordIndex.getTermLength(termId); charInd++){
+				suffixChars[charPos++] = keywordIndex.getTermChar(termId, charInd);
+			}
+		}
+		suffixStarts[termCount] = charPos;
+	}
+
+	// getter for the number of keywords in the dictionary
+	protected int getTermCount(){
+		return termCount;
+	}
+
+	// getter for the term id of the keyword at a sorted position
+	protected int getTermId(int sortInd){
+		return sortedTermIds[sortInd];
+	}
+
+	// Method to decode the keyword at a sorted position, given the keyword before it
+	private void decodeNext(int sortInd, StringBuilder term){
+		term.setLength(sharedLengths[sortInd]);
+		term.append(suffixChars, suffixStarts[sortInd], suffixStarts[sortInd + 1] - suffixStarts[sortInd]);
+	}
+
+	// Method to get the keyword at a sorted position
+	protected String getTerm(int sortInd){
+		StringBuilder term = new StringBuilder();
+		for (int decodeInd = sortInd - sortInd % BLOCK_SIZE; decodeInd <= sortInd; decodeInd++){
+			decodeNext(decodeInd, term);
+		}
+		return term.toString();
+	}
+
+	// Method to compare a keyword with a string in character order
+	private static int compareTerm(CharSequence term, String other){
+		int minLen = Math.min(term.length(), other.length());
+		int diff;
+		for (int charInd = 0; charInd < minLen; charInd++){
+			diff = term.charAt(charInd) - other.charAt(charInd);
+			if (diff != 0){
+				return diff;
+			}
+		}
+		return term.length() - other.length();
+	}
+
+	// Method to find the last block whose first keyword is not after a string
+	private int findBlock(String prefix){
+		StringBuilder head = new StringBuilder();
+		int low = 0, high = (termCount - 1) / BLOCK_SIZE, mid, found = 0;
+
+		while (low <= high){
+			mid = (low + high) >>> 1;
+			decodeNext(mid * BLOCK_SIZE, head);
+			if (compareTerm(head, prefix) <= 0){
+				found = mid;
+				low = mid + 1;
+			} else {
+				high = mid - 1;
+			}
+		}
+		return found;
+	}
+
+	/*
+	 * Method to find the keywords matching a prefix or wildcard pattern
+	 * The matches are added to terms in sorted order, up to maxTerms of them.
+	 */
+	protected void matchPattern(String pattern, int maxTerms, List<String> terms){
+		String prefix = getLiteralPrefix(pattern);
+		StringBuilder term = new StringBuilder();
+
+		if (termCount == 0){
+			return;
+		}
+
+		// Decode from the start of the block that may hold the prefix
+		for (int sortInd = findBlock(prefix) * BLOCK_SIZE; sortInd < termCount && terms.size() < maxTerms; sortInd++){
+			decodeNext(sortInd, term);
+			if (compareTerm(term, prefix) < 0){
+				continue;
+			}
+			if (!startsWith(term, prefix)){
+				break;
+			}
+			if (matchesPattern(term, pattern)){
+				terms.add(term.toString());
+			}
+		}
+	}
+
+	// Method to check if a query is a pattern (prefix, wildcard or fuzzy) query
+	// (phrase and NEAR queries are not, whatever characters they hold)
+	protected static boolean isPatternQuery(String query){
+		if (KwicProximityQuery.isProximityQuery(query)){
+			return false;
+		}
+		return query.indexOf(ANY_CHARS) >= 0 || query.indexOf(ANY_CHAR) >= 0 || isFuzzyQuery(query);
+	}
+
+	// Method to check if a query is a fuzzy query
+	protected static boolean isFuzzyQuery(String query){
+		return query.length() > 1 && query.charAt(query.length() - 1) == FUZZY_MARK;
+	}
+
+	// Method to get the characters of a pattern before its first wildcard
+	protected static String getLiteralPrefix(String pattern){
+		int prefixEnd = 0;
+		while (prefixEnd < pattern.length()
+				&& pattern.charAt(prefixEnd) != ANY_CHARS && pattern.charAt(prefixEnd) != ANY_CHAR){
+			prefixEnd++;
+		}
+		return pattern.substring(0, prefixEnd);
+	}
+
+	// Method to check if a keyword starts with a prefix
+	private static boolean startsWith(CharSequence term, String prefix){
+		if (term.length() < prefix.length()){
+			return false;
+		}
+		for (int charInd = 0; charInd < prefix.length(); charInd++){
+			if (term.charAt(charInd) != prefix.charAt(charInd)){
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/*
+	 * Method to match a keyword against a wildcard pattern
+	 * '*' matches any number of characters and '?' matches one character.
+	 * On a mismatch the last '*' takes one more character, so the match
+	 * never backtracks further than that.
+	 */
+	protected static boolean matchesPattern(CharSequence term, String pattern){
+		int termPos = 0, patternPos = 0, starPos = -1, starTermPos = 0;
+
+		while (termPos < term.length()){
+			if (patternPos < pattern.length() && (pattern.charAt(patternPos) == ANY_CHAR
+					|| pattern.charAt(patternPos) == term.charAt(termPos))){
+				patternPos++;
+				termPos++;
+			} else if (patternPos < pattern.length() && pattern.charAt(patternPos) == ANY_CHARS){
+				starPos = patternPos++;
+				starTermPos = termPos;
+			} else if (starPos >= 0){
+				patternPos = starPos + 1;
+				termPos = ++starTermPos;
+			} else {
+				return false;
+			}
+		}
+		while (patternPos < pattern.length() && pattern.charAt(patternPos) == ANY_CHARS){
+			patternPos++;
+		}
+		return patternPos == pattern.length();
+	}
+
+	/*
+	 * Method to list every string at most one edit (delete, replace or
+	 * insert a character) away from a word, including the word itself
+	 * The caller looks each one up in the hash index.
+	 */
+	protected static List<String> getFuzzyCandidates(String word){
+		Set<String> candidates = new LinkedHashSet<String>();
+		StringBuilder edit = new StringBuilder(word.length() + 1);
+
+		candidates.add(word);
+		for (int charInd = 0; charInd <= word.length(); charInd++){
+			// Delete the character
+			if (charInd < word.length()){
+				edit.setLength(0);
+				edit.append(word, 0, charInd).append(word, charInd + 1, word.length());
+				candidates.add(edit.toString());
+			}
+			for (int letterInd = 0; letterInd < KEYWORD_CHARS.length(); letterInd++){
+				// Replace the character
+				if (charInd < word.length()){
+					edit.setLength(0);
+					edit.append(word).setCharAt(charInd, KEYWORD_CHARS.charAt(letterInd));
+					candidates.add(edit.toString());
+				}
+				// Insert a character
+				edit.setLength(0);
+				edit.append(word, 0, charInd).append(KEYWORD_CHARS.charAt(letterInd)).append(word, charInd, word.length());
+				candidates.add(edit.toString());
+			}
+		}
+		return new ArrayList<String>(candidates);
+	}
+}
@@ -0,0 +1,51 @@
+package kwic;
+
+/**
+ * One keyword and the number of times it occurs (see KwicTermStats)
+ * Counts from one file are exact.  Counts combined over several files may
+ * come from a heavy hitters sketch (see KwicHeavyHitters), and are then
+ * at most getMaxError too high.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public final class KwicTermFrequency {
+	// Keyword (lower case)
+	private final String mTerm;
+	// Number of occurrences, and how much too high it may be
+	private final long mCount;
+	private final long mMaxError;
+
+	// Constructor
+	protected KwicTermFrequency(String term, long count, long maxError){
+		this.mTerm = term;
+		this.mCount = count;
+		this.mMaxError = maxError;
+	}
+
+	// Getter for the keyword
+	public String getTerm(){
+		return mTerm;
+	}
+
+	// Getter for the number of occurrences (an upper bound if the count is not exact)
+	public long getCount(){
+		return mCount;
+	}
+
+	// Getter for the most the count may be too high by (0 for an exact count)
+	public long getMaxError(){
+		return mMaxError;
+	}
+
+	// Check if the count is exact
+	public boolean isExact(){
+		return mMaxError == 0;
+	}
+
+	@Override
+	public String toString(){
+		return mTerm + ":" + mCount;
+	}
+}
@@ -0,0 +1,78 @@
+package kwic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable term statistics of an index (see KwicSearch.getTermStats)
+ * Every keyword occurrence is counted while the file is indexed, including
+ * the occurrences of dead keywords that are not kept, so these come
+ * without reading the file again.  They hold the number of keyword
+ * occurrences, the number of distinct keywords and of keywords that occur
+ * only once, and the most frequent keywords, most frequent first.
+ *
+ * Statistics combined over several files keep a bounded number of
+ * counters (see KwicHeavyHitters).  When some keywords didn't fit, the
+ * statistics are not exact: the top keyword counts may be a little too
+ * high, the distinct keyword count is only a lower bound and the count
+ * of keywords that occur once is unknown (-1).
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public final class KwicTermStats {
+	// Number of keyword occurrences
+	private final long mTokenCount;
+	// Number of distinct keywords (a lower bound if not exact), and of keywords that occur once (-1 if unknown)
+	private final long mTermCount;
+	private final long mSingleCount;
+	// Most frequent keywords, most frequent first
+	private final List<KwicTermFrequency> mTopTerms;
+	// Flag for exact statistics
+	private final boolean mExact;
+	// Flag for statistics taken before the index was done
+	private final boolean mPartial;
+
+	// Constructor, the list is copied
+	protected KwicTermStats(long tokenCount, long termCount, long singleCount, List<KwicTermFrequency> topTerms,
+			boolean exact, boolean partial){
+		this.mTokenCount = tokenCount;
+		this.mTermCount = termCount;
+		this.mSingleCount = singleCount;
+		this.mTopTerms = Collections.unmodifiableList(new ArrayList<KwicTermFrequency>(topTerms));
+		this.mExact = exact;
+		this.mPartial = partial;
+	}
+
+	// Getter for the number of keyword occurrences
+	public long getTokenCount(){
+		return mTokenCount;
+	}
+
+	// Getter for the number of distinct keywords (a lower bound if the statistics are not exact)
+	public long getTermCount(){
+		return mTermCount;
+	}
+
+	// Getter for the number of keywords that occur only once (-1 if the statistics are not exact)
+	public long getSingleCount(){
+		return mSingleCount;
+	}
+
+	// Getter for the most frequent keywords, most frequent first (unmodifiable)
+	public List<KwicTermFrequency> getTopTerms(){
+		return mTopTerms;
+	}
+
+	// Check if every count is exact
+	public boolean isExact(){
+		return mExact;
+	}
+
+	// Check if the statistics were taken before the index was done (the counts are then provisional)
+	public boolean isPartial(){
+		return mPartial;
+	}
+}
@@ -0,0 +1,143 @@
+package kwic;
+
+import java.util.Arrays;
+
+/**
+ * Shared text arena
+ * The line reader paths normally cut a context string for every keyword
+ * instance they keep, so the neighbouring words of a line each store an
+ * almost identical window of the same text.  In arena mode every line
+ * read is appended once to this arena instead (with a "\n" after it),
+ * and an instance only stores the offset and length of its keyword.
+ * The context window is built from the arena when the instance is
+ * displayed, with the same rules as the stored strings (see
+ * KwicTextSource), and can be any width.
+ *
+ * The arena is a list of fixed size chunks, so it grows without copying
+ * the text.  A chunk holds one byte per character until a character above
+ * U+00FF is appended to it, then it is widened to chars (like compact
+ * Strings), so Latin-1 text takes one byte per character.
+ *
+ * Only one thread appends.  Readers only look at text appended before the
+ * index lock was last released, and a chunk that is widened is replaced
+ * by a copy in a new chunk list, so readers never see a half-made chunk.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicTextArena extends KwicTextSource {
+	// Define the size of one chunk (1M characters)
+	private static final int CHUNK_SHIFT = 20;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	// Chunks of text, each a byte[] (Latin-1) or a char[]
+	private volatile Object[] mChunks = new Object[16];
+	// Number of characters appended
+	private volatile long mLength = 0;
+	// Heap used by the chunks
+	private long mAllocatedBytes = 0;
+
+	// Constructor
+	protected KwicTextArena(){
+	}
+
+	/*
+	 * Method to append a line and its line break
+	 * Returns the offset of the first character of the line.
+	 */
+	protected long appendLine(String line){
+		long lineStart = mLength;
+		long pos = lineStart;
+		int lineLen = line.length();
+		int charInd = 0, chunkPos, copyLen;
+		Object chunk;
+		char c;
+
+		while (charInd <= lineLen){
+			chunk = getChunkForAppend(pos);
+			chunkPos = (int) (pos & CHUNK_MASK);
+			copyLen = Math.min(lineLen + 1 - charInd, CHUNK_SIZE - chunkPos);
+
+			for (int copyInd = 0; copyInd < copyLen; copyInd++){
+				c = (charInd + copyInd < lineLen) ? line.charAt(charInd + copyInd) : '\n';
+				if (chunk instanceof byte[]){
+					if (c <= 0xFF){
+						((byte[]) chunk)[chunkPos + copyInd] = (byte) c;
+						continue;
+					}
+					chunk = widenChunk((int) (pos >>> CHUNK_SHIFT));
+				}
+				((char[]) chunk)[chunkPos + copyInd] = c;
+			}
+			charInd += copyLen;
+			pos += copyLen;
+		}
+
+		// Publish the line
+		mLength = pos;
+		return lineStart;
+	}
+
+	// Method to get the chunk holding an offset, adding a new chunk at a chunk boundary
+	private Object getChunkForAppend(long pos){
+		int chunkInd = (int) (pos >>> CHUNK_SHIFT);
+		Object[] chunks = mChunks;
+
+		if (chunkInd >= chunks.length){
+			chunks = Arrays.copyOf(chunks, 2 * chunks.length);
+		}
+		if (chunks[chunkInd] == null){
+			if (chunks == mChunks){
+				chunks = chunks.clone();
+			}
+			chunks[chunkInd] = new byte[CHUNK_SIZE];
+			mAllocatedBytes += CHUNK_SIZE;
+		}
+		if (chunks != mChunks){
+			mChunks = chunks;
+		}
+		return chunks[chunkInd];
+	}
+
+	// Method to replace a byte chunk with a char chunk holding the same text
+	private char[] widenChunk(int chunkInd){
+		Object[] chunks = mChunks.clone();
+		byte[] narrowChunk = (byte[]) chunks[chunkInd];
+		char[] wideChunk = new char[CHUNK_SIZE];
+
+		for (int charInd = 0; charInd < CHUNK_SIZE; charInd++){
+			wideChunk[charInd] = (char) (narrowChunk[charInd] & 0xFF);
+		}
+		chunks[chunkInd] = wideChunk;
+		// The chunk now takes two bytes per character instead of one
+		mAllocatedBytes += CHUNK_SIZE;
+		mChunks = chunks;
+		return wideChunk;
+	}
+
+	@Override
+	protected char charAt(long pos){
+		Object chunk = mChunks[(int) (pos >>> CHUNK_SHIFT)];
+		if (chunk instanceof byte[]){
+			return (char) (((byte[]) chunk)[(int) (pos & CHUNK_MASK)] & 0xFF);
+		}
+		return ((char[]) chunk)[(int) (pos & CHUNK_MASK)];
+	}
+
+	@Override
+	protected long getDataStart(){
+		return 0;
+	}
+
+	@Override
+	protected long getDataEnd(){
+		return mLength;
+	}
+
+	// Getter for the heap used by the arena
+	protected long getAllocatedBytes(){
+		return mAllocatedBytes + 8L * mChunks.length;
+	}
+}
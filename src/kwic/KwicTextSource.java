@@ -0,0 +1,188 @@
+package kwic;
+
+/**
+ * Random access text source
+ * This is the base class for text that is kept available (mapped or 
+ * buffered) after it has been read, so that lines and keyword contexts
+ * can be found from character offsets instead of from line Strings.
+ * 
+ * The context rules are the same as in KwicSearch: the context window
+ * may extend onto the previous and next line (but no farther), a single
+ * white space character marks each line break, and missing characters
+ * are padded with white space.
+ * 
+ * @author Michael Chalson
+ *
+ */
+
+public abstract class KwicTextSource {
+	
+	// Method to get the character at an absolute offset
+	protected abstract char charAt(long pos);
+	
+	// Offset of the first text character (after any Byte Order Mark)
+	protected abstract long getDataStart();
+	
+	// Offset just past the last text character
+	protected abstract long getDataEnd();
+	
+	// Method to check if a character ends a line ("\n", "\r" or "\r\n")
+	protected static boolean isLineBreak(char c){
+		return c == '\n' || c == '\r';
+	}
+	
+	// Method to find the end offset of the line starting at lineStart
+	protected long findLineEnd(long lineStart){
+		long pos = lineStart;
+		long dataEnd = getDataEnd();
+		while (pos < dataEnd && !isLineBreak(charAt(pos))){
+			pos++;
+		}
+		return pos;
+	}
+	
+	// Method to find the start offset of the line following a line end
+	protected long nextLineStart(long lineEnd){
+		long dataEnd = getDataEnd();
+		if (lineEnd >= dataEnd){
+			return dataEnd;
+		}
+		// Treat "\r\n" as a single line break
+		if (charAt(lineEnd) == '\r' && lineEnd + 1 < dataEnd && charAt(lineEnd + 1) == '\n'){
+			return lineEnd + 2;
+		}
+		return lineEnd + 1;
+	}
+	
+	/*
+	 * Method to build the context string of a keyword instance
+	 * 
+	 * Only the characters that end up in the context window are visited,
+	 * so the cost does not depend on the length of the surrounding lines.
+	 */
+	protected String buildContext(long keyStart, long keyEnd, int contextSize){
+		char[] context = new char[2*contextSize + (int) (keyEnd - keyStart)];
+		fillContext(keyStart, keyEnd, contextSize, context);
+		return new String(context);
+	}
+	
+	/*
+	 * Method to build the context of a keyword instance into a caller's buffer
+	 * The buffer holds at least 2*contextSize + (keyEnd - keyStart) chars,
+	 * so a reused buffer gives contexts without any allocation.
+	 */
+	protected void fillContext(long keyStart, long keyEnd, int contextSize, char[] context){
+		int keyLen = (int) (keyEnd - keyStart);
+		
+		fillLeftContext(keyStart, contextSize, context);
+		for (int keyInd = 0; keyInd < keyLen; keyInd++){
+			// A phrase hit can span lines, its line breaks show as spaces
+			context[contextSize + keyInd] = isLineBreak(charAt(keyStart + keyInd)) ? ' ' : charAt(keyStart + keyInd);
+		}
+		fillRightContext(keyEnd, contextSize, context, contextSize + keyLen);
+	}
+	
+	// Method to fill context[0, contextSize) with the characters before keyStart
+	private void fillLeftContext(long keyStart, int contextSize, char[] context){
+		long dataStart = getDataStart();
+		long pos = keyStart;
+		int filled = 0;
+		
+		// Copy characters from the current line
+		while (filled < contextSize && pos > dataStart && !isLineBreak(charAt(pos-1))){
+			pos--;
+			context[contextSize - 1 - filled++] = charAt(pos);
+		}
+		
+		// Extend onto the previous line if it exists and is not empty
+		if (filled < contextSize && pos > dataStart){
+			long prevEnd = pos - 1;
+			if (charAt(prevEnd) == '\n' && prevEnd > dataStart && charAt(prevEnd-1) == '\r'){
+				prevEnd--;
+			}
+			if (prevEnd > dataStart && !isLineBreak(charAt(prevEnd-1))){
+				// Mark the line break with a single white space
+				context[contextSize - 1 - filled++] = ' ';
+				pos = prevEnd;
+				while (filled < contextSize && pos > dataStart && !isLineBreak(charAt(pos-1))){
+					pos--;
+					context[contextSize - 1 - filled++] = charAt(pos);
+				}
+			}
+		}
+		
+		// Pad the rest with white space
+		while (filled < contextSize){
+			context[contextSize - 1 - filled++] = ' ';
+		}
+	}
+	
+	// Method to fill context[startInd, startInd+contextSize) with the characters after keyEnd
+	private void fillRightContext(long keyEnd, int contextSize, char[] context, int startInd){
+		long dataEnd = getDataEnd();
+		long pos = keyEnd;
+		int filled = 0;
+		
+		// Copy characters from the current line
+		while (filled < contextSize && pos < dataEnd && !isLineBreak(charAt(pos))){
+			context[startInd + filled++] = charAt(pos++);
+		}
+		
+		// Extend onto the next line if it exists and is not empty
+		if (filled < contextSize && pos < dataEnd){
+			pos = nextLineStart(pos);
+			if (pos < dataEnd && !isLineBreak(charAt(pos))){
+				// Mark the line break with a single white space
+				context[startInd + filled++] = ' ';
+				while (filled < contextSize && pos < dataEnd && !isLineBreak(charAt(pos))){
+					context[startInd + filled++] = charAt(pos++);
+				}
+			}
+		}
+		
+		// Pad the rest with white space
+		while (filled < contextSize){
+			context[startInd + filled++] = ' ';
+		}
+	}
+	
+	/*
+	 * Reusable CharSequence view of a span of the text source
+	 * This lets the regex matcher run over a line without copying the
+	 * line into a String first.
+	 */
+	protected class SpanView implements CharSequence {
+		private long mStart;
+		private int mLength;
+		
+		// Method to point the view at a new span
+		protected void setSpan(long start, long end){
+			this.mStart = start;
+			this.mLength = (int) (end - start);
+		}
+		
+		@Override
+		public int length(){
+			return mLength;
+		}
+		
+		@Override
+		public char charAt(int index){
+			return KwicTextSource.this.charAt(mStart + index);
+		}
+		
+		@Override
+		public CharSequence subSequence(int start, int end){
+			char[] chars = new char[end - start];
+			for (int charInd = 0; charInd < chars.length; charInd++){
+				chars[charInd] = charAt(start + charInd);
+			}
+			return new String(chars);
+		}
+		
+		@Override
+		public String toString(){
+			return subSequence(0, mLength).toString();
+		}
+	}
+}
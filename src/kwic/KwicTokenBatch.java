@@ -0,0 +1,165 @@
+package kwic;
+
+import java.util.Arrays;
+
+/**
+ * One batch of lines on its way through the indexing pipeline
+ * (see KwicSearch.buildIndexPipelined)
+ * The reader stage fills in the lines, with the lines just before and
+ * after the batch for the contexts.  A tokenizer stage then adds one
+ * compact record per keyword occurrence, and the indexer stage adds the
+ * records to the index in file order.
+ *
+ * A record is the keyword characters (lower case, back to back in one
+ * shared char array), their hash (see KeywordIndex.hashChars), the line
+ * in the batch and the start and end of the keyword in that line.  They
+ * are all kept in primitive arrays, so tokenizing allocates nothing per
+ * keyword, and the indexer doesn't hash the keyword again.
+ *
+ * A batch is only used by one stage at a time, it is handed on through
+ * the pipeline queue.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public class KwicTokenBatch {
+	// Define the initial number of records (grown as needed)
+	private static final int INITIAL_RECORD_CAPACITY = 1 << 12;
+
+	// Lines of the batch and their text arena offsets (null without an arena)
+	private final String[] mLines;
+	private final long[] mLineStarts;
+	private final int mLineCount;
+	// Lines just before and just after the batch (may be null)
+	private final String mPrevLine, mNextLine;
+	// Line number of the first line of the batch
+	private final int mFirstLineNum;
+	// Bytes of the file read up to the end of the batch (for progress)
+	private final long mEndBytes;
+
+	// Keyword characters of all records
+	private char[] mTermChars = new char[8*INITIAL_RECORD_CAPACITY];
+	private int mTermCharsUsed = 0;
+	// Records
+	private int[] mTermStart = new int[INITIAL_RECORD_CAPACITY];
+	private int[] mTermLength = new int[INITIAL_RECORD_CAPACITY];
+	private int[] mTermHash = new int[INITIAL_RECORD_CAPACITY];
+	private int[] mKeyStart = new int[INITIAL_RECORD_CAPACITY];
+	private int[] mKeyEnd = new int[INITIAL_RECORD_CAPACITY];
+	private int mRecordCount = 0;
+	// Number of records up to the end of each line
+	private final int[] mLineRecordEnd;
+
+	// Constructor, the arrays are kept (not copied)
+	protected KwicTokenBatch(String[] lines, long[] lineStarts, int lineCount, String prevLine, String nextLine,
+			int firstLineNum, long endBytes){
+		this.mLines = lines;
+		this.mLineStarts = lineStarts;
+		this.mLineCount = lineCount;
+		this.mPrevLine = prevLine;
+		this.mNextLine = nextLine;
+		this.mFirstLineNum = firstLineNum;
+		this.mEndBytes = endBytes;
+		this.mLineRecordEnd = new int[lineCount];
+	}
+
+	// Method to add the record of one keyword occurrence on a line
+	protected void addRecord(char[] termBuffer, int termLength, int termHash, int keyStart, int keyEnd){
+		if (mRecordCount == mTermStart.length){
+			int newCapacity = 2*mRecordCount;
+			mTermStart = Arrays.copyOf(mTermStart, newCapacity);
+			mTermLength = Arrays.copyOf(mTermLength, newCapacity);
+			mTermHash = Arrays.copyOf(mTermHash, newCapacity);
+			mKeyStart = Arrays.copyOf(mKeyStart, newCapacity);
+			mKeyEnd = Arrays.copyOf(mKeyEnd, newCapacity);
+		}
+		if (mTermCharsUsed + termLength > mTermChars.length){
+			mTermChars = Arrays.copyOf(mTermChars, Math.max(2*mTermChars.length, mTermCharsUsed + termLength));
+		}
+
+		System.arraycopy(termBuffer, 0, mTermChars, mTermCharsUsed, termLength);
+		mTermStart[mRecordCount] = mTermCharsUsed;
+		mTermLength[mRecordCount] = termLength;
+		mTermHash[mRecordCount] = termHash;
+		mKeyStart[mRecordCount] = keyStart;
+		mKeyEnd[mRecordCount] = keyEnd;
+		mTermCharsUsed += termLength;
+		mRecordCount++;
+	}
+
+	// Method to mark the end of the records of a line (lines are tokenized in order)
+	protected void endLine(int lineInd){
+		mLineRecordEnd[lineInd] = mRecordCount;
+	}
+
+	// Getter for the number of lines
+	protected int getLineCount(){
+		return mLineCount;
+	}
+
+	// Getter for a line of the batch
+	protected String getLine(int lineInd){
+		return mLines[lineInd];
+	}
+
+	// Getter for the line before a line of the batch (may be null)
+	protected String getPrevLine(int lineInd){
+		return (lineInd == 0) ? mPrevLine : mLines[lineInd - 1];
+	}
+
+	// Getter for the line after a line of the batch (may be null)
+	protected String getNextLine(int lineInd){
+		return (lineInd == mLineCount - 1) ? mNextLine : mLines[lineInd + 1];
+	}
+
+	// Getter for the text arena offset of a line, -1 without an arena
+	protected long getLineStart(int lineInd){
+		return (mLineStarts == null) ? -1 : mLineStarts[lineInd];
+	}
+
+	// Getter for the line number of a line of the batch
+	protected int getLineNum(int lineInd){
+		return mFirstLineNum + lineInd;
+	}
+
+	// Getter for the number of records up to the end of a line
+	protected int getLineRecordEnd(int lineInd){
+		return mLineRecordEnd[lineInd];
+	}
+
+	// Getter for the bytes of the file read up to the end of the batch
+	protected long getEndBytes(){
+		return mEndBytes;
+	}
+
+	// Getter for the keyword characters of all records
+	protected char[] getTermChars(){
+		return mTermChars;
+	}
+
+	// Getter for the start of the keyword of a record in getTermChars
+	protected int getTermStart(int recordInd){
+		return mTermStart[recordInd];
+	}
+
+	// Getter for the length of the keyword of a record
+	protected int getTermLength(int recordInd){
+		return mTermLength[recordInd];
+	}
+
+	// Getter for the hash of the keyword of a record
+	protected int getTermHash(int recordInd){
+		return mTermHash[recordInd];
+	}
+
+	// Getter for the start of the keyword of a record in its line
+	protected int getKeyStart(int recordInd){
+		return mKeyStart[recordInd];
+	}
+
+	// Getter for the end of the keyword of a record in its line
+	protected int getKeyEnd(int recordInd){
+		return mKeyEnd[recordInd];
+	}
+}
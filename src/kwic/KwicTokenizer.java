@@ -0,0 +1,270 @@
+package kwic;
+
+import java.text.BreakIterator;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/** Keyword tokenizer
+ * This class splits a line of text into keywords.  By default it scans 
+ * the characters by hand and writes the lower case keyword into a reusable
+ * buffer, so finding a keyword does not allocate anything.  The scanner
+ * gives exactly the same keywords as the original regex, which can still
+ * be selected for comparison:
+ *   [a-zA-Z]+'?[a-zA-Z]
+ * That is, a run of two or more ASCII letters, or a run of letters 
+ * followed by a single apostrophe and one more letter.  Hyphens and all
+ * other characters split words.  KwicTokenizerCheck (in bench/) checks
+ * the scanner against the regex over edge cases and random lines.
+ * 
+ * In Unicode word mode the words are found by the Unicode word boundary
+ * rules of java.text.BreakIterator instead, so letters of every script
+ * count, and a word is a segment of two or more characters that contains
+ * a letter (a single ideograph is a word too, as Chinese and Japanese
+ * have no spaces).  The keyword is lower cased with the rules of the word
+ * locale (in Turkish "I" becomes a dotless "i").  Pure ASCII keywords
+ * still take the cheap lower case copy, unless the locale changes them.
+ * 
+ * One tokenizer must only be used by one thread at a time.
+ * 
+ * @author Michael Chalson
+ */
+
+public class KwicTokenizer {
+	// Regex pattern that defines "what is a word"
+	protected static final Pattern WORD_PATTERN = Pattern.compile("[a-zA-Z]+'?[a-zA-Z]");
+	
+	// Flag to use the regex instead of the hand written scanner
+	private final boolean useRegex;
+	// Reusable regex matcher (only used in regex mode)
+	private Matcher matcher = null;
+	
+	// Locale of Unicode word mode, null for the ASCII scanner
+	private final Locale wordLocale;
+	// Flag for a locale that lower cases some ASCII letters differently (Turkish, Azeri)
+	private final boolean localeFoldsAscii;
+	// Reusable word boundary finder (only used in Unicode word mode)
+	private BreakIterator wordBoundaries = null;
+	// End of the current word segment in Unicode word mode
+	private int segmentEnd;
+	
+	// Line being tokenized
+	private CharSequence line;
+	// Scan position and end of the line
+	private int scanPos, scanLimit;
+	
+	// Start and end indices of the current keyword within the line
+	private int termStart, termEnd;
+	// Reusable buffer with the lower case current keyword
+	private char[] termBuffer = new char[32];
+	private int termLength;
+	
+	// Basic Constructor (hand written scanner)
+	protected KwicTokenizer(){
+		this(false);
+	}
+	
+	// Constructor that selects the regex or the hand written scanner
+	protected KwicTokenizer(boolean regex){
+		this(regex, null);
+	}
+	
+	// Constructor that selects Unicode word mode with a locale (null for the regex or the hand written scanner)
+	protected KwicTokenizer(boolean regex, Locale unicodeLocale){
+		this.useRegex = regex && unicodeLocale == null;
+		this.wordLocale = unicodeLocale;
+		this.localeFoldsAscii = unicodeLocale != null
+				&& !"I".toLowerCase(unicodeLocale).equals("i");
+	}
+	
+	// Method to start tokenizing a new line
+	protected void reset(CharSequence newLine){
+		this.line = newLine;
+		this.scanPos = 0;
+		this.scanLimit = newLine.length();
+		this.termLength = 0;
+		
+		if (wordLocale != null){
+			if (wordBoundaries == null){
+				wordBoundaries = BreakIterator.getWordInstance(wordLocale);
+			}
+			wordBoundaries.setText(newLine.toString());
+			segmentEnd = wordBoundaries.first();
+		} else if (useRegex){
+			if (matcher == null){
+				matcher = WORD_PATTERN.matcher(newLine);
+			} else {
+				matcher.reset(newLine);
+			}
+		}
+	}
+	
+	// Method to advance to the next keyword, returns false at the end of the line
+	protected boolean next(){
+		if (wordLocale != null){
+			return nextUnicode();
+		}
+		if (useRegex){
+			return nextRegex();
+		}
+		
+		CharSequence text = line;
+		int pos = scanPos;
+		int limit = scanLimit;
+		int runEnd, tokenEnd;
+		
+		while (pos < limit){
+			// Skip to the next letter
+			if (!isWordLetter(text.charAt(pos))){
+				pos++;
+				continue;
+			}
+			
+			// Find the end of this run of letters
+			runEnd = pos + 1;
+			while (runEnd < limit && isWordLetter(text.charAt(runEnd))){
+				runEnd++;
+			}
+			
+			if (runEnd + 1 < limit && text.charAt(runEnd) == '\'' && isWordLetter(text.charAt(runEnd + 1))){
+				// Letters, one apostrophe and one more letter
+				tokenEnd = runEnd + 2;
+			} else if (runEnd - pos >= 2){
+				// Plain run of two or more letters
+				tokenEnd = runEnd;
+			} else {
+				// A single letter is not a word
+				pos = runEnd;
+				continue;
+			}
+			
+			// Copy the keyword into the buffer in lower case
+			copyTerm(text, pos, tokenEnd);
+			scanPos = tokenEnd;
+			return true;
+		}
+		
+		scanPos = limit;
+		return false;
+	}
+	
+	// Regex version of next, kept as the reference definition of a word
+	private boolean nextRegex(){
+		if (!matcher.find()){
+			return false;
+		}
+		copyTerm(line, matcher.start(), matcher.end());
+		return true;
+	}
+	
+	// Unicode word mode version of next, steps through the word boundaries
+	private boolean nextUnicode(){
+		int segmentStart;
+		
+		while (segmentEnd != BreakIterator.DONE){
+			segmentStart = segmentEnd;
+			segmentEnd = wordBoundaries.next();
+			if (segmentEnd != BreakIterator.DONE && isUnicodeWord(line, segmentStart, segmentEnd)){
+				copyUnicodeTerm(line, segmentStart, segmentEnd);
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	// Method to check if a word boundary segment is a keyword
+	private static boolean isUnicodeWord(CharSequence text, int start, int end){
+		boolean hasLetter = false;
+		int codePoint, codePointCount = 0;
+		
+		for (int pos = start; pos < end; pos += Character.charCount(codePoint)){
+			codePoint = Character.codePointAt(text, pos);
+			if (Character.isIdeographic(codePoint)){
+				return true;
+			}
+			hasLetter |= Character.isLetter(codePoint);
+			codePointCount++;
+		}
+		return hasLetter && codePointCount >= 2;
+	}
+	
+	/*
+	 * Method to copy a Unicode keyword into the term buffer in lower case
+	 * Only keywords with non ASCII characters (or all keywords, for a
+	 * locale that lower cases ASCII letters its own way) go through
+	 * String.toLowerCase.  Its result can be longer than the keyword, so
+	 * the term length may differ from termEnd - termStart.
+	 */
+	private void copyUnicodeTerm(CharSequence text, int start, int end){
+		boolean isAscii = !localeFoldsAscii;
+		String lowerTerm;
+		
+		for (int pos = start; pos < end && isAscii; pos++){
+			isAscii = text.charAt(pos) < 0x80;
+		}
+		if (isAscii){
+			copyTerm(text, start, end);
+			return;
+		}
+		
+		lowerTerm = text.subSequence(start, end).toString().toLowerCase(wordLocale);
+		termStart = start;
+		termEnd = end;
+		termLength = lowerTerm.length();
+		if (termLength > termBuffer.length){
+			termBuffer = new char[Math.max(termLength, 2*termBuffer.length)];
+		}
+		lowerTerm.getChars(0, termLength, termBuffer, 0);
+	}
+	
+	// Method to lower case a query keyword like the keywords of a line (null locale for the ASCII scanner)
+	protected static String foldKeyword(String keyword, Locale unicodeLocale){
+		return (unicodeLocale == null) ? keyword.toLowerCase() : keyword.toLowerCase(unicodeLocale);
+	}
+	
+	// Method to copy a keyword into the term buffer in lower case
+	private void copyTerm(CharSequence text, int start, int end){
+		char c;
+		
+		termStart = start;
+		termEnd = end;
+		termLength = end - start;
+		if (termLength > termBuffer.length){
+			termBuffer = new char[Math.max(termLength, 2*termBuffer.length)];
+		}
+		for (int charInd = 0; charInd < termLength; charInd++){
+			c = text.charAt(start + charInd);
+			termBuffer[charInd] = (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+		}
+	}
+	
+	// Method to check if a character can be part of a word
+	protected static boolean isWordLetter(char c){
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+	
+	// getter for the start index of the current keyword
+	protected int getTermStart(){
+		return termStart;
+	}
+	
+	// getter for the end index of the current keyword
+	protected int getTermEnd(){
+		return termEnd;
+	}
+	
+	// getter for the term buffer (only valid up to getTermLength)
+	protected char[] getTermBuffer(){
+		return termBuffer;
+	}
+	
+	// getter for the length of the current keyword
+	protected int getTermLength(){
+		return termLength;
+	}
+	
+	// Method to get the current keyword as a String (allocates)
+	protected String getTerm(){
+		return new String(termBuffer, 0, termLength);
+	}
+}
@@ -0,0 +1,126 @@
+package kwic;
+
+/**
+ * Bounded heap of the most frequent terms
+ * Terms are offered one at a time as (id, count) pairs, and only the best
+ * N are kept, in a min-heap with the weakest of them at the root.  An
+ * offered term only has to beat the root, so finding the top N of T
+ * terms takes O(T log N) time and O(N) memory, instead of sorting all T.
+ *
+ * Ids are whatever the caller numbers its terms with (term ids, or
+ * dictionary entries of a saved index).  Equal counts are ordered by
+ * compareIds, so the same text gives the same top terms in every mode.
+ * The heap is held in primitive arrays, so offering a term allocates
+ * nothing.
+ *
+ * This class is not thread safe.
+ *
+ * @author Michael Chalson
+ *
+ */
+
+public abstract class KwicTopTerms {
+	// Max number of terms kept
+	private final int mCapacity;
+	// Heap of term ids and their counts, the weakest term at index 0
+	private final int[] mIds;
+	private final long[] mCounts;
+	// Number of terms in the heap
+	private int mSize = 0;
+
+	// Constructor that sets the number of terms kept
+	protected KwicTopTerms(int capacity){
+		this.mCapacity = Math.max(0, capacity);
+		this.mIds = new int[mCapacity];
+		this.mCounts = new long[mCapacity];
+	}
+
+	/*
+	 * Method to order two terms with equal counts
+	 * Returns a negative number if term idA goes first.
+	 */
+	protected abstract int compareIds(int idA, int idB);
+
+	// Method to check if term A ranks below term B
+	private boolean isWeaker(int idA, long countA, int idB, long countB){
+		if (countA != countB){
+			return countA < countB;
+		}
+		return compareIds(idA, idB) > 0;
+	}
+
+	// Method to offer a term, it is kept if it ranks in the top N so far
+	protected void offer(int id, long count){
+		if (mSize < mCapacity){
+			mIds[mSize] = id;
+			mCounts[mSize] = count;
+			siftUp(mSize++);
+		} else if (mCapacity > 0 && isWeaker(mIds[0], mCounts[0], id, count)){
+			// Replace the weakest term kept
+			mIds[0] = id;
+			mCounts[0] = count;
+			siftDown(0);
+		}
+	}
+
+	// Method to move a heap entry up to its place
+	private void siftUp(int heapInd){
+		int parentInd;
+		while (heapInd > 0){
+			parentInd = (heapInd - 1) >>> 1;
+			if (!isWeaker(mIds[heapInd], mCounts[heapInd], mIds[parentInd], mCounts[parentInd])){
+				break;
+			}
+			swap(heapInd, parentInd);
+			heapInd = parentInd;
+		}
+	}
+
+	// Method to move a heap entry down to its place
+	private void siftDown(int heapInd){
+		int childInd;
+		while ((childInd = 2*heapInd + 1) < mSize){
+			if (childInd + 1 < mSize && isWeaker(mIds[childInd + 1], mCounts[childInd + 1], mIds[childInd], mCounts[childInd])){
+				childInd++;
+			}
+			if (!isWeaker(mIds[childInd], mCounts[childInd], mIds[heapInd], mCounts[heapInd])){
+				break;
+			}
+			swap(heapInd, childInd);
+			heapInd = childInd;
+		}
+	}
+
+	// Method to swap two heap entries
+	private void swap(int heapIndA, int heapIndB){
+		int id = mIds[heapIndA];
+		long count = mCounts[heapIndA];
+		mIds[heapIndA] = mIds[heapIndB];
+		mCounts[heapIndA] = mCounts[heapIndB];
+		mIds[heapIndB] = id;
+		mCounts[heapIndB] = count;
+	}
+
+	// Getter for the number of terms kept
+	protected int size(){
+		return mSize;
+	}
+
+	/*
+	 * Method to take the terms out of the heap, most frequent first
+	 * The heap is empty afterwards.
+	 */
+	protected int[] drainIds(){
+		int[] sortedIds = new int[mSize];
+		for (int sortInd = mSize - 1; sortInd >= 0; sortInd--){
+			sortedIds[sortInd] = mIds[0];
+			mSize--;
+			if (mSize > 0){
+				mIds[0] = mIds[mSize];
+				mCounts[0] = mCounts[mSize];
+				siftDown(0);
+			}
+		}
+		return sortedIds;
+	}
+}
@@ -0,0 +1,97 @@
+package kwic;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Memory mapped text source
+ * This maps an ASCII text file with NIO so the index can be built by
+ * scanning bytes directly.  Every byte is treated as one character, so
+ * the offsets and context windows only match the line reader for ASCII
+ * (or single byte) input.  Files larger than 2GB are mapped as several
+ * segments.
+ * 
+ * @author Michael Chalson
+ *
+ */
+
+public class MappedTextSource extends KwicTextSource {
+	// Define the size of one mapped segment (1GB)
+	private static final int SEGMENT_SHIFT = 30;
+	private static final long SEGMENT_SIZE = 1L << SEGMENT_SHIFT;
+	private static final int SEGMENT_MASK = (int) (SEGMENT_SIZE - 1);
+	
+	// Mapped segments of the file
+	private MappedByteBuffer[] mSegments;
+	// Length of the file in bytes
+	private long mLength;
+	// Offset of the first text byte
+	private long mDataStart = 0;
+	
+	// Constructor that maps the named file
+	protected MappedTextSource(String fileName) throws IOException {
+		FileChannel channel = null;
+		
+		try {
+			channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+			mLength = channel.size();
+			
+			// Map the file one segment at a time
+			mSegments = new MappedByteBuffer[(int) ((mLength + SEGMENT_SIZE - 1) >>> SEGMENT_SHIFT)];
+			for (int segInd = 0; segInd < mSegments.length; segInd++){
+				long segStart = segInd * SEGMENT_SIZE;
+				mSegments[segInd] = channel.map(FileChannel.MapMode.READ_ONLY, segStart,
+						Math.min(SEGMENT_SIZE, mLength - segStart));
+			}
+		} finally {
+			// The mapping stays valid after the channel is closed
+			if (channel != null){
+				channel.close();
+			}
+		}
+		
+		// Skip a UTF-8 Byte Order Mark, like cleanupFirstLine does for the line reader
+		if (mLength >= 3 && byteAt(0) == (byte) 0xEF && byteAt(1) == (byte) 0xBB && byteAt(2) == (byte) 0xBF){
+			mDataStart = 3;
+		}
+	}
+	
+	// Method to get the raw byte at an absolute offset
+	protected byte byteAt(long pos){
+		return mSegments[(int) (pos >>> SEGMENT_SHIFT)].get((int) (pos & SEGMENT_MASK));
+	}
+	
+	@Override
+	protected char charAt(long pos){
+		return (char) (byteAt(pos) & 0xFF);
+	}
+	
+	@Override
+	protected long getDataStart(){
+		return mDataStart;
+	}
+	
+	@Override
+	protected long getDataEnd(){
+		return mLength;
+	}
+	
+	// Method to find the end offset of the line starting at lineStart
+	// (byte scan without the char conversion)
+	@Override
+	protected long findLineEnd(long lineStart){
+		long pos = lineStart;
+		byte b;
+		while (pos < mLength){
+			b = byteAt(pos);
+			if (b == '\n' || b == '\r'){
+				break;
+			}
+			pos++;
+		}
+		return pos;
+	}
+}